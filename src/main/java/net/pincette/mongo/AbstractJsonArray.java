@@ -0,0 +1,89 @@
+package net.pincette.mongo;
+
+import static net.pincette.json.JsonUtil.string;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.stream.IntStream;
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+
+/**
+ * The typed getters of a JSON array, which are all based on the <code>get</code> and <code>size
+ * </code> methods.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ */
+abstract class AbstractJsonArray extends AbstractList<JsonValue> implements JsonArray {
+  public boolean getBoolean(final int index) {
+    final JsonValue value = get(index);
+
+    if (value != JsonValue.TRUE && value != JsonValue.FALSE) {
+      throw new ClassCastException(String.valueOf(index));
+    }
+
+    return value == JsonValue.TRUE;
+  }
+
+  public boolean getBoolean(final int index, final boolean defaultValue) {
+    final JsonValue value = index >= 0 && index < size() ? get(index) : null;
+
+    return value == JsonValue.TRUE || (value != JsonValue.FALSE && defaultValue);
+  }
+
+  public int getInt(final int index) {
+    return getJsonNumber(index).intValue();
+  }
+
+  public int getInt(final int index, final int defaultValue) {
+    return index >= 0 && index < size() && get(index) instanceof JsonNumber number
+        ? number.intValue()
+        : defaultValue;
+  }
+
+  public JsonArray getJsonArray(final int index) {
+    return (JsonArray) get(index);
+  }
+
+  public JsonNumber getJsonNumber(final int index) {
+    return (JsonNumber) get(index);
+  }
+
+  public JsonObject getJsonObject(final int index) {
+    return (JsonObject) get(index);
+  }
+
+  public JsonString getJsonString(final int index) {
+    return (JsonString) get(index);
+  }
+
+  public String getString(final int index) {
+    return getJsonString(index).getString();
+  }
+
+  public String getString(final int index, final String defaultValue) {
+    return index >= 0 && index < size() && get(index) instanceof JsonString s
+        ? s.getString()
+        : defaultValue;
+  }
+
+  public <T extends JsonValue> List<T> getValuesAs(final Class<T> clazz) {
+    return IntStream.range(0, size()).mapToObj(i -> clazz.cast(get(i))).toList();
+  }
+
+  public ValueType getValueType() {
+    return ValueType.ARRAY;
+  }
+
+  public boolean isNull(final int index) {
+    return get(index) == JsonValue.NULL;
+  }
+
+  public String toString() {
+    return string(this);
+  }
+}
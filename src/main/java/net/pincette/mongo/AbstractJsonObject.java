@@ -0,0 +1,88 @@
+package net.pincette.mongo;
+
+import static net.pincette.json.JsonUtil.string;
+
+import java.util.AbstractMap;
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+
+/**
+ * The typed getters of a JSON object, which are all based on the <code>get</code> method.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ */
+abstract class AbstractJsonObject extends AbstractMap<String, JsonValue> implements JsonObject {
+  public boolean getBoolean(final String name) {
+    final JsonValue value = get(name);
+
+    if (value == null) {
+      throw new NullPointerException(name);
+    }
+
+    if (value != JsonValue.TRUE && value != JsonValue.FALSE) {
+      throw new ClassCastException(name);
+    }
+
+    return value == JsonValue.TRUE;
+  }
+
+  public boolean getBoolean(final String name, final boolean defaultValue) {
+    final JsonValue value = get(name);
+
+    return value == JsonValue.TRUE || (value != JsonValue.FALSE && defaultValue);
+  }
+
+  public int getInt(final String name) {
+    return getJsonNumber(name).intValue();
+  }
+
+  public int getInt(final String name, final int defaultValue) {
+    return get(name) instanceof JsonNumber number ? number.intValue() : defaultValue;
+  }
+
+  public JsonArray getJsonArray(final String name) {
+    return (JsonArray) get(name);
+  }
+
+  public JsonNumber getJsonNumber(final String name) {
+    return (JsonNumber) get(name);
+  }
+
+  public JsonObject getJsonObject(final String name) {
+    return (JsonObject) get(name);
+  }
+
+  public JsonString getJsonString(final String name) {
+    return (JsonString) get(name);
+  }
+
+  public String getString(final String name) {
+    return getJsonString(name).getString();
+  }
+
+  public String getString(final String name, final String defaultValue) {
+    return get(name) instanceof JsonString s ? s.getString() : defaultValue;
+  }
+
+  public ValueType getValueType() {
+    return ValueType.OBJECT;
+  }
+
+  public boolean isNull(final String name) {
+    final JsonValue value = get(name);
+
+    if (value == null) {
+      throw new NullPointerException(name);
+    }
+
+    return value == JsonValue.NULL;
+  }
+
+  public String toString() {
+    return string(this);
+  }
+}
@@ -0,0 +1,279 @@
+package net.pincette.mongo;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.System.nanoTime;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Flow.Processor;
+import java.util.concurrent.Flow.Subscriber;
+import java.util.concurrent.Flow.Subscription;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+/**
+ * A processor that requests values from the upstream publisher in batches, of which the size
+ * adapts to the consumer. The MongoDB driver derives the batch size of a <code>getMore</code> call
+ * from the outstanding demand when no batch size has been set, so this steers the round-trips of a
+ * cursor. One batch is requested while the previous one is being consumed, as long as the buffered
+ * values and the next batch fit in the memory budget.
+ *
+ * <p>The first request is for one value, because nothing is known about the value size before it
+ * arrives. The second batch is small, which is good for interactive queries, but it never exceeds
+ * the budget. When the consumer had to wait for a batch, the next one is twice as large. Otherwise,
+ * the batch size follows the number of values the consumer processes during one round-trip,
+ * changing by at most a factor of two at a time. The batch size never exceeds half of the budget
+ * divided by the average value size.
+ *
+ * @param <T> the value type.
+ * @author Werner Donné
+ * @since 4.4
+ */
+class AdaptiveDemand<T> implements Processor<T, T> {
+  static final int INITIAL_BATCH = 16;
+  static final int MAX_BATCH = 100000;
+  static final int MIN_BATCH = 2;
+  private static final double WEIGHT = 0.25;
+
+  private final Deque<Item<T>> buffer = new ArrayDeque<>();
+  private final long budget;
+  private final AtomicInteger draining = new AtomicInteger();
+  private final ToIntFunction<T> size;
+  private double averageSize;
+  private int batch = INITIAL_BATCH;
+  private int batches;
+  private long batchStart;
+  private long buffered;
+  private boolean cancelled;
+  private boolean completed;
+  private long emitted;
+  private Throwable error;
+  private boolean firstOfBatch;
+  private long outstanding;
+  private double rate;
+  private long requested;
+  private double roundTrip;
+  private boolean starved;
+  private Subscriber<? super T> subscriber;
+  private Subscription subscription;
+  private boolean terminated;
+
+  AdaptiveDemand(final ToIntFunction<T> size, final long budget) {
+    this.size = size;
+    this.budget = budget;
+  }
+
+  private static double average(final double average, final double sample) {
+    return average == 0 ? sample : (1 - WEIGHT) * average + WEIGHT * sample;
+  }
+
+  private static int clamp(final double value, final int low, final int high) {
+    return (int) max(low, min(high, value));
+  }
+
+  private void drain() {
+    if (draining.getAndIncrement() == 0) {
+      do {
+        emit();
+        requestMore();
+        terminate();
+      } while (draining.decrementAndGet() != 0);
+    }
+  }
+
+  private void emit() {
+    while (true) {
+      final T value;
+
+      synchronized (this) {
+        if (subscriber == null || cancelled || error != null) {
+          return;
+        }
+
+        if (buffer.isEmpty()) {
+          starved |= requested > 0 && outstanding > 0;
+          return;
+        }
+
+        if (requested == 0) {
+          return;
+        }
+
+        final Item<T> item = buffer.removeFirst();
+
+        buffered -= item.size;
+        value = item.value;
+        --requested;
+        ++emitted;
+      }
+
+      subscriber.onNext(value);
+    }
+  }
+
+  private int maxBatch() {
+    return averageSize > 0 ? clamp(budget / (2 * averageSize), MIN_BATCH, MAX_BATCH) : MAX_BATCH;
+  }
+
+  private boolean mayRequest() {
+    return subscriber != null
+        && subscription != null
+        && !completed
+        && !cancelled
+        && error == null
+        && outstanding == 0
+        && (buffer.isEmpty() || buffered + batch * averageSize <= budget);
+  }
+
+  public void onComplete() {
+    synchronized (this) {
+      completed = true;
+    }
+
+    drain();
+  }
+
+  public void onError(final Throwable throwable) {
+    synchronized (this) {
+      error = throwable;
+    }
+
+    drain();
+  }
+
+  public void onNext(final T value) {
+    final int s = size.applyAsInt(value);
+
+    synchronized (this) {
+      if (firstOfBatch) {
+        firstOfBatch = false;
+        roundTrip = average(roundTrip, nanoTime() - batchStart);
+      }
+
+      --outstanding;
+      averageSize = average(averageSize, s);
+      buffered += s;
+      buffer.addLast(new Item<>(value, s));
+    }
+
+    drain();
+  }
+
+  public void onSubscribe(final Subscription subscription) {
+    synchronized (this) {
+      this.subscription = subscription;
+    }
+
+    drain();
+  }
+
+  private void requestMore() {
+    final int n;
+
+    synchronized (this) {
+      if (!mayRequest()) {
+        return;
+      }
+
+      final long now = nanoTime();
+
+      if (batches > 1) {
+        tune(now);
+      } else if (batches == 1) {
+        batch = min(batch, maxBatch());
+      }
+
+      n = batches++ == 0 ? 1 : batch;
+      outstanding = n;
+      batchStart = now;
+      firstOfBatch = true;
+    }
+
+    subscription.request(n);
+  }
+
+  public void subscribe(final Subscriber<? super T> subscriber) {
+    synchronized (this) {
+      this.subscriber = subscriber;
+    }
+
+    subscriber.onSubscribe(new Downstream());
+    drain();
+  }
+
+  private void terminate() {
+    final Throwable e;
+    final boolean complete;
+
+    synchronized (this) {
+      if (terminated || cancelled || subscriber == null) {
+        return;
+      }
+
+      e = error;
+      complete = completed && buffer.isEmpty();
+      terminated = e != null || complete;
+
+      if (e != null && subscription != null && !completed) {
+        subscription.cancel();
+      }
+    }
+
+    if (e != null) {
+      subscriber.onError(e);
+    } else if (complete) {
+      subscriber.onComplete();
+    }
+  }
+
+  private void tune(final long now) {
+    if (emitted > 0) {
+      rate = average(rate, (double) emitted / max(1, now - batchStart));
+    }
+
+    final double target = starved ? 2.0 * batch : rate * roundTrip;
+    final int high = min(2 * batch, maxBatch());
+
+    batch = clamp(target, min(max(MIN_BATCH, batch / 2), high), high);
+    emitted = 0;
+    starved = false;
+  }
+
+  private static class Item<T> {
+    private final int size;
+    private final T value;
+
+    private Item(final T value, final int size) {
+      this.value = value;
+      this.size = size;
+    }
+  }
+
+  private class Downstream implements Subscription {
+    public void cancel() {
+      final Subscription s;
+
+      synchronized (AdaptiveDemand.this) {
+        cancelled = true;
+        s = subscription;
+      }
+
+      if (s != null) {
+        s.cancel();
+      }
+    }
+
+    public void request(final long n) {
+      if (n <= 0) {
+        onError(new IllegalArgumentException("The request should be positive: " + n));
+      } else {
+        synchronized (AdaptiveDemand.this) {
+          requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+        }
+
+        drain();
+      }
+    }
+  }
+}
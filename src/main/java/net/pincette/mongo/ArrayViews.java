@@ -0,0 +1,308 @@
+package net.pincette.mongo;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.util.Arrays.stream;
+import static java.util.Objects.checkIndex;
+import static net.pincette.json.JsonUtil.asNumber;
+import static net.pincette.json.JsonUtil.createValue;
+
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import javax.json.JsonArray;
+import javax.json.JsonValue;
+
+/**
+ * Read-only JSON arrays that are views on other arrays or that generate their elements. Array
+ * operators can be chained without copying the intermediate results. Slices of slices, reversals
+ * of reversals and concatenations of concatenations collapse into one view. A view should be
+ * materialized when it leaves the engine, so the underlying arrays are no longer retained. Values
+ * that are added to JSON builders should be materialized first, because only the engine-built
+ * objects and arrays are searched for views.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ */
+class ArrayViews {
+  private ArrayViews() {}
+
+  static JsonArray concat(final List<JsonArray> arrays) {
+    return switch (arrays.size()) {
+      case 0 -> CompactJsonArray.EMPTY;
+      case 1 -> arrays.getFirst();
+      default -> new Concat(arrays.stream().flatMap(ArrayViews::parts).toArray(JsonArray[]::new));
+    };
+  }
+
+  static JsonArray generate(final int size, final IntFunction<JsonValue> element) {
+    return new Generated(size, element);
+  }
+
+  /**
+   * Tells if <code>value</code> is a view or an engine-built object or array that contains one.
+   *
+   * @param value the given value.
+   * @return Whether it should be materialized.
+   */
+  static boolean hasViews(final JsonValue value) {
+    return switch (value) {
+      case View view -> true;
+      case CompactJsonArray array -> array.hasViews();
+      case CompactJsonObject object -> object.hasViews();
+      default -> false;
+    };
+  }
+
+  /**
+   * Replaces the views in <code>value</code> with copies. Only engine-built objects and arrays are
+   * searched. This is cheap when there are no views, because they remember if they contain any.
+   *
+   * @param value the given value.
+   * @return The value without views.
+   */
+  static JsonValue materialize(final JsonValue value) {
+    return switch (value) {
+      case View view -> view.copy();
+      case CompactJsonArray array when array.hasViews() -> array.materialize();
+      case CompactJsonObject object when object.hasViews() -> object.materialize();
+      default -> value;
+    };
+  }
+
+  private static Stream<JsonArray> parts(final JsonArray array) {
+    return array instanceof Concat concat ? stream(concat.arrays) : Stream.of(array);
+  }
+
+  /**
+   * Generates the numbers from <code>start</code> to <code>end</code>, the latter not included.
+   *
+   * @param start the first number.
+   * @param end the number where to stop.
+   * @param step the positive distance between two numbers. The direction is determined by the
+   *     <code>start</code> and <code>end</code>.
+   * @return The JSON array.
+   */
+  static JsonArray range(final int start, final int end, final int step) {
+    return new Range(
+        start,
+        start <= end ? step : -step,
+        (int) ((Math.abs((long) end - start) + step - 1) / step));
+  }
+
+  static JsonArray reverse(final JsonArray array) {
+    return switch (array) {
+      case Reverse reverse -> reverse.array;
+      case Range range -> range.reverse();
+      default -> array.size() < 2 ? array : new Reverse(array);
+    };
+  }
+
+  /**
+   * Returns the elements from position <code>from</code> up to <code>to</code>, which is not
+   * included. The positions are clipped to the size of the array.
+   *
+   * @param array the array.
+   * @param from the first position.
+   * @param to the position after the last one.
+   * @return The JSON array.
+   */
+  static JsonArray slice(final JsonArray array, final int from, final int to) {
+    final int start = min(max(from, 0), array.size());
+    final int end = min(max(start, to), array.size());
+
+    if (start == 0 && end == array.size()) {
+      return array;
+    }
+
+    return switch (array) {
+      case Slice slice -> new Slice(slice.array, slice.from + start, slice.from + end);
+      case Reverse reverse ->
+          reverse(slice(reverse.array, array.size() - end, array.size() - start));
+      case Range range -> range.slice(start, end);
+      default -> new Slice(array, start, end);
+    };
+  }
+
+  private static class Concat extends View {
+    private final JsonArray[] arrays;
+    private final int[] offsets;
+
+    private Concat(final JsonArray[] arrays) {
+      this.arrays = arrays;
+      this.offsets = new int[arrays.length + 1];
+
+      for (int i = 0; i < arrays.length; ++i) {
+        offsets[i + 1] = offsets[i] + arrays[i].size();
+      }
+    }
+
+    public boolean contains(final Object o) {
+      for (JsonArray array : arrays) {
+        if (array.contains(o)) {
+          return true;
+        }
+      }
+
+      return false;
+    }
+
+    public JsonValue get(final int index) {
+      checkIndex(index, size());
+
+      int low = 0;
+      int high = arrays.length - 1;
+
+      while (low < high) {
+        final int middle = (low + high + 1) >>> 1;
+
+        if (offsets[middle] <= index) {
+          low = middle;
+        } else {
+          high = middle - 1;
+        }
+      }
+
+      return arrays[low].get(index - offsets[low]);
+    }
+
+    public int size() {
+      return offsets[arrays.length];
+    }
+  }
+
+  private static class Generated extends View {
+    private final IntFunction<JsonValue> element;
+    private final int size;
+
+    private Generated(final int size, final IntFunction<JsonValue> element) {
+      this.size = size;
+      this.element = element;
+    }
+
+    public JsonValue get(final int index) {
+      checkIndex(index, size);
+
+      return element.apply(index);
+    }
+
+    public int size() {
+      return size;
+    }
+  }
+
+  private static class Range extends View {
+    private final int size;
+    private final long start;
+    private final long step;
+
+    private Range(final long start, final long step, final int size) {
+      this.start = start;
+      this.step = step;
+      this.size = size;
+    }
+
+    public boolean contains(final Object o) {
+      if (!(o instanceof JsonValue value) || size == 0 || !LongJsonArray.fits(value)) {
+        return false;
+      }
+
+      final long distance = asNumber(value).longValue() - start;
+
+      return distance % step == 0 && distance / step >= 0 && distance / step < size;
+    }
+
+    JsonValue copy() {
+      final long[] values = new long[size];
+
+      for (int i = 0; i < size; ++i) {
+        values[i] = start + i * step;
+      }
+
+      return new LongJsonArray(values);
+    }
+
+    public JsonValue get(final int index) {
+      checkIndex(index, size);
+
+      return createValue(start + index * step);
+    }
+
+    private JsonArray reverse() {
+      return new Range(start + (size - 1) * step, -step, size);
+    }
+
+    public int size() {
+      return size;
+    }
+
+    private JsonArray slice(final int from, final int to) {
+      return new Range(start + from * step, step, to - from);
+    }
+  }
+
+  private static class Reverse extends View {
+    private final JsonArray array;
+
+    private Reverse(final JsonArray array) {
+      this.array = array;
+    }
+
+    public boolean contains(final Object o) {
+      return array.contains(o);
+    }
+
+    public JsonValue get(final int index) {
+      checkIndex(index, size());
+
+      return array.get(array.size() - 1 - index);
+    }
+
+    public int size() {
+      return array.size();
+    }
+  }
+
+  private static class Slice extends View {
+    private final JsonArray array;
+    private final int from;
+    private final int to;
+
+    private Slice(final JsonArray array, final int from, final int to) {
+      this.array = array;
+      this.from = from;
+      this.to = to;
+    }
+
+    JsonValue copy() {
+      return switch (array) {
+        case LongJsonArray longs -> longs.slice(from, to);
+        case DoubleJsonArray doubles -> doubles.slice(from, to);
+        default -> super.copy();
+      };
+    }
+
+    public JsonValue get(final int index) {
+      checkIndex(index, size());
+
+      return array.get(from + index);
+    }
+
+    public int size() {
+      return to - from;
+    }
+  }
+
+  /** The base class for views, which copies them element by element. */
+  abstract static class View extends AbstractJsonArray {
+    JsonValue copy() {
+      final JsonValue[] values = new JsonValue[size()];
+
+      for (int i = 0; i < values.length; ++i) {
+        values[i] = materialize(get(i));
+      }
+
+      return NumberArrays.of(values);
+    }
+  }
+}
@@ -19,6 +19,7 @@ import static net.pincette.json.JsonUtil.isNumber;
 import static net.pincette.json.JsonUtil.isObject;
 import static net.pincette.json.JsonUtil.isString;
 import static net.pincette.json.JsonUtil.toJsonPointer;
+import static net.pincette.mongo.ArrayViews.materialize;
 import static net.pincette.mongo.Expression.applyImplementations;
 import static net.pincette.mongo.Expression.applyImplementationsNum;
 import static net.pincette.mongo.Expression.arraysOperator;
@@ -31,11 +32,8 @@ import static net.pincette.mongo.Expression.memberFunction;
 import static net.pincette.mongo.Expression.replaceVariables;
 import static net.pincette.mongo.Util.toArray;
 import static net.pincette.util.Collections.map;
-import static net.pincette.util.Collections.reverse;
 import static net.pincette.util.Pair.pair;
-import static net.pincette.util.StreamUtil.rangeExclusive;
 import static net.pincette.util.StreamUtil.rangeInclusive;
-import static net.pincette.util.StreamUtil.stream;
 import static net.pincette.util.StreamUtil.zip;
 
 import java.util.List;
@@ -104,12 +102,12 @@ class Arrays {
                 Optional.of(v)
                     .filter(Arrays::isKV)
                     .map(JsonValue::asJsonObject)
-                    .map(o -> b.add(o.getString("k"), o.getValue("/v")))
+                    .map(o -> b.add(o.getString("k"), materialize(o.getValue("/v"))))
                     .orElseGet(
                         () ->
                             Optional.of(v)
                                 .map(JsonValue::asJsonArray)
-                                .map(a -> b.add(getString(a, 0), a.get(1)))
+                                .map(a -> b.add(getString(a, 0), materialize(a.get(1))))
                                 .orElse(b)),
             (b1, b2) -> b1)
         .build();
@@ -131,7 +129,7 @@ class Arrays {
   }
 
   private static JsonValue concatArrays(final List<JsonArray> array) {
-    return toArray(array.stream().flatMap(JsonArray::stream));
+    return ArrayViews.concat(array);
   }
 
   static Implementation elemMatch(final JsonValue value, final Features features) {
@@ -320,7 +318,11 @@ class Arrays {
     return json.entrySet().stream()
         .reduce(
             createArrayBuilder(),
-            (b, e) -> b.add(createObjectBuilder().add("k", e.getKey()).add("v", e.getValue())),
+            (b, e) ->
+                b.add(
+                    createObjectBuilder()
+                        .add("k", e.getKey())
+                        .add("v", materialize(e.getValue()))),
             (b1, b2) -> b1)
         .build();
   }
@@ -345,9 +347,9 @@ class Arrays {
     final int end = asInt(values.get(1));
     final int step = values.size() == 3 ? asInt(values.get(2)) : 1;
 
-    return start <= end && step < 0 || start >= end && step > 0
+    return start <= end && step < 0 || start >= end && step > 0 || step == 0
         ? emptyArray()
-        : createValue(rangeExclusive(start, end, Math.abs(step)));
+        : ArrayViews.range(start, end, Math.abs(step));
   }
 
   static Implementation reduce(final JsonValue value, final Features features) {
@@ -389,7 +391,7 @@ class Arrays {
         Optional.of(implementation.apply(json, vars))
             .filter(JsonUtil::isArray)
             .map(JsonValue::asJsonArray)
-            .map(array -> toArray(stream(reverse(array))))
+            .<JsonValue>map(ArrayViews::reverse)
             .orElse(NULL);
   }
 
@@ -427,10 +429,7 @@ class Arrays {
   }
 
   private static JsonValue slice(final JsonArray array, final int position, final int n) {
-    return toArray(
-        zip(array.stream(), rangeExclusive(0, array.size()))
-            .filter(pair -> pair.second >= position && pair.second < position + n)
-            .map(pair -> pair.first));
+    return ArrayViews.slice(array, position, (int) Math.min((long) position + n, array.size()));
   }
 
   private static int slicePosition(final List<JsonValue> values) {
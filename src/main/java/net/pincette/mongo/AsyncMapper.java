@@ -0,0 +1,249 @@
+package net.pincette.mongo;
+
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow.Processor;
+import java.util.concurrent.Flow.Subscriber;
+import java.util.concurrent.Flow.Subscription;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A processor that applies a function to the values on an executor. At most <code>parallelism
+ * </code> values are requested from the upstream publisher before they are emitted, which bounds
+ * the buffer and the number of concurrent calls of the function. When the function returns <code>
+ * null</code> the value is dropped. With ordered output the values are emitted in the order they
+ * came in. Otherwise they are emitted as soon as they are ready.
+ *
+ * @param <T> the incoming value type.
+ * @param <R> the outgoing value type.
+ * @author Werner Donné
+ * @since 4.4
+ */
+class AsyncMapper<T, R> implements Processor<T, R> {
+  private final AtomicInteger draining = new AtomicInteger();
+  private final Executor executor;
+  private final Function<T, R> function;
+  private final boolean ordered;
+  private final int parallelism;
+  private final Deque<Slot<R>> slots = new ArrayDeque<>();
+  private boolean cancelled;
+  private boolean completed;
+  private Throwable error;
+  private int inFlight;
+  private int outstanding;
+  private long requested;
+  private Subscriber<? super R> subscriber;
+  private Subscription subscription;
+  private boolean terminated;
+
+  AsyncMapper(
+      final Function<T, R> function,
+      final Executor executor,
+      final int parallelism,
+      final boolean ordered) {
+    this.function = function;
+    this.executor = executor;
+    this.parallelism = parallelism;
+    this.ordered = ordered;
+  }
+
+  /**
+   * In ordered mode a slot is added as soon as a value comes in, so the slots count both the values
+   * in flight and the values that are done but not yet emitted.
+   */
+  private int busy() {
+    return ordered ? slots.size() : inFlight + slots.size();
+  }
+
+  private void complete(final Slot<R> slot, final R result, final Throwable exception) {
+    synchronized (this) {
+      --inFlight;
+
+      if (exception != null) {
+        error =
+            exception instanceof CompletionException && exception.getCause() != null
+                ? exception.getCause()
+                : exception;
+      } else {
+        slot.value = result;
+        slot.done = true;
+
+        if (!ordered) {
+          slots.addLast(slot);
+        }
+      }
+    }
+
+    drain();
+  }
+
+  private void drain() {
+    if (draining.getAndIncrement() == 0) {
+      do {
+        emit();
+        requestMore();
+        terminate();
+      } while (draining.decrementAndGet() != 0);
+    }
+  }
+
+  private void emit() {
+    while (true) {
+      final R value;
+
+      synchronized (this) {
+        final Slot<R> slot = slots.peekFirst();
+
+        if (subscriber == null
+            || cancelled
+            || error != null
+            || requested == 0
+            || slot == null
+            || !slot.done) {
+          return;
+        }
+
+        slots.removeFirst();
+        value = slot.value;
+
+        if (value != null) {
+          --requested;
+        }
+      }
+
+      if (value != null) {
+        subscriber.onNext(value);
+      }
+    }
+  }
+
+  public void onComplete() {
+    synchronized (this) {
+      completed = true;
+    }
+
+    drain();
+  }
+
+  public void onError(final Throwable throwable) {
+    synchronized (this) {
+      error = throwable;
+    }
+
+    drain();
+  }
+
+  public void onNext(final T value) {
+    final Slot<R> slot = new Slot<>();
+
+    synchronized (this) {
+      --outstanding;
+      ++inFlight;
+
+      if (ordered) {
+        slots.addLast(slot);
+      }
+    }
+
+    supplyAsync(() -> function.apply(value), executor)
+        .whenComplete((result, exception) -> complete(slot, result, exception));
+  }
+
+  public void onSubscribe(final Subscription subscription) {
+    synchronized (this) {
+      this.subscription = subscription;
+    }
+
+    drain();
+  }
+
+  private void requestMore() {
+    final long n;
+
+    synchronized (this) {
+      n =
+          subscriber != null && subscription != null && !completed && !cancelled && error == null
+              ? parallelism - (outstanding + busy())
+              : 0;
+
+      if (n > 0) {
+        outstanding += (int) n;
+      }
+    }
+
+    if (n > 0) {
+      subscription.request(n);
+    }
+  }
+
+  public void subscribe(final Subscriber<? super R> subscriber) {
+    synchronized (this) {
+      this.subscriber = subscriber;
+    }
+
+    subscriber.onSubscribe(new Downstream());
+    drain();
+  }
+
+  private void terminate() {
+    final Throwable e;
+    final boolean complete;
+
+    synchronized (this) {
+      if (terminated || cancelled || subscriber == null) {
+        return;
+      }
+
+      e = error;
+      complete = completed && inFlight == 0 && slots.isEmpty();
+      terminated = e != null || complete;
+
+      if (e != null && subscription != null && !completed) {
+        subscription.cancel();
+      }
+    }
+
+    if (e != null) {
+      subscriber.onError(e);
+    } else if (complete) {
+      subscriber.onComplete();
+    }
+  }
+
+  private static class Slot<R> {
+    private boolean done;
+    private R value;
+  }
+
+  private class Downstream implements Subscription {
+    public void cancel() {
+      final Subscription s;
+
+      synchronized (AsyncMapper.this) {
+        cancelled = true;
+        s = subscription;
+      }
+
+      if (s != null) {
+        s.cancel();
+      }
+    }
+
+    public void request(final long n) {
+      if (n <= 0) {
+        onError(new IllegalArgumentException("The request should be positive: " + n));
+      } else {
+        synchronized (AsyncMapper.this) {
+          requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+        }
+
+        drain();
+      }
+    }
+  }
+}
@@ -0,0 +1,283 @@
+package net.pincette.mongo;
+
+import static com.mongodb.client.model.Filters.eq;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.delayedExecutor;
+import static java.util.concurrent.CompletableFuture.failedFuture;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static net.pincette.json.JsonUtil.toNative;
+import static net.pincette.mongo.BsonUtil.fromJson;
+import static net.pincette.mongo.Collection.bulkWrite;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import org.bson.BsonDocument;
+import org.bson.Document;
+
+/**
+ * Groups single-document writes on a collection into bulk writes. Each caller still gets its own
+ * result, but many concurrent writes share one round trip. A batch is written when it has reached
+ * the maximum number of operations or bytes, or when the linger time has passed since its first
+ * operation. The limits are capped at 100,000 operations and 16MB.
+ *
+ * <p>The batches are written one after the other and in order, so several writes of the same
+ * document keep their sequence. When an operation fails, only its caller gets the exception. The
+ * operations after it in the batch are written again in a new bulk write.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ */
+public class BatchingWriter implements AutoCloseable {
+  private static final String ID = "_id";
+  private static final int MAX_BYTES = 16 * 1024 * 1024;
+  private static final int MAX_OPERATIONS = 100_000;
+
+  private final Function<List<WriteModel<BsonDocument>>, CompletionStage<BulkWriteResult>>
+      bulkWrite;
+  private final Executor lingerExecutor;
+  private final int maxBytes;
+  private final int maxOperations;
+  private List<Operation> batch = new ArrayList<>();
+  private int bytes;
+  private boolean closed;
+  private int generation;
+  private CompletionStage<Void> last = completedFuture(null);
+
+  /**
+   * Creates a writer with batches of at most 1000 operations and a linger time of 5 milliseconds.
+   *
+   * @param collection the MongoDB collection.
+   */
+  public BatchingWriter(final MongoCollection<Document> collection) {
+    this(collection, 1000, MAX_BYTES, Duration.ofMillis(5));
+  }
+
+  /**
+   * Creates a writer.
+   *
+   * @param collection the MongoDB collection.
+   * @param maxOperations the maximum number of operations in a batch.
+   * @param maxBytes the maximum size of the documents in a batch.
+   * @param linger the time a batch waits for more operations.
+   */
+  public BatchingWriter(
+      final MongoCollection<Document> collection,
+      final int maxOperations,
+      final int maxBytes,
+      final Duration linger) {
+    this(
+        models ->
+            bulkWrite(
+                collection.withDocumentClass(BsonDocument.class),
+                models,
+                new BulkWriteOptions().ordered(true)),
+        maxOperations,
+        maxBytes,
+        linger);
+  }
+
+  BatchingWriter(
+      final Function<List<WriteModel<BsonDocument>>, CompletionStage<BulkWriteResult>> bulkWrite,
+      final int maxOperations,
+      final int maxBytes,
+      final Duration linger) {
+    this.bulkWrite = bulkWrite;
+    this.maxOperations = min(max(maxOperations, 1), MAX_OPERATIONS);
+    this.maxBytes = min(max(maxBytes, 1), MAX_BYTES);
+    this.lingerExecutor = delayedExecutor(linger.toMillis(), MILLISECONDS);
+  }
+
+  private static void complete(final List<Operation> operations, final boolean result) {
+    operations.forEach(o -> o.result.complete(result));
+  }
+
+  private static void fail(final List<Operation> operations, final Throwable exception) {
+    operations.forEach(o -> o.result.completeExceptionally(exception));
+  }
+
+  private static Throwable unwrap(final Throwable e) {
+    return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+  }
+
+  private CompletionStage<Boolean> add(
+      final WriteModel<BsonDocument> model, final BsonDocument document) {
+    final Operation operation = new Operation(model, BsonBytes.size(document));
+
+    synchronized (this) {
+      if (closed) {
+        return failedFuture(new IllegalStateException("The writer is closed."));
+      }
+
+      if (!batch.isEmpty() && bytes + operation.bytes > maxBytes) {
+        submit(take());
+      }
+
+      batch.add(operation);
+      bytes += operation.bytes;
+
+      if (batch.size() == 1) {
+        final int g = generation;
+
+        lingerExecutor.execute(() -> flush(g));
+      }
+
+      if (batch.size() >= maxOperations || bytes >= maxBytes) {
+        submit(take());
+      }
+    }
+
+    return operation.result;
+  }
+
+  /** Flushes the pending operations and waits until all batches have been written. */
+  public void close() {
+    synchronized (this) {
+      closed = true;
+    }
+
+    flush().toCompletableFuture().join();
+  }
+
+  private CompletionStage<Void> failed(
+      final List<Operation> operations, final Throwable exception) {
+    if (exception instanceof MongoBulkWriteException e
+        && !e.getWriteErrors().isEmpty()
+        && e.getWriteConcernError() == null) {
+      final BulkWriteError error = e.getWriteErrors().getFirst();
+      final int index = error.getIndex();
+
+      complete(operations.subList(0, index), true);
+      operations
+          .get(index)
+          .result
+          .completeExceptionally(
+              new MongoWriteException(error, e.getServerAddress(), e.getErrorLabels()));
+
+      return index + 1 < operations.size()
+          ? write(operations.subList(index + 1, operations.size()))
+          : completedFuture(null);
+    }
+
+    fail(operations, exception);
+
+    return completedFuture(null);
+  }
+
+  /**
+   * Writes the pending operations now.
+   *
+   * @return The stage that completes when all batches, including this one, have been written.
+   */
+  public synchronized CompletionStage<Void> flush() {
+    return submit(take());
+  }
+
+  private synchronized void flush(final int expectedGeneration) {
+    if (generation == expectedGeneration) {
+      submit(take());
+    }
+  }
+
+  /**
+   * Inserts <code>json</code> in a batch.
+   *
+   * @param json the JSON object.
+   * @return Whether the insert was successful or not.
+   */
+  public CompletionStage<Boolean> insert(final JsonObject json) {
+    final BsonDocument document = fromJson(json);
+
+    return add(new InsertOneModel<>(document), document);
+  }
+
+  private synchronized CompletionStage<Void> submit(final List<Operation> operations) {
+    if (!operations.isEmpty()) {
+      last = last.exceptionally(e -> null).thenCompose(v -> write(operations));
+    }
+
+    return last;
+  }
+
+  private List<Operation> take() {
+    final List<Operation> result = batch;
+
+    batch = new ArrayList<>();
+    bytes = 0;
+    ++generation;
+
+    return result;
+  }
+
+  /**
+   * Replaces or inserts <code>json</code> in a batch. The field <code>_id</code> is used as the
+   * key.
+   *
+   * @param json the JSON object.
+   * @return Whether the update was successful or not.
+   */
+  public CompletionStage<Boolean> update(final JsonObject json) {
+    return update(json, json.get(ID));
+  }
+
+  /**
+   * Replaces or inserts <code>json</code> in a batch.
+   *
+   * @param json the JSON object.
+   * @param id the identifier for the object.
+   * @return Whether the update was successful or not.
+   */
+  public CompletionStage<Boolean> update(final JsonObject json, final JsonValue id) {
+    final BsonDocument document = fromJson(json);
+
+    return add(
+        new ReplaceOneModel<>(eq(ID, toNative(id)), document, new ReplaceOptions().upsert(true)),
+        document);
+  }
+
+  private CompletionStage<Void> write(final List<Operation> operations) {
+    return bulkWrite
+        .apply(operations.stream().map(o -> o.model).toList())
+        .handle(
+            (BulkWriteResult result, Throwable e) -> {
+              if (e != null) {
+                return failed(operations, unwrap(e));
+              }
+
+              complete(operations, result != null && result.wasAcknowledged());
+
+              return completedFuture((Void) null);
+            })
+        .thenCompose(stage -> stage);
+  }
+
+  private static class Operation {
+    private final int bytes;
+    private final WriteModel<BsonDocument> model;
+    private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+    private Operation(final WriteModel<BsonDocument> model, final int bytes) {
+      this.model = model;
+      this.bytes = bytes;
+    }
+  }
+}
@@ -0,0 +1,261 @@
+package net.pincette.mongo;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static net.pincette.util.Util.tryToDoRethrow;
+import static org.bson.BsonBinarySubType.OLD_BINARY;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import org.bson.BsonArray;
+import org.bson.BsonBinary;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDbPointer;
+import org.bson.BsonDocument;
+import org.bson.BsonJavaScriptWithScope;
+import org.bson.BsonRegularExpression;
+import org.bson.BsonValue;
+import org.bson.ByteBuf;
+import org.bson.ByteBufNIO;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.ByteBufferBsonInput;
+import org.bson.io.OutputBuffer;
+
+/**
+ * Encodes and decodes BSON documents without growing buffers and without intermediate copies. The
+ * exact encoded size is calculated first, so the target buffer can be allocated once. Writing to
+ * an output stream goes through a buffer that is kept per thread.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ */
+class BsonBytes {
+  private static final BsonDocumentCodec CODEC = new BsonDocumentCodec();
+  private static final int MAX_POOLED = 1024 * 1024;
+  private static final ThreadLocal<byte[]> POOL = ThreadLocal.withInitial(() -> new byte[4096]);
+
+  private BsonBytes() {}
+
+  private static int arraySize(final BsonArray array) {
+    int result = 5;
+
+    for (int i = 0; i < array.size(); ++i) {
+      result += 2 + digits(i) + valueSize(array.get(i));
+    }
+
+    return result;
+  }
+
+  private static int binarySize(final BsonBinary binary) {
+    return 5 + binary.getData().length + (binary.getType() == OLD_BINARY.getValue() ? 4 : 0);
+  }
+
+  private static int cStringSize(final String s) {
+    return utf8Size(s) + 1;
+  }
+
+  private static int digits(final int i) {
+    int result = 1;
+
+    for (int n = i; n >= 10; n /= 10) {
+      ++result;
+    }
+
+    return result;
+  }
+
+  private static int pointerSize(final BsonDbPointer pointer) {
+    return stringSize(pointer.getNamespace()) + 12;
+  }
+
+  private static byte[] pooled(final int size) {
+    final byte[] buffer = POOL.get();
+
+    if (buffer.length >= size) {
+      return buffer;
+    }
+
+    final byte[] result = new byte[Integer.highestOneBit(size - 1) << 1];
+
+    POOL.set(result);
+
+    return result;
+  }
+
+  static BsonDocument read(final ByteBuffer buffer) {
+    final int length = buffer.duplicate().order(LITTLE_ENDIAN).getInt();
+    final BsonDocument result =
+        buffer.hasArray()
+            ? new RawBsonDocument(buffer.array(), buffer.arrayOffset() + buffer.position(), length)
+            : readDirect(buffer.slice(buffer.position(), length));
+
+    buffer.position(buffer.position() + length);
+
+    return result;
+  }
+
+  private static BsonDocument readDirect(final ByteBuffer buffer) {
+    try (final BsonBinaryReader reader =
+        new BsonBinaryReader(new ByteBufferBsonInput(new ByteBufNIO(buffer)))) {
+      return CODEC.decode(reader, DecoderContext.builder().build());
+    }
+  }
+
+  private static int regexSize(final BsonRegularExpression expression) {
+    return cStringSize(expression.getPattern()) + cStringSize(expression.getOptions());
+  }
+
+  private static int scopeSize(final BsonJavaScriptWithScope javaScript) {
+    return 4 + stringSize(javaScript.getCode()) + size(javaScript.getScope());
+  }
+
+  static int size(final BsonDocument document) {
+    if (document instanceof RawBsonDocument raw) {
+      return raw.getByteBuffer().remaining();
+    }
+
+    int result = 5;
+
+    for (Map.Entry<String, BsonValue> e : document.entrySet()) {
+      result += 1 + cStringSize(e.getKey()) + valueSize(e.getValue());
+    }
+
+    return result;
+  }
+
+  private static int stringSize(final String s) {
+    return 4 + cStringSize(s);
+  }
+
+  static byte[] toBytes(final BsonDocument document) {
+    final byte[] result = new byte[size(document)];
+
+    write(document, ByteBuffer.wrap(result));
+
+    return result;
+  }
+
+  private static int utf8Size(final String s) {
+    int result = 0;
+
+    for (int i = 0; i < s.length(); ) {
+      final int c = s.codePointAt(i);
+
+      if (c < 0x80) {
+        result += 1;
+      } else if (c < 0x800) {
+        result += 2;
+      } else if (c < 0x10000) {
+        result += 3;
+      } else {
+        result += 4;
+      }
+
+      i += Character.charCount(c);
+    }
+
+    return result;
+  }
+
+  private static int valueSize(final BsonValue value) {
+    return switch (value.getBsonType()) {
+      case ARRAY -> arraySize(value.asArray());
+      case BINARY -> binarySize(value.asBinary());
+      case BOOLEAN -> 1;
+      case DATE_TIME, DOUBLE, INT64, TIMESTAMP -> 8;
+      case DB_POINTER -> pointerSize(value.asDBPointer());
+      case DECIMAL128 -> 16;
+      case DOCUMENT -> size(value.asDocument());
+      case INT32 -> 4;
+      case JAVASCRIPT -> stringSize(value.asJavaScript().getCode());
+      case JAVASCRIPT_WITH_SCOPE -> scopeSize(value.asJavaScriptWithScope());
+      case OBJECT_ID -> 12;
+      case REGULAR_EXPRESSION -> regexSize(value.asRegularExpression());
+      case STRING -> stringSize(value.asString().getValue());
+      case SYMBOL -> stringSize(value.asSymbol().getSymbol());
+      default -> 0;
+    };
+  }
+
+  static int write(final BsonDocument document, final ByteBuffer buffer) {
+    final int size = size(document);
+
+    if (size > buffer.remaining()) {
+      throw new IllegalArgumentException(
+          "The buffer has " + buffer.remaining() + " bytes left, while " + size + " are needed.");
+    }
+
+    if (document instanceof RawBsonDocument raw) {
+      buffer.put(raw.getByteBuffer().asNIO());
+    } else {
+      CODEC.encode(
+          new BsonBinaryWriter(new ByteBufferOutput(buffer)),
+          document,
+          EncoderContext.builder().build());
+    }
+
+    return size;
+  }
+
+  static void write(final BsonDocument document, final OutputStream out) {
+    final int size = size(document);
+    final byte[] buffer = size <= MAX_POOLED ? pooled(size) : new byte[size];
+
+    write(document, ByteBuffer.wrap(buffer, 0, size));
+    tryToDoRethrow(() -> out.write(buffer, 0, size));
+  }
+
+  /** Writes into a byte buffer, starting from its current position. */
+  private static class ByteBufferOutput extends OutputBuffer {
+    private final ByteBuffer buffer;
+    private final int start;
+
+    private ByteBufferOutput(final ByteBuffer buffer) {
+      this.buffer = buffer;
+      this.start = buffer.position();
+    }
+
+    public List<ByteBuf> getByteBuffers() {
+      return List.of(new ByteBufNIO(buffer.slice(start, getPosition())));
+    }
+
+    public int getPosition() {
+      return buffer.position() - start;
+    }
+
+    public int getSize() {
+      return getPosition();
+    }
+
+    public int pipe(final OutputStream out) {
+      final ByteBuffer written = buffer.slice(start, getPosition());
+      final byte[] bytes = new byte[written.remaining()];
+
+      written.get(bytes);
+      tryToDoRethrow(() -> out.write(bytes));
+
+      return bytes.length;
+    }
+
+    public void truncateToPosition(final int newPosition) {
+      buffer.position(start + newPosition);
+    }
+
+    protected void write(final int position, final int value) {
+      buffer.put(start + position, (byte) value);
+    }
+
+    public void writeByte(final int value) {
+      buffer.put((byte) value);
+    }
+
+    public void writeBytes(final byte[] bytes, final int offset, final int length) {
+      buffer.put(bytes, offset, length);
+    }
+  }
+}
@@ -2,34 +2,28 @@ package net.pincette.mongo;
 
 import static java.time.Instant.ofEpochMilli;
 import static java.time.Instant.ofEpochSecond;
-import static java.time.Instant.parse;
-import static java.util.regex.Pattern.compile;
 import static java.util.stream.Collectors.toMap;
 import static javax.json.JsonValue.FALSE;
 import static javax.json.JsonValue.NULL;
 import static javax.json.JsonValue.TRUE;
 import static net.pincette.json.JsonUtil.asNumber;
 import static net.pincette.json.JsonUtil.asString;
-import static net.pincette.json.JsonUtil.createArrayBuilder;
 import static net.pincette.json.JsonUtil.createObjectBuilder;
 import static net.pincette.json.JsonUtil.createValue;
 import static net.pincette.json.JsonUtil.string;
 import static net.pincette.json.JsonUtil.stringValue;
-import static net.pincette.util.Util.tryToGetSilent;
 
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.Map;
 import java.util.Optional;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import javax.json.JsonArray;
-import javax.json.JsonArrayBuilder;
 import javax.json.JsonNumber;
 import javax.json.JsonObject;
 import javax.json.JsonString;
 import javax.json.JsonValue;
 import org.bson.BsonArray;
-import org.bson.BsonBinaryWriter;
 import org.bson.BsonBoolean;
 import org.bson.BsonDateTime;
 import org.bson.BsonDocument;
@@ -44,11 +38,8 @@ import org.bson.BsonString;
 import org.bson.BsonTimestamp;
 import org.bson.BsonValue;
 import org.bson.Document;
-import org.bson.codecs.BsonDocumentCodec;
-import org.bson.codecs.EncoderContext;
+import org.bson.RawBsonDocument;
 import org.bson.conversions.Bson;
-import org.bson.io.BasicOutputBuffer;
-import org.bson.io.OutputBuffer;
 import org.bson.types.ObjectId;
 
 /**
@@ -59,10 +50,22 @@ import org.bson.types.ObjectId;
  */
 public class BsonUtil {
   private static final String ID = "_id";
-  private static final Pattern ISO_DATE = compile("ISODate\\(\"(.*)\"\\)");
+  private static final String ISO_DATE_PREFIX = "ISODate(\"";
+  private static final String ISO_DATE_SUFFIX = "\")";
 
   private BsonUtil() {}
 
+  /**
+   * Calculates the exact number of bytes the encoded document will take.
+   *
+   * @param document the BSON document.
+   * @return The number of bytes.
+   * @since 4.4
+   */
+  public static int bsonSize(final BsonDocument document) {
+    return BsonBytes.size(document);
+  }
+
   public static JsonValue fromBson(final BsonValue bson) {
     return switch (bson.getBsonType()) {
       case ARRAY -> fromBson(bson.asArray());
@@ -82,21 +85,57 @@ public class BsonUtil {
   }
 
   public static JsonArray fromBson(final BsonArray array) {
-    return array.stream()
-        .map(BsonUtil::fromBson)
-        .reduce(createArrayBuilder(), JsonArrayBuilder::add, (b1, b2) -> b1)
-        .build();
+    final JsonArray numbers = NumberArrays.fromBson(array);
+
+    return numbers != null
+        ? numbers
+        : CompactJsonArray.of(array.stream().map(BsonUtil::fromBson));
   }
 
   public static JsonObject fromBson(final BsonDocument bson) {
     return bson.entrySet().stream()
         .reduce(
-            createObjectBuilder(),
+            new CompactJsonObject.Builder(),
             (b, e) -> b.add(e.getKey(), fromBson(e.getValue())),
             (b1, b2) -> b1)
         .build();
   }
 
+  /**
+   * Converts a BSON document, whereby the field names and short string values are shared through
+   * <code>dictionary</code>.
+   *
+   * @param bson the BSON document.
+   * @param dictionary the dictionary with the shared strings.
+   * @return The JSON object.
+   * @since 4.4
+   */
+  public static JsonObject fromBson(final BsonDocument bson, final KeyDictionary dictionary) {
+    return bson.entrySet().stream()
+        .reduce(
+            new CompactJsonObject.Builder(),
+            (b, e) -> b.add(dictionary.key(e.getKey()), fromBson(e.getValue(), dictionary)),
+            (b1, b2) -> b1)
+        .build();
+  }
+
+  private static JsonArray fromBson(final BsonArray array, final KeyDictionary dictionary) {
+    final JsonArray numbers = NumberArrays.fromBson(array);
+
+    return numbers != null
+        ? numbers
+        : CompactJsonArray.of(array.stream().map(v -> fromBson(v, dictionary)));
+  }
+
+  private static JsonValue fromBson(final BsonValue bson, final KeyDictionary dictionary) {
+    return switch (bson.getBsonType()) {
+      case ARRAY -> fromBson(bson.asArray(), dictionary);
+      case DOCUMENT -> fromBson(bson.asDocument(), dictionary);
+      case STRING -> createValue(dictionary.value(bson.asString().getValue()));
+      default -> fromBson(bson);
+    };
+  }
+
   public static JsonNumber fromBson(final BsonInt32 bson) {
     return asNumber(createValue(bson.getValue()));
   }
@@ -132,6 +171,31 @@ public class BsonUtil {
     return asString(createValue(ofEpochSecond(bson.getTime()).toString()));
   }
 
+  /**
+   * Decodes the document that starts at the current position of <code>buffer</code>, after which
+   * the position is moved past it. For heap buffers the result is a <code>RawBsonDocument</code>
+   * that shares the bytes with the buffer, so they shouldn't be changed as long as the document is
+   * used. Direct buffers are decoded straight from their memory.
+   *
+   * @param buffer the buffer.
+   * @return The decoded document.
+   * @since 4.4
+   */
+  public static BsonDocument fromByteBuffer(final ByteBuffer buffer) {
+    return BsonBytes.read(buffer);
+  }
+
+  /**
+   * Wraps encoded BSON without copying it. The fields are only decoded when they are accessed.
+   *
+   * @param bytes the encoded BSON document.
+   * @return The document.
+   * @since 4.4
+   */
+  public static RawBsonDocument fromBytes(final byte[] bytes) {
+    return new RawBsonDocument(bytes);
+  }
+
   public static BsonValue fromJson(final JsonValue json) {
     return fromJson(json, false);
   }
@@ -198,7 +262,7 @@ public class BsonUtil {
 
   public static BsonValue fromJsonNew(final JsonString json) {
     return Optional.of(json.getString())
-        .flatMap(BsonUtil::isoDate)
+        .flatMap(s -> isoDate(s, true))
         .orElseGet(() -> new BsonString(json.getString()));
   }
 
@@ -220,7 +284,7 @@ public class BsonUtil {
     return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
   }
 
-  private static boolean isObjectId(final String key, final JsonValue value) {
+  static boolean isObjectId(final String key, final JsonValue value) {
     return key.equals(ID)
         && stringValue(value).filter(s -> s.length() == 24).filter(BsonUtil::isHex).isPresent();
   }
@@ -229,16 +293,34 @@ public class BsonUtil {
     return new BsonDateTime(instant.toEpochMilli());
   }
 
+  /**
+   * Returns the instant a string represents. When <code>asTimestamp</code> is <code>true</code> the
+   * string itself should be an ISO-8601 instant. Otherwise, it should be wrapped as in <code>
+   * ISODate("...")</code>.
+   *
+   * @param s the string.
+   * @param asTimestamp selects the form of the string.
+   * @return The instant or empty if the string doesn't represent one.
+   */
+  static Optional<Instant> instant(final String s, final boolean asTimestamp) {
+    if (asTimestamp) {
+      return Iso8601.instant(s);
+    }
+
+    return s.length() >= ISO_DATE_PREFIX.length() + ISO_DATE_SUFFIX.length()
+            && s.startsWith(ISO_DATE_PREFIX)
+            && s.endsWith(ISO_DATE_SUFFIX)
+        ? Iso8601.instant(
+            s.substring(ISO_DATE_PREFIX.length(), s.length() - ISO_DATE_SUFFIX.length()))
+        : Optional.empty();
+  }
+
   private static Optional<BsonValue> isoDate(final JsonValue value) {
-    return stringValue(value)
-        .map(ISO_DATE::matcher)
-        .filter(Matcher::matches)
-        .map(m -> m.group(1))
-        .flatMap(BsonUtil::isoDate);
+    return stringValue(value).flatMap(s -> isoDate(s, false));
   }
 
-  private static Optional<BsonValue> isoDate(final String s) {
-    return tryToGetSilent(() -> parse(s))
+  private static Optional<BsonValue> isoDate(final String s, final boolean asTimestamp) {
+    return instant(s, asTimestamp)
         .map(Instant::toEpochMilli)
         .map(BsonDateTime::new)
         .map(BsonValue.class::cast);
@@ -252,17 +334,44 @@ public class BsonUtil {
     return bson.toBsonDocument();
   }
 
+  /**
+   * Encodes <code>document</code> at the current position of <code>buffer</code>, which may be a
+   * direct buffer. The position is moved past the written bytes.
+   *
+   * @param document the BSON document.
+   * @param buffer the buffer.
+   * @return The number of written bytes.
+   * @throws IllegalArgumentException when the document doesn't fit in the remaining space.
+   * @since 4.4
+   */
+  public static int toByteBuffer(final BsonDocument document, final ByteBuffer buffer) {
+    return BsonBytes.write(document, buffer);
+  }
+
+  /**
+   * Encodes <code>document</code> in an array that has exactly the right size.
+   *
+   * @param document the BSON document.
+   * @return The encoded document.
+   */
   public static byte[] toBytes(final BsonDocument document) {
-    final OutputBuffer out = new BasicOutputBuffer();
-
-    new BsonDocumentCodec()
-        .encode(new BsonBinaryWriter(out), document, EncoderContext.builder().build());
-
-    return out.toByteArray();
+    return BsonBytes.toBytes(document);
   }
 
   public static Document toDocument(final BsonDocument document) {
     return new Document(
         document.entrySet().stream().collect(toMap(Map.Entry::getKey, Map.Entry::getValue)));
   }
+
+  /**
+   * Encodes <code>document</code> and writes it to <code>out</code> in one go. The encoding buffer
+   * is reused by the calling thread.
+   *
+   * @param document the BSON document.
+   * @param out the output stream.
+   * @since 4.4
+   */
+  public static void toOutputStream(final BsonDocument document, final OutputStream out) {
+    BsonBytes.write(document, out);
+  }
 }
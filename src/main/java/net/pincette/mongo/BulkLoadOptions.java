@@ -0,0 +1,76 @@
+package net.pincette.mongo;
+
+/**
+ * Options for bulk loading.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ * @see BulkLoader
+ */
+public class BulkLoadOptions {
+  public final int batchSize;
+  public final int maxInFlight;
+  public final boolean ordered;
+  public final String upsertKey;
+
+  public BulkLoadOptions() {
+    this(1000, 4, false, null);
+  }
+
+  private BulkLoadOptions(
+      final int batchSize, final int maxInFlight, final boolean ordered, final String upsertKey) {
+    if (batchSize < 1 || maxInFlight < 1) {
+      throw new IllegalArgumentException(
+          "The batch size and the maximum in flight should be at least 1.");
+    }
+
+    this.batchSize = batchSize;
+    this.maxInFlight = maxInFlight;
+    this.ordered = ordered;
+    this.upsertKey = upsertKey;
+  }
+
+  /**
+   * The number of documents in one bulk write. The default is 1000.
+   *
+   * @param batchSize the batch size.
+   * @return A new options object.
+   */
+  public BulkLoadOptions withBatchSize(final int batchSize) {
+    return new BulkLoadOptions(batchSize, maxInFlight, ordered, upsertKey);
+  }
+
+  /**
+   * The maximum number of bulk writes that run at the same time. The default is 4. It is ignored
+   * for ordered loading.
+   *
+   * @param maxInFlight the maximum number of concurrent bulk writes.
+   * @return A new options object.
+   */
+  public BulkLoadOptions withMaxInFlight(final int maxInFlight) {
+    return new BulkLoadOptions(batchSize, maxInFlight, ordered, upsertKey);
+  }
+
+  /**
+   * With ordered loading the documents are written in the order they arrive, one bulk write at a
+   * time, and the loading stops at the first failing document. The default is unordered.
+   *
+   * @param ordered the ordering flag.
+   * @return A new options object.
+   */
+  public BulkLoadOptions withOrdered(final boolean ordered) {
+    return new BulkLoadOptions(batchSize, maxInFlight, ordered, upsertKey);
+  }
+
+  /**
+   * With an upsert key the documents replace the ones with the same value for the field. Documents
+   * that don't have the field are inserted. Without it, which is the default, all documents are
+   * inserted.
+   *
+   * @param upsertKey the field, which should be unique in the collection.
+   * @return A new options object.
+   */
+  public BulkLoadOptions withUpsertKey(final String upsertKey) {
+    return new BulkLoadOptions(batchSize, maxInFlight, ordered, upsertKey);
+  }
+}
@@ -0,0 +1,324 @@
+package net.pincette.mongo;
+
+import static java.util.Optional.ofNullable;
+import static java.util.concurrent.CompletableFuture.completedStage;
+import static net.pincette.mongo.BsonUtil.fromJson;
+import static net.pincette.mongo.Collection.bulkWrite;
+import static net.pincette.util.Util.tryToGet;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow.Subscriber;
+import java.util.concurrent.Flow.Subscription;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import javax.json.JsonObject;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+
+/**
+ * A subscriber that writes the JSON objects it receives into a collection with bulk writes. It
+ * requests only as many objects as fit in the batches that may be in flight, and more only when a
+ * batch has been written. So the memory use doesn't depend on the number of objects. The loading
+ * stops at the first failure, after which the upstream subscription is cancelled. The counters can
+ * be read at any time to follow the progress.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ * @see BulkLoadOptions
+ */
+public class BulkLoader implements Subscriber<JsonObject> {
+  private final LongAdder batches = new LongAdder();
+  private final BiFunction<
+          List<WriteModel<BsonDocument>>, BulkWriteOptions, CompletionStage<BulkWriteResult>>
+      bulkWrite;
+  private final CompletableFuture<Void> completion = new CompletableFuture<>();
+  private final LongAdder inserted = new LongAdder();
+  private final int maxInFlight;
+  private final LongAdder matched = new LongAdder();
+  private final BulkLoadOptions options;
+  private final LongAdder received = new LongAdder();
+  private final AtomicInteger requesting = new AtomicInteger();
+  private final LongAdder upserted = new LongAdder();
+  private List<WriteModel<BsonDocument>> batch = new ArrayList<>();
+  private boolean completed;
+  private long demand;
+  private boolean failed;
+  private int inFlight;
+  private Subscription subscription;
+
+  public BulkLoader(final MongoCollection<Document> collection) {
+    this(collection, null);
+  }
+
+  /**
+   * Creates a bulk loader.
+   *
+   * @param collection the MongoDB collection.
+   * @param options the options. It may be <code>null</code>, in which case the defaults are used.
+   */
+  public BulkLoader(final MongoCollection<Document> collection, final BulkLoadOptions options) {
+    this(writer(collection.withDocumentClass(BsonDocument.class)), options);
+  }
+
+  BulkLoader(
+      final BiFunction<
+              List<WriteModel<BsonDocument>>, BulkWriteOptions, CompletionStage<BulkWriteResult>>
+          bulkWrite,
+      final BulkLoadOptions options) {
+    this.bulkWrite = bulkWrite;
+    this.options = ofNullable(options).orElseGet(BulkLoadOptions::new);
+    this.maxInFlight = this.options.ordered ? 1 : this.options.maxInFlight;
+  }
+
+  private static Throwable unwrap(final Throwable e) {
+    return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+  }
+
+  private static BiFunction<
+          List<WriteModel<BsonDocument>>, BulkWriteOptions, CompletionStage<BulkWriteResult>>
+      writer(final MongoCollection<BsonDocument> collection) {
+    return (models, options) -> bulkWrite(collection, models, options);
+  }
+
+  /**
+   * Returns the number of bulk writes that have been done.
+   *
+   * @return The number of batches.
+   */
+  public long batches() {
+    return batches.sum();
+  }
+
+  /**
+   * Returns the stage that completes when all objects have been written. It fails when the
+   * publisher or a write fails.
+   *
+   * @return The completion stage.
+   */
+  public CompletionStage<Void> completion() {
+    return completion;
+  }
+
+  private void count(final BulkWriteResult result) {
+    if (result != null && result.wasAcknowledged()) {
+      inserted.add(result.getInsertedCount());
+      matched.add(result.getMatchedCount());
+      upserted.add(result.getUpserts().size());
+    }
+  }
+
+  private void done(final int size, final BulkWriteResult result, final Throwable exception) {
+    final List<WriteModel<BsonDocument>> next;
+    final boolean more;
+
+    synchronized (this) {
+      --inFlight;
+      batches.increment();
+
+      if (exception != null) {
+        if (exception instanceof MongoBulkWriteException e) {
+          count(e.getWriteResult());
+        }
+
+        fail(exception);
+      } else {
+        count(result);
+      }
+
+      next = exception == null && completed ? finish() : null;
+      more = exception == null && !completed && !failed;
+    }
+
+    send(next);
+
+    if (more) {
+      request(size);
+    }
+  }
+
+  private void fail(final Throwable exception) {
+    if (!failed) {
+      failed = true;
+
+      if (subscription != null && !completed) {
+        subscription.cancel();
+      }
+
+      completion.completeExceptionally(exception);
+    }
+  }
+
+  /**
+   * Takes the last batch when there is one. Otherwise, the completion is signalled when nothing is
+   * in flight anymore.
+   *
+   * @return The last batch or <code>null</code>.
+   */
+  private List<WriteModel<BsonDocument>> finish() {
+    if (failed) {
+      return null;
+    }
+
+    if (!batch.isEmpty()) {
+      return take();
+    }
+
+    if (inFlight == 0) {
+      completion.complete(null);
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns the number of inserted documents. Documents that are inserted through an upsert are
+   * not included.
+   *
+   * @return The number of inserted documents.
+   */
+  public long inserted() {
+    return inserted.sum();
+  }
+
+  /**
+   * Returns the number of documents that were replaced through the upsert key.
+   *
+   * @return The number of matched documents.
+   */
+  public long matched() {
+    return matched.sum();
+  }
+
+  private WriteModel<BsonDocument> model(final BsonDocument document) {
+    final BsonValue key = options.upsertKey != null ? document.get(options.upsertKey) : null;
+
+    return key != null
+        ? new ReplaceOneModel<>(
+            new BsonDocument(options.upsertKey, key), document, new ReplaceOptions().upsert(true))
+        : new InsertOneModel<>(document);
+  }
+
+  public void onComplete() {
+    final List<WriteModel<BsonDocument>> last;
+
+    synchronized (this) {
+      completed = true;
+      last = finish();
+    }
+
+    send(last);
+  }
+
+  public synchronized void onError(final Throwable throwable) {
+    completed = true;
+    fail(throwable);
+  }
+
+  public void onNext(final JsonObject json) {
+    final List<WriteModel<BsonDocument>> full;
+
+    synchronized (this) {
+      if (failed) {
+        return;
+      }
+
+      received.increment();
+      batch.add(model(fromJson(json)));
+      full = batch.size() == options.batchSize ? take() : null;
+    }
+
+    send(full);
+  }
+
+  public void onSubscribe(final Subscription subscription) {
+    synchronized (this) {
+      if (this.subscription != null) {
+        subscription.cancel();
+        return;
+      }
+
+      this.subscription = subscription;
+    }
+
+    request((long) options.batchSize * maxInFlight);
+  }
+
+  /**
+   * Returns the number of objects that have been received from the publisher.
+   *
+   * @return The number of received objects.
+   */
+  public long received() {
+    return received.sum();
+  }
+
+  /**
+   * Returns the number of documents that were inserted through the upsert key.
+   *
+   * @return The number of upserted documents.
+   */
+  public long upserted() {
+    return upserted.sum();
+  }
+
+  /**
+   * Requests more objects. A request that is made while another one is running, which happens when
+   * the publisher and the writes are synchronous, is left to the running one. This avoids unbounded
+   * recursion.
+   */
+  private void request(final long n) {
+    synchronized (this) {
+      demand += n;
+    }
+
+    if (requesting.getAndIncrement() == 0) {
+      do {
+        final long d;
+
+        synchronized (this) {
+          d = failed ? 0 : demand;
+          demand = 0;
+        }
+
+        if (d > 0) {
+          subscription.request(d);
+        }
+      } while (requesting.decrementAndGet() != 0);
+    }
+  }
+
+  /** Starts the bulk write outside the lock. A writer that throws fails the loader. */
+  private void send(final List<WriteModel<BsonDocument>> models) {
+    if (models != null) {
+      tryToGet(
+              () -> bulkWrite.apply(models, new BulkWriteOptions().ordered(options.ordered)),
+              CompletableFuture::<BulkWriteResult>failedStage)
+          .orElseGet(() -> completedStage(null))
+          .whenComplete(
+              (result, e) -> done(models.size(), result, e != null ? unwrap(e) : null));
+    }
+  }
+
+  private List<WriteModel<BsonDocument>> take() {
+    final List<WriteModel<BsonDocument>> models = batch;
+
+    batch = new ArrayList<>();
+    ++inFlight;
+
+    return models;
+  }
+}
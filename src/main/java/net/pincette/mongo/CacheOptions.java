@@ -0,0 +1,78 @@
+package net.pincette.mongo;
+
+import java.time.Duration;
+
+/**
+ * Options for caches of documents.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ * @see IdCache
+ */
+public class CacheOptions {
+  public final long maxSize;
+  public final long maxWeight;
+  public final Duration timeToLive;
+  public final boolean watch;
+
+  public CacheOptions() {
+    this(10000, 0, null, true);
+  }
+
+  private CacheOptions(
+      final long maxSize, final long maxWeight, final Duration timeToLive, final boolean watch) {
+    if (maxSize < 1 || maxWeight < 0) {
+      throw new IllegalArgumentException(
+          "The maximum size should be at least 1 and the maximum weight can't be negative.");
+    }
+
+    this.maxSize = maxSize;
+    this.maxWeight = maxWeight;
+    this.timeToLive = timeToLive;
+    this.watch = watch;
+  }
+
+  /**
+   * The maximum number of entries. The least recently used entries are evicted first. The default
+   * is 10,000.
+   *
+   * @param maxSize the maximum number of entries.
+   * @return A new options object.
+   */
+  public CacheOptions withMaxSize(final long maxSize) {
+    return new CacheOptions(maxSize, maxWeight, timeToLive, watch);
+  }
+
+  /**
+   * The maximum total BSON size of the cached documents. With 0, which is the default, there is no
+   * maximum.
+   *
+   * @param maxWeight the maximum number of bytes.
+   * @return A new options object.
+   */
+  public CacheOptions withMaxWeight(final long maxWeight) {
+    return new CacheOptions(maxSize, maxWeight, timeToLive, watch);
+  }
+
+  /**
+   * The time after which an entry is loaded again. With <code>null</code>, which is the default,
+   * entries don't expire.
+   *
+   * @param timeToLive the time to live.
+   * @return A new options object.
+   */
+  public CacheOptions withTimeToLive(final Duration timeToLive) {
+    return new CacheOptions(maxSize, maxWeight, timeToLive, watch);
+  }
+
+  /**
+   * With watching, which is the default, a change stream on the collection keeps the entries up to
+   * date. This requires a replica set.
+   *
+   * @param watch the watch flag.
+   * @return A new options object.
+   */
+  public CacheOptions withWatch(final boolean watch) {
+    return new CacheOptions(maxSize, maxWeight, timeToLive, watch);
+  }
+}
@@ -0,0 +1,93 @@
+package net.pincette.mongo;
+
+import static java.lang.System.currentTimeMillis;
+
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.reactivestreams.client.ChangeStreamPublisher;
+import java.util.concurrent.Flow.Subscriber;
+import java.util.concurrent.Flow.Subscription;
+import java.util.function.Consumer;
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+
+/**
+ * A subscriber to a change stream that hands every change to a consumer. It calls a function when
+ * the stream starts and another one when it ends, either normally or because of an error.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ */
+class ChangeWatcher implements Subscriber<ChangeStreamDocument<BsonDocument>> {
+  private static final long CLOCK_MARGIN_SECONDS = 10;
+
+  private final Consumer<ChangeStreamDocument<BsonDocument>> onChange;
+  private final Runnable onEnd;
+  private final Runnable onStart;
+  private boolean cancelled;
+  private Subscription subscription;
+
+  ChangeWatcher(
+      final Consumer<ChangeStreamDocument<BsonDocument>> onChange,
+      final Runnable onStart,
+      final Runnable onEnd) {
+    this.onChange = onChange;
+    this.onStart = onStart;
+    this.onEnd = onEnd;
+  }
+
+  /**
+   * Makes the change stream start at the current time, instead of at the moment its cursor is
+   * opened on the server, which happens later. So a value that is loaded after this call can't miss
+   * a change. The start is moved back a little to cover a clock difference with the server, which
+   * only causes some extra invalidations.
+   *
+   * @param publisher the change stream publisher.
+   * @param <T> the document type.
+   * @return The publisher.
+   */
+  static <T> ChangeStreamPublisher<T> fromNow(final ChangeStreamPublisher<T> publisher) {
+    return publisher.startAtOperationTime(
+        new BsonTimestamp((int) (currentTimeMillis() / 1000 - CLOCK_MARGIN_SECONDS), 0));
+  }
+
+  void cancel() {
+    final Subscription s;
+
+    synchronized (this) {
+      cancelled = true;
+      s = subscription;
+    }
+
+    if (s != null) {
+      s.cancel();
+    }
+  }
+
+  public void onComplete() {
+    onEnd.run();
+  }
+
+  public void onError(final Throwable throwable) {
+    onEnd.run();
+  }
+
+  public void onNext(final ChangeStreamDocument<BsonDocument> change) {
+    onChange.accept(change);
+  }
+
+  public void onSubscribe(final Subscription subscription) {
+    final boolean cancel;
+
+    synchronized (this) {
+      this.subscription = subscription;
+      cancel = cancelled;
+    }
+
+    if (cancel) {
+      subscription.cancel();
+    } else {
+      onStart.run();
+      subscription.request(Long.MAX_VALUE);
+    }
+  }
+}
@@ -37,6 +37,7 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.function.Function;
 import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 import org.reactivestreams.Publisher;
@@ -324,6 +325,75 @@ public class Collection {
         .thenApply(v -> v);
   }
 
+  /**
+   * Runs a collection operation with more than one result, but fails as soon as there are more
+   * than <code>maxSize</code> results.
+   *
+   * @param collection the given collection.
+   * @param op the collection operation.
+   * @param maxSize the maximum number of results.
+   * @param <T> the result type.
+   * @param <D> the document type.
+   * @return The completion stage with the result list.
+   * @see Results#list(java.util.concurrent.Flow.Publisher, int)
+   * @since 4.4
+   */
+  public static <T, D> CompletionStage<List<T>> execList(
+      final MongoCollection<D> collection,
+      final Function<MongoCollection<D>, Publisher<T>> op,
+      final int maxSize) {
+    return tryToGet(
+            () -> Results.list(toFlowPublisher(op.apply(collection)), maxSize),
+            CompletableFuture::<List<T>>failedStage)
+        .orElseGet(() -> completedStage(null));
+  }
+
+  /**
+   * Runs a collection operation with more than one result and hands the results to <code>consumer
+   * </code> in chunks.
+   *
+   * @param collection the given collection.
+   * @param op the collection operation.
+   * @param chunkSize the maximum number of results in a chunk.
+   * @param consumer the consumer of the chunks. The next chunk is requested when its stage
+   *     completes.
+   * @param <T> the result type.
+   * @param <D> the document type.
+   * @return The completion stage that completes after the last chunk.
+   * @see Results#chunks(java.util.concurrent.Flow.Publisher, int, Function)
+   * @since 4.4
+   */
+  public static <T, D> CompletionStage<Void> execChunks(
+      final MongoCollection<D> collection,
+      final Function<MongoCollection<D>, Publisher<T>> op,
+      final int chunkSize,
+      final Function<List<T>, CompletionStage<Void>> consumer) {
+    return tryToGet(
+            () -> Results.chunks(toFlowPublisher(op.apply(collection)), chunkSize, consumer),
+            CompletableFuture::<Void>failedStage)
+        .orElseGet(() -> completedStage(null));
+  }
+
+  /**
+   * Runs a collection operation with more than one result as a blocking stream, which should be
+   * closed when it isn't consumed completely.
+   *
+   * @param collection the given collection.
+   * @param op the collection operation.
+   * @param bufferSize the maximum number of results that are fetched ahead.
+   * @param <T> the result type.
+   * @param <D> the document type.
+   * @return The stream of results.
+   * @see Results#stream(java.util.concurrent.Flow.Publisher, int)
+   * @since 4.4
+   */
+  public static <T, D> Stream<T> execStream(
+      final MongoCollection<D> collection,
+      final Function<MongoCollection<D>, Publisher<T>> op,
+      final int bufferSize) {
+    return Results.stream(toFlowPublisher(op.apply(collection)), bufferSize);
+  }
+
   public static <D> CompletionStage<List<D>> find(
       final MongoCollection<D> collection, final UnaryOperator<FindPublisher<D>> setParameters) {
     return execList(collection, c -> findPub(c.find(), setParameters));
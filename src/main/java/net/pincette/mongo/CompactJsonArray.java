@@ -0,0 +1,78 @@
+package net.pincette.mongo;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.List;
+import java.util.stream.Stream;
+import javax.json.JsonArray;
+import javax.json.JsonValue;
+
+/**
+ * An immutable JSON array that keeps its values in an array. The hash code is calculated only once.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ */
+class CompactJsonArray extends AbstractJsonArray {
+  static final JsonArray EMPTY = new CompactJsonArray(new JsonValue[0]);
+
+  private final JsonValue[] values;
+  private final boolean views;
+  private int hash;
+
+  /**
+   * Creates an array without copying <code>values</code>, which shouldn't be changed afterwards.
+   *
+   * @param values the values, none of which may be <code>null</code>.
+   */
+  CompactJsonArray(final JsonValue[] values) {
+    boolean v = false;
+
+    for (JsonValue value : values) {
+      v |= ArrayViews.hasViews(requireNonNull(value));
+    }
+
+    this.values = values;
+    this.views = v;
+  }
+
+  static JsonArray of(final List<? extends JsonValue> values) {
+    return values.isEmpty() ? EMPTY : new CompactJsonArray(values.toArray(new JsonValue[0]));
+  }
+
+  static JsonArray of(final Stream<? extends JsonValue> values) {
+    final JsonValue[] array = values.toArray(JsonValue[]::new);
+
+    return array.length == 0 ? EMPTY : new CompactJsonArray(array);
+  }
+
+  public JsonValue get(final int index) {
+    return values[index];
+  }
+
+  public int hashCode() {
+    if (hash == 0) {
+      hash = super.hashCode();
+    }
+
+    return hash;
+  }
+
+  boolean hasViews() {
+    return views;
+  }
+
+  JsonArray materialize() {
+    final JsonValue[] result = new JsonValue[values.length];
+
+    for (int i = 0; i < values.length; ++i) {
+      result[i] = ArrayViews.materialize(values[i]);
+    }
+
+    return NumberArrays.of(result);
+  }
+
+  public int size() {
+    return values.length;
+  }
+}
@@ -0,0 +1,276 @@
+package net.pincette.mongo;
+
+import static java.util.Arrays.copyOf;
+import static java.util.Objects.requireNonNull;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+/**
+ * An immutable JSON object that keeps its keys and values in two arrays. Small objects are searched
+ * linearly. Larger ones get an open-addressing index, which can be shared by objects with the same
+ * keys. The hash code is calculated only once. The field order is the insertion order.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ */
+class CompactJsonObject extends AbstractJsonObject {
+  static final JsonObject EMPTY = new CompactJsonObject(new String[0], new JsonValue[0], null);
+  private static final int INDEX_THRESHOLD = 8;
+
+  private final int[] index;
+  private final String[] keys;
+  private final JsonValue[] values;
+  private final boolean views;
+  private int hash;
+
+  /**
+   * Creates an object without copying the arrays, which shouldn't be changed afterwards.
+   *
+   * @param keys the unique keys.
+   * @param values the values, which are at the same positions as their keys. None of them may be
+   *     <code>null</code>.
+   * @param index the result of {@link #index(String[])} for the keys. When it is <code>null</code>
+   *     it is created if needed.
+   */
+  CompactJsonObject(final String[] keys, final JsonValue[] values, final int[] index) {
+    boolean v = false;
+
+    for (JsonValue value : values) {
+      v |= ArrayViews.hasViews(requireNonNull(value));
+    }
+
+    this.keys = keys;
+    this.values = values;
+    this.index = index != null ? index : index(keys);
+    this.views = v;
+  }
+
+  private static int hash(final Object key) {
+    final int h = key.hashCode();
+
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Creates the index for the keys if there are enough of them.
+   *
+   * @param keys the unique keys.
+   * @return The index or <code>null</code> if the keys are searched linearly.
+   */
+  static int[] index(final String[] keys) {
+    if (keys.length <= INDEX_THRESHOLD) {
+      return null;
+    }
+
+    final int[] result = new int[Integer.highestOneBit(keys.length - 1) << 2];
+    final int mask = result.length - 1;
+
+    for (int i = 0; i < keys.length; ++i) {
+      int slot = hash(keys[i]) & mask;
+
+      while (result[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+
+      result[slot] = i + 1;
+    }
+
+    return result;
+  }
+
+  public boolean containsKey(final Object key) {
+    return position(key) != -1;
+  }
+
+  public Set<Entry<String, JsonValue>> entrySet() {
+    return new AbstractSet<>() {
+      public Iterator<Entry<String, JsonValue>> iterator() {
+        return new Iterator<>() {
+          private int next;
+
+          public boolean hasNext() {
+            return next < keys.length;
+          }
+
+          public Entry<String, JsonValue> next() {
+            if (next == keys.length) {
+              throw new NoSuchElementException();
+            }
+
+            final Entry<String, JsonValue> result =
+                new SimpleImmutableEntry<>(keys[next], values[next]);
+
+            ++next;
+
+            return result;
+          }
+        };
+      }
+
+      public int size() {
+        return keys.length;
+      }
+    };
+  }
+
+  public JsonValue get(final Object key) {
+    final int position = position(key);
+
+    return position != -1 ? values[position] : null;
+  }
+
+  public int hashCode() {
+    if (hash == 0) {
+      hash = super.hashCode();
+    }
+
+    return hash;
+  }
+
+  boolean hasViews() {
+    return views;
+  }
+
+  public boolean isEmpty() {
+    return keys.length == 0;
+  }
+
+  JsonObject materialize() {
+    final JsonValue[] result = new JsonValue[values.length];
+
+    for (int i = 0; i < values.length; ++i) {
+      result[i] = ArrayViews.materialize(values[i]);
+    }
+
+    return new CompactJsonObject(keys, result, index);
+  }
+
+  private int position(final Object key) {
+    if (key == null) {
+      return -1;
+    }
+
+    if (index == null) {
+      for (int i = 0; i < keys.length; ++i) {
+        if (keys[i].equals(key)) {
+          return i;
+        }
+      }
+
+      return -1;
+    }
+
+    final int mask = index.length - 1;
+
+    for (int slot = hash(key) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+      if (keys[index[slot] - 1].equals(key)) {
+        return index[slot] - 1;
+      }
+    }
+
+    return -1;
+  }
+
+  public int size() {
+    return keys.length;
+  }
+
+  /**
+   * Collects fields in insertion order. When a key is added more than once, the last value wins and
+   * the field keeps its first position. A builder is meant to be used only once.
+   */
+  static class Builder {
+    private String[] keys;
+    private int size;
+    private JsonValue[] values;
+
+    Builder() {
+      this(INDEX_THRESHOLD);
+    }
+
+    Builder(final int capacity) {
+      keys = new String[Math.max(capacity, 1)];
+      values = new JsonValue[keys.length];
+    }
+
+    private static int find(final String[] keys, final int size, final String key) {
+      for (int i = 0; i < size; ++i) {
+        if (keys[i].equals(key)) {
+          return i;
+        }
+      }
+
+      return -1;
+    }
+
+    private static int find(
+        final int[] table, final String[] keys, final String key, final int position) {
+      final int mask = table.length - 1;
+      int slot = hash(key) & mask;
+
+      while (table[slot] != 0) {
+        if (keys[table[slot] - 1].equals(key)) {
+          return table[slot] - 1;
+        }
+
+        slot = (slot + 1) & mask;
+      }
+
+      table[slot] = position + 1;
+
+      return -1;
+    }
+
+    Builder add(final String key, final JsonValue value) {
+      requireNonNull(key);
+
+      if (size == keys.length) {
+        keys = copyOf(keys, size * 2);
+        values = copyOf(values, size * 2);
+      }
+
+      keys[size] = key;
+      values[size++] = value;
+
+      return this;
+    }
+
+    JsonObject build() {
+      if (size == 0) {
+        return EMPTY;
+      }
+
+      final int unique = removeDuplicates();
+
+      return new CompactJsonObject(
+          keys.length == unique ? keys : copyOf(keys, unique),
+          values.length == unique ? values : copyOf(values, unique),
+          null);
+    }
+
+    private int removeDuplicates() {
+      final int[] table =
+          size > INDEX_THRESHOLD ? new int[Integer.highestOneBit(size - 1) << 2] : null;
+      int unique = 0;
+
+      for (int i = 0; i < size; ++i) {
+        final int existing =
+            table != null ? find(table, keys, keys[i], unique) : find(keys, unique, keys[i]);
+
+        if (existing != -1) {
+          values[existing] = values[i];
+        } else {
+          keys[unique] = keys[i];
+          values[unique++] = values[i];
+        }
+      }
+
+      return unique;
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package net.pincette.mongo;
+
+import static java.util.Arrays.copyOfRange;
+import static net.pincette.json.JsonUtil.createValue;
+
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
+import javax.json.JsonValue;
+
+/**
+ * An immutable JSON array of floating point numbers that is backed by a <code>double</code> array.
+ * The <code>JsonNumber</code> objects are only created when elements are accessed. The values
+ * should be finite.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ * @see NumberArrays
+ */
+class DoubleJsonArray extends AbstractJsonArray {
+  private final double[] values;
+  private int hash;
+
+  /**
+   * Creates an array without copying <code>values</code>, which shouldn't be changed afterwards.
+   *
+   * @param values the finite values.
+   */
+  DoubleJsonArray(final double[] values) {
+    this.values = values;
+  }
+
+  public boolean contains(final Object o) {
+    if (!(o instanceof JsonNumber number)) {
+      return false;
+    }
+
+    final double v = number.doubleValue();
+
+    for (int i = 0; i < values.length; ++i) {
+      if (values[i] == v && get(i).equals(number)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  public boolean equals(final Object o) {
+    if (o instanceof DoubleJsonArray other) {
+      if (values.length != other.values.length) {
+        return false;
+      }
+
+      for (int i = 0; i < values.length; ++i) {
+        if (values[i] != other.values[i]) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+
+    return super.equals(o);
+  }
+
+  public JsonValue get(final int index) {
+    return createValue(values[index]);
+  }
+
+  public int hashCode() {
+    if (hash == 0) {
+      hash = super.hashCode();
+    }
+
+    return hash;
+  }
+
+  public int size() {
+    return values.length;
+  }
+
+  JsonArray slice(final int from, final int to) {
+    return new DoubleJsonArray(copyOfRange(values, from, to));
+  }
+}
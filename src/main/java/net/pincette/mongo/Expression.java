@@ -1,6 +1,7 @@
 package net.pincette.mongo;
 
 import static java.time.Instant.now;
+import static java.util.Arrays.stream;
 import static java.util.Collections.emptyMap;
 import static java.util.Optional.ofNullable;
 import static java.util.logging.Level.FINEST;
@@ -12,7 +13,6 @@ import static javax.json.JsonValue.NULL;
 import static net.pincette.json.JsonUtil.asInt;
 import static net.pincette.json.JsonUtil.asNumber;
 import static net.pincette.json.JsonUtil.copy;
-import static net.pincette.json.JsonUtil.createArrayBuilder;
 import static net.pincette.json.JsonUtil.createObjectBuilder;
 import static net.pincette.json.JsonUtil.createValue;
 import static net.pincette.json.JsonUtil.getValue;
@@ -22,6 +22,7 @@ import static net.pincette.json.JsonUtil.isObject;
 import static net.pincette.json.JsonUtil.string;
 import static net.pincette.json.JsonUtil.stringValue;
 import static net.pincette.json.JsonUtil.toJsonPointer;
+import static net.pincette.mongo.ArrayViews.materialize;
 import static net.pincette.mongo.BsonUtil.fromBson;
 import static net.pincette.mongo.BsonUtil.toBsonDocument;
 import static net.pincette.mongo.Relational.asFunction;
@@ -586,7 +587,7 @@ public class Expression {
     final Implementation implementation = implementation(expression, features);
     final Map<String, JsonValue> vars = stripDollars(variables != null ? variables : emptyMap());
 
-    return json -> implementation.apply(json, vars);
+    return json -> materialize(implementation.apply(json, vars));
   }
 
   /**
@@ -707,10 +708,7 @@ public class Expression {
     final List<Implementation> implementations =
         expression.stream().map(expr -> implementation(expr, features)).toList();
 
-    return (json, vars) ->
-        implementations.stream()
-            .reduce(createArrayBuilder(), (b, i) -> b.add(i.apply(json, vars)), (b1, b2) -> b1)
-            .build();
+    return (json, vars) -> toArray(implementations.stream().map(i -> i.apply(json, vars)));
   }
 
   static List<Implementation> implementations(final JsonValue expression, final Features features) {
@@ -913,7 +911,7 @@ public class Expression {
 
   private static JsonValue mergeObjects(final List<JsonValue> values) {
     return values.stream()
-        .map(JsonValue::asJsonObject)
+        .map(v -> materialize(v).asJsonObject())
         .reduce(
             createObjectBuilder(),
             (b, o) -> copy(o, b, (k, ob) -> !ob.get(k).equals(NULL)),
@@ -957,17 +955,18 @@ public class Expression {
 
   private static Implementation recursiveImplementation(
       final JsonObject expression, final Features features) {
-    final Map<String, Implementation> implementations =
-        expression.entrySet().stream()
-            .collect(toMap(Entry::getKey, e -> implementation(e.getValue(), features)));
+    final String[] keys = expression.keySet().toArray(new String[0]);
+    final Implementation[] implementations =
+        stream(keys)
+            .map(k -> implementation(expression.get(k), features))
+            .toArray(Implementation[]::new);
+    final int[] index = CompactJsonObject.index(keys);
 
     return (json, vars) ->
-        implementations.entrySet().stream()
-            .reduce(
-                createObjectBuilder(),
-                (b, e) -> b.add(e.getKey(), e.getValue().apply(json, vars)),
-                (b1, b2) -> b1)
-            .build();
+        new CompactJsonObject(
+            keys,
+            stream(implementations).map(i -> i.apply(json, vars)).toArray(JsonValue[]::new),
+            index);
   }
 
   /**
@@ -1006,7 +1005,7 @@ public class Expression {
     return expressions.entrySet().stream()
         .reduce(
             createObjectBuilder(),
-            (b, e) -> b.add(e.getKey(), replaceVariables(e.getValue(), variables)),
+            (b, e) -> b.add(e.getKey(), materialize(replaceVariables(e.getValue(), variables))),
             (b1, b2) -> b1)
         .build();
   }
@@ -1080,7 +1079,7 @@ public class Expression {
     return object.entrySet().stream()
         .reduce(
             createObjectBuilder(),
-            (b, e) -> b.add(unescapeKey(e.getKey()), unescapeKeys(e.getValue())),
+            (b, e) -> b.add(unescapeKey(e.getKey()), materialize(unescapeKeys(e.getValue()))),
             (b1, b2) -> b1)
         .build();
   }
@@ -0,0 +1,224 @@
+package net.pincette.mongo;
+
+import static java.util.Optional.ofNullable;
+import static net.pincette.mongo.BsonUtil.fromBson;
+import static net.pincette.mongo.BsonUtil.fromJson;
+import static net.pincette.mongo.ChangeWatcher.fromNow;
+import static net.pincette.mongo.IdLoader.key;
+import static org.reactivestreams.FlowAdapters.toFlowPublisher;
+
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+
+/**
+ * A read-through cache of documents by their <code>_id</code>. Missing entries are loaded with an
+ * {@link IdLoader}, so misses that occur at the same time share round trips. Concurrent misses for
+ * the same identifier share one load. Documents that don't exist are cached as well.
+ *
+ * <p>The least recently used entries are evicted when there are too many of them or when their
+ * total BSON size is too large. Entries can also expire. With watching, one change stream on the
+ * collection invalidates the entries of updated and deleted documents and refreshes those of
+ * inserted and replaced documents. A load that is in progress when its document changes isn't
+ * cached. Nothing is cached before the change stream has started, which covers the changes from
+ * the moment the cache is created. When the change stream ends, all entries are invalidated and the
+ * cache stops caching, so every lookup goes to the database after that.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ * @see CacheOptions
+ */
+public class IdCache implements AutoCloseable {
+  private static final String ID = "_id";
+
+  private final LoadingCache<Object, Optional<JsonObject>> cache;
+  private final Function<BsonValue, CompletionStage<Optional<JsonObject>>> loader;
+  private final CacheOptions options;
+  private ChangeWatcher watcher;
+
+  public IdCache(final MongoCollection<Document> collection) {
+    this(collection, null);
+  }
+
+  /**
+   * Creates a cache.
+   *
+   * @param collection the MongoDB collection.
+   * @param options the options. It may be <code>null</code>, in which case the defaults are used.
+   */
+  public IdCache(final MongoCollection<Document> collection, final CacheOptions options) {
+    this(new IdLoader(collection)::load, options);
+
+    if (this.options.watch) {
+      toFlowPublisher(fromNow(collection.watch(BsonDocument.class))).subscribe(watcher());
+    }
+  }
+
+  IdCache(
+      final Function<BsonValue, CompletionStage<Optional<JsonObject>>> loader,
+      final CacheOptions options) {
+    this.loader = loader;
+    this.options = ofNullable(options).orElseGet(CacheOptions::new);
+    this.cache =
+        new LoadingCache<>(
+            this.options, value -> value.map(v -> BsonBytes.size(fromJson(v))).orElse(0));
+  }
+
+  static BsonValue documentId(final ChangeStreamDocument<BsonDocument> change) {
+    return change.getDocumentKey() != null ? change.getDocumentKey().get(ID) : null;
+  }
+
+  private void changed(final ChangeStreamDocument<BsonDocument> change) {
+    final BsonValue id = documentId(change);
+
+    switch (change.getOperationType()) {
+      case INSERT, REPLACE -> {
+        if (id != null && change.getFullDocument() != null) {
+          replace(id, fromBson(change.getFullDocument()));
+        } else if (id != null) {
+          invalidate(id);
+        }
+      }
+      case UPDATE, DELETE -> {
+        if (id != null) {
+          invalidate(id);
+        }
+      }
+      case DROP, DROP_DATABASE, RENAME, INVALIDATE -> invalidateAll();
+      default -> {
+        // Other operations don't change documents.
+      }
+    }
+  }
+
+  /** Stops watching the collection and invalidates all entries. */
+  public void close() {
+    if (watcher != null) {
+      watcher.cancel();
+    }
+
+    cache.close();
+  }
+
+  /**
+   * Returns the number of entries that were evicted because of the size or the weight.
+   *
+   * @return The number of evictions.
+   */
+  public long evictions() {
+    return cache.evictions();
+  }
+
+  /**
+   * Returns the document with <code>id</code>.
+   *
+   * @param id the identifier.
+   * @return The optional JSON object.
+   */
+  public CompletionStage<Optional<JsonObject>> get(final BsonValue id) {
+    return cache.get(key(id), () -> loader.apply(id));
+  }
+
+  /**
+   * Returns the document with <code>id</code>.
+   *
+   * @param id the identifier.
+   * @return The optional JSON object.
+   */
+  public CompletionStage<Optional<JsonObject>> get(final JsonValue id) {
+    return get(fromJson(id));
+  }
+
+  /**
+   * Returns the document with <code>id</code>.
+   *
+   * @param id the identifier.
+   * @return The optional JSON object.
+   */
+  public CompletionStage<Optional<JsonObject>> get(final String id) {
+    return get(new BsonString(id));
+  }
+
+  /**
+   * Returns the number of lookups that were served from the cache.
+   *
+   * @return The number of hits.
+   */
+  public long hits() {
+    return cache.hits();
+  }
+
+  /**
+   * Removes the entry for <code>id</code>. A load that is in progress for it won't be cached.
+   *
+   * @param id the identifier.
+   */
+  public void invalidate(final BsonValue id) {
+    cache.invalidate(key(id));
+  }
+
+  /** Removes all entries. Loads that are in progress won't be cached. */
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  /**
+   * Returns the number of entries that were removed because their document changed or because of
+   * an explicit invalidation.
+   *
+   * @return The number of invalidations.
+   */
+  public long invalidations() {
+    return cache.invalidations();
+  }
+
+  /**
+   * Returns the number of lookups that had to be loaded.
+   *
+   * @return The number of misses.
+   */
+  public long misses() {
+    return cache.misses();
+  }
+
+  /**
+   * Replaces the entry for <code>id</code> if there is one. A load that is in progress for it won't
+   * be cached.
+   *
+   * @param id the identifier.
+   * @param json the new version of the document.
+   */
+  void replace(final BsonValue id, final JsonObject json) {
+    cache.replace(key(id), Optional.of(json));
+  }
+
+  /**
+   * Returns the number of entries.
+   *
+   * @return The number of entries.
+   */
+  public int size() {
+    return cache.size();
+  }
+
+  /**
+   * Creates the watcher for the change stream. The cache is suspended until the change stream has
+   * started and again after it has ended.
+   *
+   * @return The watcher.
+   */
+  ChangeWatcher watcher() {
+    cache.suspend();
+    watcher = new ChangeWatcher(this::changed, cache::resume, cache::suspend);
+
+    return watcher;
+  }
+}
@@ -0,0 +1,225 @@
+package net.pincette.mongo;
+
+import static com.mongodb.client.model.Filters.in;
+import static java.lang.Math.max;
+import static java.util.Optional.ofNullable;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.delayedExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.stream.Collectors.toMap;
+import static net.pincette.mongo.BsonUtil.fromJson;
+import static net.pincette.mongo.Collection.find;
+import static net.pincette.util.Util.tryToGet;
+
+import com.mongodb.reactivestreams.client.MongoCollection;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+
+/**
+ * Loads documents by their <code>_id</code> in batches. The lookups that arrive within a short
+ * window are combined into one <code>find</code> with an <code>$in</code> filter, which turns many
+ * concurrent single lookups into a few round trips. When the same identifier is asked for several
+ * times in a window it is looked up only once. A batch is sent when it has reached the maximum
+ * number of identifiers or when the window has passed since its first lookup.
+ *
+ * <p>Numeric identifiers are matched by value, so an integer finds a document with the same value
+ * as a long or a double, like it does in a query.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ */
+public class IdLoader {
+  private static final String ID = "_id";
+
+  private final Function<List<BsonValue>, CompletionStage<List<BsonDocument>>> find;
+  private final int maxBatch;
+  private final Executor windowExecutor;
+  private Map<Object, Lookup> batch = new HashMap<>();
+  private int generation;
+
+  /**
+   * Creates a loader with batches of at most 1000 identifiers and a window of 2 milliseconds.
+   *
+   * @param collection the MongoDB collection.
+   */
+  public IdLoader(final MongoCollection<Document> collection) {
+    this(collection, 1000, Duration.ofMillis(2));
+  }
+
+  /**
+   * Creates a loader.
+   *
+   * @param collection the MongoDB collection.
+   * @param maxBatch the maximum number of identifiers in one query.
+   * @param window the time a batch waits for more lookups.
+   */
+  public IdLoader(
+      final MongoCollection<Document> collection, final int maxBatch, final Duration window) {
+    this(
+        ids -> find(collection.withDocumentClass(BsonDocument.class), in(ID, ids), null),
+        maxBatch,
+        window);
+  }
+
+  IdLoader(
+      final Function<List<BsonValue>, CompletionStage<List<BsonDocument>>> find,
+      final int maxBatch,
+      final Duration window) {
+    this.find = find;
+    this.maxBatch = max(maxBatch, 1);
+    this.windowExecutor = delayedExecutor(window.toMillis(), MILLISECONDS);
+  }
+
+  static Object key(final BsonValue id) {
+    return switch (id.getBsonType()) {
+      case INT32 -> BigDecimal.valueOf(id.asInt32().getValue()).stripTrailingZeros();
+      case INT64 -> BigDecimal.valueOf(id.asInt64().getValue()).stripTrailingZeros();
+      case DOUBLE ->
+          Double.isFinite(id.asDouble().getValue())
+              ? BigDecimal.valueOf(id.asDouble().getValue()).stripTrailingZeros()
+              : id;
+      default -> id;
+    };
+  }
+
+  private static Map<Object, JsonObject> found(final List<BsonDocument> documents) {
+    return documents.stream()
+        .collect(toMap(d -> key(d.get(ID)), BsonUtil::fromBson, (d1, d2) -> d1));
+  }
+
+  private static Throwable unwrap(final Throwable e) {
+    return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+  }
+
+  /** Sends the pending lookups now. */
+  public void flush() {
+    final Map<Object, Lookup> lookups;
+
+    synchronized (this) {
+      lookups = take();
+    }
+
+    send(lookups);
+  }
+
+  private void flush(final int expectedGeneration) {
+    final Map<Object, Lookup> lookups;
+
+    synchronized (this) {
+      lookups = generation == expectedGeneration ? take() : Map.of();
+    }
+
+    send(lookups);
+  }
+
+  /**
+   * Looks up the document with <code>id</code>.
+   *
+   * @param id the identifier.
+   * @return The optional JSON object.
+   */
+  public CompletionStage<Optional<JsonObject>> load(final BsonValue id) {
+    final Object key = key(id);
+    final Lookup lookup;
+    final Map<Object, Lookup> full;
+
+    synchronized (this) {
+      final Lookup existing = batch.get(key);
+
+      if (existing != null) {
+        return existing.result.minimalCompletionStage();
+      }
+
+      lookup = new Lookup(id);
+      batch.put(key, lookup);
+
+      if (batch.size() == 1) {
+        final int g = generation;
+
+        windowExecutor.execute(() -> flush(g));
+      }
+
+      full = batch.size() >= maxBatch ? take() : Map.of();
+    }
+
+    send(full);
+
+    return lookup.result.minimalCompletionStage();
+  }
+
+  /**
+   * Looks up the document with <code>id</code>.
+   *
+   * @param id the identifier.
+   * @return The optional JSON object.
+   */
+  public CompletionStage<Optional<JsonObject>> load(final JsonValue id) {
+    return load(fromJson(id));
+  }
+
+  /**
+   * Looks up the document with <code>id</code>.
+   *
+   * @param id the identifier.
+   * @return The optional JSON object.
+   */
+  public CompletionStage<Optional<JsonObject>> load(final String id) {
+    return load(new BsonString(id));
+  }
+
+  /**
+   * Sends one query for the lookups. When the query or the conversion of its result fails, all
+   * lookups fail.
+   */
+  private void send(final Map<Object, Lookup> lookups) {
+    if (!lookups.isEmpty()) {
+      tryToGet(
+              () -> find.apply(lookups.values().stream().map(l -> l.id).toList()),
+              CompletableFuture::<List<BsonDocument>>failedStage)
+          .orElseGet(() -> completedFuture(List.of()))
+          .thenApply(IdLoader::found)
+          .whenComplete(
+              (found, e) -> {
+                if (e != null) {
+                  lookups.values().forEach(l -> l.result.completeExceptionally(unwrap(e)));
+                } else {
+                  lookups.forEach(
+                      (key, lookup) -> lookup.result.complete(ofNullable(found.get(key))));
+                }
+              });
+    }
+  }
+
+  private Map<Object, Lookup> take() {
+    final Map<Object, Lookup> result = batch;
+
+    batch = new HashMap<>();
+    ++generation;
+
+    return result;
+  }
+
+  private static class Lookup {
+    private final BsonValue id;
+    private final CompletableFuture<Optional<JsonObject>> result = new CompletableFuture<>();
+
+    private Lookup(final BsonValue id) {
+      this.id = id;
+    }
+  }
+}
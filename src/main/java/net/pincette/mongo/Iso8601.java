@@ -1,6 +1,8 @@
 package net.pincette.mongo;
 
 import static java.time.Instant.ofEpochMilli;
+import static java.time.Instant.ofEpochSecond;
+import static java.time.Instant.parse;
 import static java.time.LocalDate.ofInstant;
 import static java.time.ZoneId.systemDefault;
 import static java.time.format.DateTimeFormatter.ISO_DATE;
@@ -8,16 +10,201 @@ import static javax.json.JsonValue.NULL;
 import static net.pincette.mongo.Expression.asInstant;
 import static net.pincette.mongo.Expression.asLong;
 import static net.pincette.mongo.Expression.implementation;
+import static net.pincette.util.Util.tryToGetSilent;
 
 import java.time.Instant;
 import java.time.LocalDate;
+import java.util.Optional;
 import java.util.function.Function;
 import javax.json.JsonValue;
 import net.pincette.json.JsonUtil;
 
 class Iso8601 {
+  private static final long[] NANOS = {
+    100000000, 10000000, 1000000, 100000, 10000, 1000, 100, 10, 1
+  };
+  private static final long SECONDS_PER_DAY = 86400;
+
   private Iso8601() {}
 
+  private static int daysInMonth(final long year, final int month) {
+    return switch (month) {
+      case 2 -> isLeapYear(year) ? 29 : 28;
+      case 4, 6, 9, 11 -> 30;
+      default -> 31;
+    };
+  }
+
+  /** The number of days since 1970-01-01 in the proleptic Gregorian calendar. */
+  private static long epochDay(final long year, final int month, final int day) {
+    final long y = month <= 2 ? year - 1 : year;
+    final long era = (y >= 0 ? y : y - 399) / 400;
+    final long yearOfEra = y - era * 400;
+    final long dayOfYear = (153L * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+    final long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+    return era * 146097 + dayOfEra - 719468;
+  }
+
+  private static boolean hasDateShape(final String s) {
+    return s.length() >= 16
+        && isDigit(s.charAt(0))
+        && s.charAt(4) == '-'
+        && s.charAt(7) == '-'
+        && (s.charAt(10) == 'T' || s.charAt(10) == 't');
+  }
+
+  private static boolean isDigit(final char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isLeapYear(final long year) {
+    return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+  }
+
+  /**
+   * Parses an ISO-8601 instant like <code>Instant.parse</code> does. Strings that can't be an
+   * instant are rejected after a few character comparisons, without creating exceptions or other
+   * objects. The common form <code>yyyy-MM-ddTHH:mm:ss[.f](Z|+HH:mm|-HH:mm)</code> is parsed
+   * directly. Years with a sign, which are the only ones that can have more than four digits, are
+   * handed over to <code>Instant.parse</code>, as well as the rare variants of the common form,
+   * such as leap seconds.
+   *
+   * @param s the string.
+   * @return The instant or empty when the string isn't one.
+   */
+  static Optional<Instant> instant(final String s) {
+    if (isUnusual(s)) {
+      return tryToGetSilent(() -> parse(s));
+    }
+
+    if (!hasDateShape(s)) {
+      return Optional.empty();
+    }
+
+    final long seconds = s.length() >= 20 ? parseSeconds(s) : Long.MIN_VALUE;
+
+    return seconds != Long.MIN_VALUE
+        ? Optional.of(ofEpochSecond(seconds, parseNanos(s)))
+        : tryToGetSilent(() -> parse(s));
+  }
+
+  /**
+   * Years before 0 and after 9999 have a sign. Negative years have at least four digits and
+   * positive years at least five.
+   */
+  private static boolean isUnusual(final String s) {
+    if (s.length() < 17 || (s.charAt(0) != '+' && s.charAt(0) != '-')) {
+      return false;
+    }
+
+    final int end = yearEnd(s);
+
+    return end - 1 >= (s.charAt(0) == '-' ? 4 : 5)
+        && end + 6 < s.length()
+        && s.charAt(end) == '-'
+        && s.charAt(end + 3) == '-'
+        && (s.charAt(end + 6) == 'T' || s.charAt(end + 6) == 't');
+  }
+
+  private static int number(final String s, final int start, final int length) {
+    int result = 0;
+
+    for (int i = start; i < start + length; ++i) {
+      final char c = s.charAt(i);
+
+      if (!isDigit(c)) {
+        return -1;
+      }
+
+      result = result * 10 + (c - '0');
+    }
+
+    return result;
+  }
+
+  private static int fractionEnd(final String s) {
+    if (s.length() > 19 && s.charAt(19) == '.') {
+      int i = 20;
+
+      while (i < s.length() && i < 29 && isDigit(s.charAt(i))) {
+        ++i;
+      }
+
+      return i > 20 ? i : -1;
+    }
+
+    return 19;
+  }
+
+  private static long offsetSeconds(final String s, final int start) {
+    if (start == s.length() - 1 && (s.charAt(start) == 'Z' || s.charAt(start) == 'z')) {
+      return 0;
+    }
+
+    if (start == s.length() - 6
+        && (s.charAt(start) == '+' || s.charAt(start) == '-')
+        && s.charAt(start + 3) == ':') {
+      final int hours = number(s, start + 1, 2);
+      final int minutes = number(s, start + 4, 2);
+
+      final long seconds = hours * 3600L + minutes * 60L;
+
+      return hours >= 0 && minutes >= 0 && minutes <= 59 && seconds <= 18 * 3600
+          ? (s.charAt(start) == '-' ? -seconds : seconds)
+          : Long.MIN_VALUE;
+    }
+
+    return Long.MIN_VALUE;
+  }
+
+  private static long parseNanos(final String s) {
+    final int end = fractionEnd(s);
+    long result = 0;
+
+    for (int i = 20; i < end; ++i) {
+      result += (s.charAt(i) - '0') * NANOS[i - 20];
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the epoch seconds of a string in the common form or <code>Long.MIN_VALUE</code> if it
+   * isn't in that form.
+   */
+  private static long parseSeconds(final String s) {
+    final int year = number(s, 0, 4);
+    final int month = number(s, 5, 2);
+    final int day = number(s, 8, 2);
+    final int hour = number(s, 11, 2);
+    final int minute = number(s, 14, 2);
+    final int second = number(s, 17, 2);
+    final int end = fractionEnd(s);
+    final long offset = end != -1 ? offsetSeconds(s, end) : Long.MIN_VALUE;
+
+    return year >= 0
+            && month >= 1
+            && month <= 12
+            && day >= 1
+            && day <= daysInMonth(year, month)
+            && s.charAt(13) == ':'
+            && hour >= 0
+            && hour <= 23
+            && s.charAt(16) == ':'
+            && minute >= 0
+            && minute <= 59
+            && second >= 0
+            && second <= 59
+            && offset != Long.MIN_VALUE
+        ? epochDay(year, month, day) * SECONDS_PER_DAY
+            + hour * 3600L
+            + minute * 60L
+            + second
+            - offset
+        : Long.MIN_VALUE;
+  }
+
   private static Implementation fromEpoch(
       final JsonValue value, final Function<Long, Instant> fn, final Features features) {
     final ImplementationOptional implementation = asLong(implementation(value, features));
@@ -88,4 +275,14 @@ class Iso8601 {
   static Implementation toYear(final JsonValue value, final Features features) {
     return toValue(value, i -> fromInstant(i).getYear(), features);
   }
+
+  private static int yearEnd(final String s) {
+    int i = 1;
+
+    while (i < s.length() && isDigit(s.charAt(i))) {
+      ++i;
+    }
+
+    return i;
+  }
 }
@@ -12,12 +12,14 @@ import static net.pincette.json.JsonUtil.toNative;
 import static net.pincette.mongo.BsonUtil.fromBson;
 import static net.pincette.mongo.BsonUtil.fromJson;
 import static net.pincette.mongo.BsonUtil.toBsonDocument;
-import static net.pincette.mongo.BsonUtil.toDocument;
 import static net.pincette.mongo.Collection.exec;
 import static net.pincette.mongo.Collection.insertOne;
 import static net.pincette.mongo.Collection.replaceOne;
 import static net.pincette.rs.Chain.with;
 import static net.pincette.util.Collections.list;
+import static org.bson.codecs.configuration.CodecRegistries.fromCodecs;
+import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
+import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
 import static org.reactivestreams.FlowAdapters.toFlowPublisher;
 
 import com.mongodb.bulk.BulkWriteResult;
@@ -35,6 +37,7 @@ import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Flow.Publisher;
+import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.function.UnaryOperator;
 import java.util.stream.Stream;
@@ -46,6 +49,7 @@ import net.pincette.json.JsonUtil;
 import net.pincette.rs.Util;
 import org.bson.BsonDocument;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
 import org.bson.conversions.Bson;
 import org.reactivestreams.FlowAdapters;
 
@@ -62,6 +66,13 @@ public class JsonClient {
 
   private JsonClient() {}
 
+  private static Publisher<BsonDocument> adaptive(
+      final Publisher<BsonDocument> pub, final ReadOptions options) {
+    return options.fetchBudget > 0
+        ? with(pub).map(new AdaptiveDemand<>(BsonBytes::size, options.fetchBudget)).get()
+        : pub;
+  }
+
   /**
    * Finds JSON objects that come out of <code>pipeline</code>.
    *
@@ -229,8 +240,28 @@ public class JsonClient {
       final MongoCollection<Document> collection,
       final List<? extends Bson> pipeline,
       final UnaryOperator<AggregatePublisher<BsonDocument>> setParameters) {
+    return aggregationPublisher(collection, pipeline, setParameters, new ReadOptions());
+  }
+
+  /**
+   * Finds JSON objects that come out of <code>pipeline</code>.
+   *
+   * @param collection the MongoDB collection.
+   * @param pipeline the given pipeline.
+   * @param setParameters a function to set the parameters for the result set.
+   * @param options the options for reading the documents.
+   * @return The object publisher.
+   * @since 4.4
+   */
+  public static Publisher<JsonObject> aggregationPublisher(
+      final MongoCollection<Document> collection,
+      final List<? extends Bson> pipeline,
+      final UnaryOperator<AggregatePublisher<BsonDocument>> setParameters,
+      final ReadOptions options) {
     return aggregationPublisher(
-        () -> collection.aggregate(pipeline, BsonDocument.class), setParameters);
+        () -> readCollection(collection, options).aggregate(pipeline, BsonDocument.class),
+        setParameters,
+        options);
   }
 
   /**
@@ -264,8 +295,30 @@ public class JsonClient {
       final ClientSession session,
       final List<? extends Bson> pipeline,
       final UnaryOperator<AggregatePublisher<BsonDocument>> setParameters) {
+    return aggregationPublisher(collection, session, pipeline, setParameters, new ReadOptions());
+  }
+
+  /**
+   * Finds JSON objects that come out of <code>pipeline</code>.
+   *
+   * @param collection the MongoDB collection.
+   * @param session the MongoDB session.
+   * @param pipeline the given pipeline.
+   * @param setParameters a function to set the parameters for the result set.
+   * @param options the options for reading the documents.
+   * @return The object publisher.
+   * @since 4.4
+   */
+  public static Publisher<JsonObject> aggregationPublisher(
+      final MongoCollection<Document> collection,
+      final ClientSession session,
+      final List<? extends Bson> pipeline,
+      final UnaryOperator<AggregatePublisher<BsonDocument>> setParameters,
+      final ReadOptions options) {
     return aggregationPublisher(
-        () -> collection.aggregate(session, pipeline, BsonDocument.class), setParameters);
+        () -> readCollection(collection, options).aggregate(session, pipeline, BsonDocument.class),
+        setParameters,
+        options);
   }
 
   /**
@@ -288,11 +341,12 @@ public class JsonClient {
 
   private static Publisher<JsonObject> aggregationPublisher(
       final Supplier<AggregatePublisher<BsonDocument>> operation,
-      final UnaryOperator<AggregatePublisher<BsonDocument>> setParameters) {
+      final UnaryOperator<AggregatePublisher<BsonDocument>> setParameters,
+      final ReadOptions options) {
     return Optional.of(operation.get())
         .map(a -> setParameters != null ? setParameters.apply(a) : a)
         .map(FlowAdapters::toFlowPublisher)
-        .map(JsonClient::toJson)
+        .map(pub -> toJson(adaptive(pub, options), options))
         .orElseGet(Util::empty);
   }
 
@@ -577,11 +631,32 @@ public class JsonClient {
       final MongoCollection<Document> collection,
       final Bson filter,
       final UnaryOperator<FindPublisher<BsonDocument>> setParameters) {
+    return findPublisher(collection, filter, setParameters, new ReadOptions());
+  }
+
+  /**
+   * Finds JSON objects that match <code>filter</code>.
+   *
+   * @param collection the MongoDB collection.
+   * @param filter the given filter. It may be <code>null</code>.
+   * @param setParameters a function to set the parameters for the result set.
+   * @param options the options for reading the documents.
+   * @return The object publisher.
+   * @since 4.4
+   */
+  public static Publisher<JsonObject> findPublisher(
+      final MongoCollection<Document> collection,
+      final Bson filter,
+      final UnaryOperator<FindPublisher<BsonDocument>> setParameters,
+      final ReadOptions options) {
+    final MongoCollection<Document> c = readCollection(collection, options);
+
     return findPublisher(
         filter != null
-            ? () -> collection.find(filter, BsonDocument.class)
-            : () -> collection.find(BsonDocument.class),
-        setParameters);
+            ? () -> c.find(filter, BsonDocument.class)
+            : () -> c.find(BsonDocument.class),
+        setParameters,
+        options);
   }
 
   /**
@@ -615,11 +690,34 @@ public class JsonClient {
       final ClientSession session,
       final Bson filter,
       final UnaryOperator<FindPublisher<BsonDocument>> setParameters) {
+    return findPublisher(collection, session, filter, setParameters, new ReadOptions());
+  }
+
+  /**
+   * Finds JSON objects that match <code>filter</code>.
+   *
+   * @param collection the MongoDB collection.
+   * @param session the MongoDB session.
+   * @param filter the given filter. It may be <code>null</code>.
+   * @param setParameters a function to set the parameters for the result set.
+   * @param options the options for reading the documents.
+   * @return The object publisher.
+   * @since 4.4
+   */
+  public static Publisher<JsonObject> findPublisher(
+      final MongoCollection<Document> collection,
+      final ClientSession session,
+      final Bson filter,
+      final UnaryOperator<FindPublisher<BsonDocument>> setParameters,
+      final ReadOptions options) {
+    final MongoCollection<Document> c = readCollection(collection, options);
+
     return findPublisher(
         filter != null
-            ? () -> collection.find(session, filter, BsonDocument.class)
-            : () -> collection.find(session, BsonDocument.class),
-        setParameters);
+            ? () -> c.find(session, filter, BsonDocument.class)
+            : () -> c.find(session, BsonDocument.class),
+        setParameters,
+        options);
   }
 
   /**
@@ -643,11 +741,12 @@ public class JsonClient {
 
   private static Publisher<JsonObject> findPublisher(
       final Supplier<FindPublisher<BsonDocument>> operation,
-      final UnaryOperator<FindPublisher<BsonDocument>> setParameters) {
+      final UnaryOperator<FindPublisher<BsonDocument>> setParameters,
+      final ReadOptions options) {
     return Optional.of(operation.get())
         .map(a -> setParameters != null ? setParameters.apply(a) : a)
         .map(FlowAdapters::toFlowPublisher)
-        .map(JsonClient::toJson)
+        .map(pub -> toJson(adaptive(pub, options), options))
         .orElseGet(Util::empty);
   }
 
@@ -662,8 +761,7 @@ public class JsonClient {
    */
   public static CompletionStage<Optional<JsonObject>> findOne(
       final MongoCollection<Document> collection, final Bson filter) {
-    return Collection.findOne(collection, filter, BsonDocument.class, null)
-        .thenApply(result -> result.map(BsonUtil::fromBson));
+    return Collection.findOne(jsonCollection(collection), filter, JsonObject.class, null);
   }
 
   /**
@@ -692,8 +790,7 @@ public class JsonClient {
    */
   public static CompletionStage<Optional<JsonObject>> findOne(
       final MongoCollection<Document> collection, final ClientSession session, final Bson filter) {
-    return Collection.findOne(collection, session, filter, BsonDocument.class, null)
-        .thenApply(result -> result.map(BsonUtil::fromBson));
+    return Collection.findOne(jsonCollection(collection), session, filter, JsonObject.class, null);
   }
 
   /**
@@ -749,14 +846,42 @@ public class JsonClient {
       final MongoCollection<Document> collection,
       final JsonObject json,
       final ClientSession session) {
-    final Document document = toDocument(fromJson(json));
+    final MongoCollection<JsonObject> c = jsonCollection(collection);
 
-    return (session != null
-            ? insertOne(collection, session, document)
-            : insertOne(collection, document))
+    return (session != null ? insertOne(c, session, json) : insertOne(c, json))
         .thenApply(InsertOneResult::wasAcknowledged);
   }
 
+  /**
+   * Returns a view on <code>collection</code> that reads and writes JSON objects directly with a
+   * {@link JsonCodec}. No intermediate BSON documents are created.
+   *
+   * @param collection the MongoDB collection.
+   * @return The JSON collection.
+   * @since 4.4
+   */
+  public static MongoCollection<JsonObject> jsonCollection(final MongoCollection<?> collection) {
+    return jsonCollection(collection, new JsonCodec());
+  }
+
+  /**
+   * Returns a view on <code>collection</code> that reads and writes JSON objects directly with
+   * <code>codec</code>.
+   *
+   * @param collection the MongoDB collection.
+   * @param codec the JSON codec.
+   * @return The JSON collection.
+   * @since 4.4
+   */
+  public static MongoCollection<JsonObject> jsonCollection(
+      final MongoCollection<?> collection, final JsonCodec codec) {
+    return collection
+        .withDocumentClass(JsonObject.class)
+        .withCodecRegistry(
+            fromRegistries(
+                fromProviders(new JsonCodecProvider(codec)), collection.getCodecRegistry()));
+  }
+
   /**
    * Returns the stream of operation objects for a JSON patch.
    *
@@ -784,8 +909,26 @@ public class JsonClient {
     return list.stream().map(BsonUtil::fromBson).toList();
   }
 
-  private static Publisher<JsonObject> toJson(final Publisher<BsonDocument> pub) {
-    return with(pub).map(BsonUtil::fromBson).get();
+  private static Publisher<JsonObject> toJson(
+      final Publisher<BsonDocument> pub, final ReadOptions options) {
+    final Function<BsonDocument, JsonObject> reader = reader(options);
+
+    return options.executor != null
+        ? with(pub)
+            .map(new AsyncMapper<>(reader, options.executor, options.parallelism, true))
+            .get()
+        : with(pub).map(reader).get();
+  }
+
+  private static JsonObject toJson(final BsonDocument document, final KeyDictionary dictionary) {
+    return dictionary != null ? fromBson(document, dictionary) : fromBson(document);
+  }
+
+  private static JsonObject toLazyJson(
+      final BsonDocument document, final KeyDictionary dictionary) {
+    return document instanceof RawBsonDocument raw
+        ? new LazyJsonObject(raw, dictionary)
+        : toJson(document, dictionary);
   }
 
   /**
@@ -874,13 +1017,13 @@ public class JsonClient {
       final JsonObject json,
       final JsonValue id,
       final ClientSession session) {
-    final Document document = toDocument(fromJson(json));
+    final MongoCollection<JsonObject> c = jsonCollection(collection);
     final Bson filter = eq(ID, toNative(id));
     final ReplaceOptions options = new ReplaceOptions().upsert(true);
 
     return (session != null
-            ? replaceOne(collection, session, filter, document, options)
-            : replaceOne(collection, filter, document, options))
+            ? replaceOne(c, session, filter, json, options)
+            : replaceOne(c, filter, json, options))
         .thenApply(UpdateResult::wasAcknowledged);
   }
 
@@ -907,6 +1050,20 @@ public class JsonClient {
         .orElseGet(() -> completedFuture(true));
   }
 
+  private static MongoCollection<Document> readCollection(
+      final MongoCollection<Document> collection, final ReadOptions options) {
+    return options.lazy
+        ? collection.withCodecRegistry(
+            fromRegistries(fromCodecs(new RawDocumentCodec()), collection.getCodecRegistry()))
+        : collection;
+  }
+
+  private static Function<BsonDocument, JsonObject> reader(final ReadOptions options) {
+    return options.lazy
+        ? doc -> toLazyJson(doc, options.dictionary)
+        : doc -> toJson(doc, options.dictionary);
+  }
+
   private static List<UpdateOneModel<Document>> updateOperators(
       final JsonObject source, final JsonObject target) {
     return Patch.updateOperators(source, patch(source, target))
@@ -926,4 +1083,21 @@ public class JsonClient {
         .map(JsonClient::changedDocument)
         .get();
   }
+
+  /**
+   * Returns the changes that occur in a collection.
+   *
+   * @param collection the given collection.
+   * @param options the options for reading the changed documents.
+   * @return The publisher with the changed documents.
+   * @since 4.4
+   */
+  public static Publisher<JsonObject> watch(
+      final MongoCollection<Document> collection, final ReadOptions options) {
+    return toJson(
+        with(toFlowPublisher(collection.watch(COLLECTION_CHANGES, RawBsonDocument.class)))
+            .map(change -> (BsonDocument) change.getFullDocument())
+            .get(),
+        options);
+  }
 }
@@ -0,0 +1,267 @@
+package net.pincette.mongo;
+
+import static java.time.Instant.ofEpochMilli;
+import static java.time.Instant.ofEpochSecond;
+import static javax.json.JsonValue.FALSE;
+import static javax.json.JsonValue.NULL;
+import static javax.json.JsonValue.TRUE;
+import static net.pincette.json.JsonUtil.asNumber;
+import static net.pincette.json.JsonUtil.asString;
+import static net.pincette.json.JsonUtil.createObjectBuilder;
+import static net.pincette.json.JsonUtil.createValue;
+import static net.pincette.mongo.BsonUtil.instant;
+import static net.pincette.mongo.BsonUtil.isObjectId;
+import static org.bson.BsonType.END_OF_DOCUMENT;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import org.bson.BsonObjectId;
+import org.bson.BsonReader;
+import org.bson.BsonRegularExpression;
+import org.bson.BsonValue;
+import org.bson.BsonWriter;
+import org.bson.codecs.CollectibleCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+
+/**
+ * A codec that reads and writes JSON objects directly, without an intermediate BSON tree. It uses
+ * the same type mapping as {@link BsonUtil}. A string field called <code>_id</code> with 24
+ * hexadecimal characters becomes an object ID. Strings of the form <code>ISODate("...")</code>
+ * become dates. Integral numbers become 64-bit integers and the other numbers doubles. When
+ * reading, dates and timestamps become ISO-8601 strings, object IDs hexadecimal strings and regular
+ * expressions objects with the fields <code>$regex</code> and <code>$options</code>. Values of
+ * other BSON types are left out.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ * @see JsonCodecProvider
+ */
+public class JsonCodec implements CollectibleCodec<JsonObject> {
+  private static final String ID = "_id";
+
+  private final boolean asTimestamp;
+  private final KeyDictionary dictionary;
+  private final boolean escapeFieldNames;
+
+  public JsonCodec() {
+    this(false, null, false);
+  }
+
+  private JsonCodec(
+      final boolean asTimestamp, final KeyDictionary dictionary, final boolean escapeFieldNames) {
+    this.asTimestamp = asTimestamp;
+    this.dictionary = dictionary;
+    this.escapeFieldNames = escapeFieldNames;
+  }
+
+  private static JsonObject readRegularExpression(final BsonReader reader) {
+    final BsonRegularExpression expression = reader.readRegularExpression();
+
+    return createObjectBuilder()
+        .add("$regex", expression.getPattern())
+        .add("$options", expression.getOptions())
+        .build();
+  }
+
+  private static JsonValue readNull(final BsonReader reader) {
+    reader.readNull();
+
+    return NULL;
+  }
+
+  private static JsonValue skip(final BsonReader reader) {
+    reader.skipValue();
+
+    return null;
+  }
+
+  private static void writeNumber(final BsonWriter writer, final JsonNumber number) {
+    if (number.isIntegral()) {
+      writer.writeInt64(number.longValue());
+    } else {
+      writer.writeDouble(number.doubleValue());
+    }
+  }
+
+  public JsonObject decode(final BsonReader reader, final DecoderContext decoderContext) {
+    return readObject(reader);
+  }
+
+  public boolean documentHasId(final JsonObject document) {
+    return document.containsKey(ID);
+  }
+
+  public void encode(
+      final BsonWriter writer, final JsonObject value, final EncoderContext encoderContext) {
+    writeObject(writer, value);
+  }
+
+  public JsonObject generateIdIfAbsentFromDocument(final JsonObject document) {
+    return documentHasId(document)
+        ? document
+        : createObjectBuilder()
+            .add(ID, new ObjectId().toHexString())
+            .addAll(createObjectBuilder(document))
+            .build();
+  }
+
+  public BsonValue getDocumentId(final JsonObject document) {
+    final JsonValue id = document.get(ID);
+
+    return isObjectId(ID, id)
+        ? new BsonObjectId(new ObjectId(asString(id).getString()))
+        : BsonUtil.fromJson(id);
+  }
+
+  public Class<JsonObject> getEncoderClass() {
+    return JsonObject.class;
+  }
+
+  private String key(final String name) {
+    final String unescaped = escapeFieldNames ? Util.unescapeFieldName(name) : name;
+
+    return dictionary != null ? dictionary.key(unescaped) : unescaped;
+  }
+
+  private JsonValue readArray(final BsonReader reader) {
+    final List<JsonValue> values = new ArrayList<>();
+
+    reader.readStartArray();
+
+    while (reader.readBsonType() != END_OF_DOCUMENT) {
+      final JsonValue value = readValue(reader);
+
+      if (value != null) {
+        values.add(value);
+      }
+    }
+
+    reader.readEndArray();
+
+    return NumberArrays.of(values);
+  }
+
+  private JsonObject readObject(final BsonReader reader) {
+    final CompactJsonObject.Builder builder = new CompactJsonObject.Builder();
+
+    reader.readStartDocument();
+
+    while (reader.readBsonType() != END_OF_DOCUMENT) {
+      final String name = key(reader.readName());
+      final JsonValue value = readValue(reader);
+
+      if (value != null) {
+        builder.add(name, value);
+      }
+    }
+
+    reader.readEndDocument();
+
+    return builder.build();
+  }
+
+  private JsonValue readValue(final BsonReader reader) {
+    return switch (reader.getCurrentBsonType()) {
+      case ARRAY -> readArray(reader);
+      case BOOLEAN -> reader.readBoolean() ? TRUE : FALSE;
+      case DATE_TIME -> createValue(ofEpochMilli(reader.readDateTime()).toString());
+      case DOCUMENT -> readObject(reader);
+      case DOUBLE -> createValue(reader.readDouble());
+      case INT32 -> createValue(reader.readInt32());
+      case INT64 -> createValue(reader.readInt64());
+      case NULL -> readNull(reader);
+      case OBJECT_ID -> createValue(reader.readObjectId().toHexString());
+      case REGULAR_EXPRESSION -> readRegularExpression(reader);
+      case STRING -> createValue(value(reader.readString()));
+      case TIMESTAMP -> createValue(ofEpochSecond(reader.readTimestamp().getTime()).toString());
+      default -> skip(reader);
+    };
+  }
+
+  private String value(final String s) {
+    return dictionary != null ? dictionary.value(s) : s;
+  }
+
+  /**
+   * With this option the field names and short string values of decoded objects are shared through
+   * <code>dictionary</code>.
+   *
+   * @param dictionary the dictionary with the shared strings.
+   * @return A new codec.
+   */
+  public JsonCodec withDictionary(final KeyDictionary dictionary) {
+    return new JsonCodec(asTimestamp, dictionary, escapeFieldNames);
+  }
+
+  /**
+   * With this option field names are escaped while encoding and unescaped while decoding, as with
+   * {@link Util#toMongoDB(JsonObject)} and {@link Util#fromMongoDB(JsonObject)}. This avoids a
+   * separate pass over the documents.
+   *
+   * @param escapeFieldNames whether to escape field names.
+   * @return A new codec.
+   */
+  public JsonCodec withEscapedFieldNames(final boolean escapeFieldNames) {
+    return new JsonCodec(asTimestamp, dictionary, escapeFieldNames);
+  }
+
+  /**
+   * With this option strings that are ISO-8601 instants become dates, as in {@link
+   * BsonUtil#fromJsonNew(JsonValue)}. Strings of the form <code>ISODate("...")</code> then stay
+   * strings.
+   *
+   * @param asTimestamp whether to convert ISO-8601 strings to dates.
+   * @return A new codec.
+   */
+  public JsonCodec withInstants(final boolean asTimestamp) {
+    return new JsonCodec(asTimestamp, dictionary, escapeFieldNames);
+  }
+
+  private void writeArray(final BsonWriter writer, final JsonArray array) {
+    writer.writeStartArray();
+    array.forEach(v -> writeValue(writer, v));
+    writer.writeEndArray();
+  }
+
+  private void writeObject(final BsonWriter writer, final JsonObject json) {
+    writer.writeStartDocument();
+
+    json.forEach(
+        (k, v) -> {
+          writer.writeName(escapeFieldNames ? Util.escapeFieldName(k) : k);
+
+          if (isObjectId(k, v)) {
+            writer.writeObjectId(new ObjectId(asString(v).getString()));
+          } else {
+            writeValue(writer, v);
+          }
+        });
+
+    writer.writeEndDocument();
+  }
+
+  private void writeString(final BsonWriter writer, final String s) {
+    instant(s, asTimestamp)
+        .map(Instant::toEpochMilli)
+        .ifPresentOrElse(writer::writeDateTime, () -> writer.writeString(s));
+  }
+
+  private void writeValue(final BsonWriter writer, final JsonValue value) {
+    switch (value.getValueType()) {
+      case ARRAY -> writeArray(writer, value.asJsonArray());
+      case FALSE -> writer.writeBoolean(false);
+      case NULL -> writer.writeNull();
+      case NUMBER -> writeNumber(writer, asNumber(value));
+      case OBJECT -> writeObject(writer, value.asJsonObject());
+      case STRING -> writeString(writer, asString(value).getString());
+      case TRUE -> writer.writeBoolean(true);
+    }
+  }
+}
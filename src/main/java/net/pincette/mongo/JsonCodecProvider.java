@@ -0,0 +1,34 @@
+package net.pincette.mongo;
+
+import javax.json.JsonObject;
+import org.bson.codecs.Codec;
+import org.bson.codecs.configuration.CodecProvider;
+import org.bson.codecs.configuration.CodecRegistry;
+
+/**
+ * Provides the {@link JsonCodec} for all implementations of <code>JsonObject</code>.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ */
+public class JsonCodecProvider implements CodecProvider {
+  private final JsonCodec codec;
+
+  public JsonCodecProvider() {
+    this(new JsonCodec());
+  }
+
+  /**
+   * Creates a provider with a configured codec.
+   *
+   * @param codec the codec.
+   */
+  public JsonCodecProvider(final JsonCodec codec) {
+    this.codec = codec;
+  }
+
+  @SuppressWarnings("unchecked")
+  public <T> Codec<T> get(final Class<T> clazz, final CodecRegistry registry) {
+    return JsonObject.class.isAssignableFrom(clazz) ? (Codec<T>) codec : null;
+  }
+}
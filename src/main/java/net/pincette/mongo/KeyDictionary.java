@@ -0,0 +1,126 @@
+package net.pincette.mongo;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded dictionary of shared string instances. When many documents with the same structure are
+ * decoded, each of them would otherwise have its own copies of the field names. With the
+ * dictionary they share them. Short string values, such as enumeration-like values, can be shared
+ * as well. When the dictionary is full, new strings are no longer added, but the existing ones are
+ * still shared. The dictionary can be used by several threads at the same time.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ * @see BsonUtil#fromBson(org.bson.BsonDocument, KeyDictionary)
+ * @see JsonCodec#withDictionary(KeyDictionary)
+ * @see ReadOptions#withDictionary(KeyDictionary)
+ */
+public class KeyDictionary {
+  private final Map<String, String> entries = new ConcurrentHashMap<>();
+  private final LongAdder hits = new LongAdder();
+  private final int maxSize;
+  private final int maxValueLength;
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * Creates a dictionary for field names only.
+   *
+   * @param maxSize the maximum number of strings in the dictionary.
+   */
+  public KeyDictionary(final int maxSize) {
+    this(maxSize, 0);
+  }
+
+  /**
+   * Creates a dictionary for field names and string values.
+   *
+   * @param maxSize the maximum number of strings in the dictionary.
+   * @param maxValueLength string values up to this length are shared as well. With zero no values
+   *     are shared.
+   */
+  public KeyDictionary(final int maxSize, final int maxValueLength) {
+    this.maxSize = maxSize;
+    this.maxValueLength = maxValueLength;
+  }
+
+  private String canonical(final String s) {
+    final String found = entries.get(s);
+
+    if (found != null) {
+      hits.increment();
+
+      return found;
+    }
+
+    misses.increment();
+
+    if (entries.size() >= maxSize) {
+      return s;
+    }
+
+    final String previous = entries.putIfAbsent(s, s);
+
+    return previous != null ? previous : s;
+  }
+
+  /**
+   * Returns the number of lookups that found a shared instance.
+   *
+   * @return The number of hits.
+   */
+  public long hits() {
+    return hits.sum();
+  }
+
+  /**
+   * Returns the fraction of lookups that found a shared instance.
+   *
+   * @return The hit rate, which is between 0 and 1.
+   */
+  public double hitRate() {
+    final long h = hits();
+    final long total = h + misses();
+
+    return total == 0 ? 0.0 : ((double) h) / total;
+  }
+
+  /**
+   * Returns the shared instance of a field name.
+   *
+   * @param key the field name.
+   * @return The shared instance or <code>key</code> itself when the dictionary is full.
+   */
+  public String key(final String key) {
+    return canonical(key);
+  }
+
+  /**
+   * Returns the number of lookups that didn't find a shared instance.
+   *
+   * @return The number of misses.
+   */
+  public long misses() {
+    return misses.sum();
+  }
+
+  /**
+   * Returns the number of strings in the dictionary.
+   *
+   * @return The size.
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Returns the shared instance of a string value if it is short enough.
+   *
+   * @param value the string value.
+   * @return The shared instance or <code>value</code> itself.
+   */
+  public String value(final String value) {
+    return value.length() <= maxValueLength ? canonical(value) : value;
+  }
+}
@@ -0,0 +1,53 @@
+package net.pincette.mongo;
+
+import java.util.List;
+import java.util.Objects;
+import javax.json.JsonValue;
+import org.bson.BsonValue;
+import org.bson.RawBsonArray;
+
+/**
+ * A JSON array that is backed by the bytes of a <code>RawBsonArray</code>. An element is only
+ * converted when it is accessed for the first time, after which it is kept. Elements with BSON
+ * types that have no JSON counterpart are left out.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ * @see LazyJsonObject
+ */
+class LazyJsonArray extends AbstractJsonArray {
+  private final KeyDictionary dictionary;
+  private final RawBsonArray raw;
+  private JsonValue[] converted;
+  private List<BsonValue> values;
+
+  LazyJsonArray(final RawBsonArray raw, final KeyDictionary dictionary) {
+    this.raw = raw;
+    this.dictionary = dictionary;
+  }
+
+  private synchronized List<BsonValue> values() {
+    if (values == null) {
+      values = raw.stream().filter(LazyJsonObject::hasJson).toList();
+      converted = new JsonValue[values.size()];
+    }
+
+    return values;
+  }
+
+  public synchronized JsonValue get(final int index) {
+    final List<BsonValue> v = values();
+
+    Objects.checkIndex(index, v.size());
+
+    if (converted[index] == null) {
+      converted[index] = LazyJsonObject.toJson(v.get(index), dictionary);
+    }
+
+    return converted[index];
+  }
+
+  public int size() {
+    return values().size();
+  }
+}
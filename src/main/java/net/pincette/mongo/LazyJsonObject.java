@@ -0,0 +1,178 @@
+package net.pincette.mongo;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.util.Optional.ofNullable;
+import static net.pincette.json.JsonUtil.createValue;
+import static org.bson.BsonType.ARRAY;
+import static org.bson.BsonType.DOCUMENT;
+import static org.bson.BsonType.END_OF_DOCUMENT;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractSet;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.json.JsonValue;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonString;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.RawBsonArray;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonValueCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.io.ByteBufferBsonInput;
+
+/**
+ * A JSON object that is backed by the bytes of a <code>RawBsonDocument</code>. The first access
+ * reads the BSON values of all fields in one pass, leaving nested documents and arrays as slices
+ * of the same bytes. A field is only converted to JSON when it is accessed for the first time,
+ * after which it is kept. Nested objects and arrays are lazy as well. The type mapping is the one
+ * of {@link BsonUtil#fromBson(BsonValue)}. Fields with BSON types that have no JSON counterpart are
+ * left out.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ */
+class LazyJsonObject extends AbstractJsonObject {
+  private static final Set<BsonType> JSON_TYPES =
+      EnumSet.of(
+          BsonType.ARRAY,
+          BsonType.BOOLEAN,
+          BsonType.DATE_TIME,
+          BsonType.DOCUMENT,
+          BsonType.DOUBLE,
+          BsonType.INT32,
+          BsonType.INT64,
+          BsonType.NULL,
+          BsonType.OBJECT_ID,
+          BsonType.REGULAR_EXPRESSION,
+          BsonType.STRING,
+          BsonType.TIMESTAMP);
+  private static final DecoderContext DECODER_CONTEXT = DecoderContext.builder().build();
+  private static final BsonValueCodec VALUE_CODEC = new BsonValueCodec();
+
+  private final KeyDictionary dictionary;
+  private final Map<String, Optional<JsonValue>> fields = new ConcurrentHashMap<>();
+  private final RawBsonDocument raw;
+  private Map<String, BsonValue> bsonValues;
+
+  LazyJsonObject(final RawBsonDocument raw) {
+    this(raw, null);
+  }
+
+  /**
+   * Creates the object.
+   *
+   * @param raw the raw BSON document.
+   * @param dictionary shares the field names and short string values. It may be <code>null</code>.
+   */
+  LazyJsonObject(final RawBsonDocument raw, final KeyDictionary dictionary) {
+    this.raw = raw;
+    this.dictionary = dictionary;
+  }
+
+  static boolean hasJson(final BsonValue value) {
+    return JSON_TYPES.contains(value.getBsonType());
+  }
+
+  /**
+   * Converts a BSON value without converting nested raw documents and arrays yet.
+   *
+   * @param value the BSON value.
+   * @param dictionary shares the field names and short string values. It may be <code>null</code>.
+   * @return The JSON value or <code>null</code> if there is no JSON counterpart for the type.
+   */
+  static JsonValue toJson(final BsonValue value, final KeyDictionary dictionary) {
+    return switch (value) {
+      case RawBsonDocument document -> new LazyJsonObject(document, dictionary);
+      case RawBsonArray array -> new LazyJsonArray(array, dictionary);
+      case BsonString s when dictionary != null -> createValue(dictionary.value(s.getValue()));
+      default -> BsonUtil.fromBson(value);
+    };
+  }
+
+  public Set<Entry<String, JsonValue>> entrySet() {
+    return new AbstractSet<>() {
+      public Iterator<Entry<String, JsonValue>> iterator() {
+        return bsonValues().keySet().stream()
+            .map(k -> (Entry<String, JsonValue>) new SimpleEntry<>(k, field(k).orElse(null)))
+            .iterator();
+      }
+
+      public int size() {
+        return bsonValues().size();
+      }
+    };
+  }
+
+  private Optional<JsonValue> field(final String key) {
+    return fields.computeIfAbsent(
+        key, k -> ofNullable(bsonValues().get(k)).map(v -> toJson(v, dictionary)));
+  }
+
+  public boolean containsKey(final Object key) {
+    return key instanceof String k && field(k).isPresent();
+  }
+
+  public JsonValue get(final Object key) {
+    return key instanceof String k ? field(k).orElse(null) : null;
+  }
+
+  private synchronized Map<String, BsonValue> bsonValues() {
+    if (bsonValues == null) {
+      bsonValues = readValues(raw, dictionary);
+    }
+
+    return bsonValues;
+  }
+
+  /**
+   * Nested documents and arrays are not decoded. They refer to the bytes of the outer document.
+   */
+  private static BsonValue readValue(
+      final BsonBinaryReader reader, final BsonType type, final byte[] bytes) {
+    if (type == DOCUMENT || type == ARRAY) {
+      final int position = reader.getBsonInput().getPosition();
+      final int size = ByteBuffer.wrap(bytes).order(LITTLE_ENDIAN).getInt(position);
+
+      reader.skipValue();
+
+      return type == DOCUMENT
+          ? new RawBsonDocument(bytes, position, size)
+          : new RawBsonArray(bytes, position, size);
+    }
+
+    return VALUE_CODEC.decode(reader, DECODER_CONTEXT);
+  }
+
+  private static Map<String, BsonValue> readValues(
+      final RawBsonDocument raw, final KeyDictionary dictionary) {
+    final byte[] bytes = raw.getByteBuffer().array();
+    final Map<String, BsonValue> result = new LinkedHashMap<>();
+
+    try (final BsonBinaryReader reader =
+        new BsonBinaryReader(new ByteBufferBsonInput(raw.getByteBuffer()))) {
+      reader.readStartDocument();
+
+      BsonType type;
+
+      while ((type = reader.readBsonType()) != END_OF_DOCUMENT) {
+        final String name = reader.readName();
+
+        if (JSON_TYPES.contains(type)) {
+          result.putIfAbsent(
+              dictionary != null ? dictionary.key(name) : name, readValue(reader, type, bytes));
+        } else {
+          reader.skipValue();
+        }
+      }
+    }
+
+    return result;
+  }
+}
@@ -0,0 +1,241 @@
+package net.pincette.mongo;
+
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static net.pincette.util.Util.tryToGet;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * A cache in which concurrent misses for the same key share one load. The least recently used
+ * entries are evicted when there are too many of them or when their total weight is too large.
+ * Entries can also expire. A load that is in progress when its key is invalidated is returned to
+ * its callers, but it isn't cached. A suspended cache is empty and passes every lookup on to its
+ * load function.
+ *
+ * @param <K> the key type.
+ * @param <V> the value type.
+ * @author Werner Donné
+ * @since 4.4
+ */
+class LoadingCache<K, V> {
+  private final Map<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder invalidations = new LongAdder();
+  private final Map<K, CompletableFuture<V>> loading = new HashMap<>();
+  private final LongAdder misses = new LongAdder();
+  private final CacheOptions options;
+  private final ToLongFunction<V> weigher;
+  private boolean closed;
+  private boolean suspended;
+  private long weight;
+
+  LoadingCache(final CacheOptions options, final ToLongFunction<V> weigher) {
+    this.options = options;
+    this.weigher = weigher;
+  }
+
+  synchronized void close() {
+    closed = true;
+    invalidateAll();
+  }
+
+  private void evict() {
+    final Iterator<Entry<V>> iterator = entries.values().iterator();
+
+    while (iterator.hasNext()
+        && (entries.size() > options.maxSize
+            || (options.maxWeight > 0 && weight > options.maxWeight))) {
+      weight -= iterator.next().weight;
+      iterator.remove();
+      evictions.increment();
+    }
+  }
+
+  long evictions() {
+    return evictions.sum();
+  }
+
+  /**
+   * Returns the cached value or loads it. A load function that throws produces a failed stage.
+   *
+   * @param key the key.
+   * @param load the function that loads the value.
+   * @return The stage with the value.
+   */
+  CompletionStage<V> get(final K key, final Supplier<CompletionStage<V>> load) {
+    final CompletableFuture<V> created = new CompletableFuture<>();
+    final boolean bypass;
+
+    synchronized (this) {
+      bypass = suspended;
+
+      if (!bypass) {
+        final Entry<V> entry = entries.get(key);
+
+        if (entry != null && (entry.expires == 0 || entry.expires - nanoTime() > 0)) {
+          hits.increment();
+
+          return completedFuture(entry.value);
+        }
+
+        if (entry != null) {
+          remove(key);
+        }
+      }
+
+      misses.increment();
+
+      final CompletableFuture<V> existing = bypass ? null : loading.putIfAbsent(key, created);
+
+      if (existing != null) {
+        return existing;
+      }
+    }
+
+    final CompletionStage<V> stage =
+        tryToGet(load::get, CompletableFuture::<V>failedStage)
+            .orElseGet(() -> completedFuture(null));
+
+    if (bypass) {
+      return stage;
+    }
+
+    stage.whenComplete(
+        (value, e) -> {
+          synchronized (this) {
+            if (loading.remove(key, created) && e == null && !closed) {
+              put(key, value);
+            }
+          }
+
+          if (e != null) {
+            created.completeExceptionally(e);
+          } else {
+            created.complete(value);
+          }
+        });
+
+    return created;
+  }
+
+  long hits() {
+    return hits.sum();
+  }
+
+  synchronized void invalidate(final K key) {
+    loading.remove(key);
+
+    if (remove(key)) {
+      invalidations.increment();
+    }
+  }
+
+  synchronized void invalidateAll() {
+    invalidations.add(entries.size());
+    entries.clear();
+    loading.clear();
+    weight = 0;
+  }
+
+  /**
+   * Removes the entries that match <code>predicate</code>. None of the loads that are in progress
+   * will be cached, because it isn't known whether they are affected.
+   *
+   * @param predicate the test for the entries.
+   */
+  synchronized void invalidateIf(final BiPredicate<K, V> predicate) {
+    final Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+
+    loading.clear();
+
+    while (iterator.hasNext()) {
+      final Map.Entry<K, Entry<V>> entry = iterator.next();
+
+      if (predicate.test(entry.getKey(), entry.getValue().value)) {
+        weight -= entry.getValue().weight;
+        iterator.remove();
+        invalidations.increment();
+      }
+    }
+  }
+
+  long invalidations() {
+    return invalidations.sum();
+  }
+
+  long misses() {
+    return misses.sum();
+  }
+
+  private void put(final K key, final V value) {
+    final Entry<V> entry =
+        new Entry<>(
+            value,
+            options.maxWeight > 0 ? weigher.applyAsLong(value) : 0,
+            options.timeToLive != null ? nanoTime() + options.timeToLive.toNanos() : 0);
+
+    remove(key);
+    entries.put(key, entry);
+    weight += entry.weight;
+    evict();
+  }
+
+  private boolean remove(final K key) {
+    final Entry<V> entry = entries.remove(key);
+
+    if (entry != null) {
+      weight -= entry.weight;
+    }
+
+    return entry != null;
+  }
+
+  /** Lets the cache store values again after a call to {@link #suspend()}. */
+  synchronized void resume() {
+    suspended = false;
+  }
+
+  synchronized void replace(final K key, final V value) {
+    loading.remove(key);
+
+    if (entries.containsKey(key)) {
+      put(key, value);
+    }
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Removes all entries and stops storing values until {@link #resume()} is called. The loads that
+   * are in progress won't be cached.
+   */
+  synchronized void suspend() {
+    suspended = true;
+    invalidateAll();
+  }
+
+  private static class Entry<V> {
+    private final long expires;
+    private final V value;
+    private final long weight;
+
+    private Entry(final V value, final long weight, final long expires) {
+      this.value = value;
+      this.weight = weight;
+      this.expires = expires;
+    }
+  }
+}
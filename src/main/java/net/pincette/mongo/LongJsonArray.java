@@ -0,0 +1,91 @@
+package net.pincette.mongo;
+
+import static java.util.Arrays.copyOfRange;
+import static net.pincette.json.JsonUtil.asNumber;
+import static net.pincette.json.JsonUtil.createValue;
+
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
+import javax.json.JsonValue;
+
+/**
+ * An immutable JSON array of integral numbers that is backed by a <code>long</code> array. The
+ * <code>JsonNumber</code> objects are only created when elements are accessed.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ * @see NumberArrays
+ */
+class LongJsonArray extends AbstractJsonArray {
+  private final long[] values;
+  private int hash;
+
+  /**
+   * Creates an array without copying <code>values</code>, which shouldn't be changed afterwards.
+   *
+   * @param values the values.
+   */
+  LongJsonArray(final long[] values) {
+    this.values = values;
+  }
+
+  static boolean fits(final JsonValue value) {
+    return value instanceof JsonNumber number
+        && number.isIntegral()
+        && number.bigIntegerValue().bitLength() < 64;
+  }
+
+  public boolean contains(final Object o) {
+    if (!(o instanceof JsonValue value) || !fits(value)) {
+      return false;
+    }
+
+    final long v = asNumber(value).longValue();
+
+    for (long l : values) {
+      if (l == v) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  public boolean equals(final Object o) {
+    if (o instanceof LongJsonArray other) {
+      if (values.length != other.values.length) {
+        return false;
+      }
+
+      for (int i = 0; i < values.length; ++i) {
+        if (values[i] != other.values[i]) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+
+    return super.equals(o);
+  }
+
+  public JsonValue get(final int index) {
+    return createValue(values[index]);
+  }
+
+  public int hashCode() {
+    if (hash == 0) {
+      hash = super.hashCode();
+    }
+
+    return hash;
+  }
+
+  public int size() {
+    return values.length;
+  }
+
+  JsonArray slice(final int from, final int to) {
+    return new LongJsonArray(copyOfRange(values, from, to));
+  }
+}
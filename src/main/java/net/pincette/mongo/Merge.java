@@ -0,0 +1,253 @@
+package net.pincette.mongo;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Flow.Publisher;
+import java.util.concurrent.Flow.Subscriber;
+import java.util.concurrent.Flow.Subscription;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A publisher that merges the values of several publishers. Each of them has a buffer of at most
+ * <code>bufferSize</code> values, which is replenished when half of it has been emitted. In ordered
+ * mode all values of a publisher are emitted before those of the next one, which is subscribed to
+ * only when the previous one has completed. So no more than one publisher is read ahead and no
+ * cursor sits idle while the others are consumed. Otherwise, all publishers are subscribed to at
+ * the same time and the buffers are emitted in turn. The first error cancels the other publishers.
+ *
+ * @param <T> the value type.
+ * @author Werner Donné
+ * @since 4.4
+ */
+class Merge<T> implements Publisher<T> {
+  private final int bufferSize;
+  private final boolean ordered;
+  private final List<Publisher<T>> publishers;
+
+  Merge(final List<Publisher<T>> publishers, final int bufferSize, final boolean ordered) {
+    this.publishers = publishers;
+    this.bufferSize = bufferSize;
+    this.ordered = ordered;
+  }
+
+  public void subscribe(final Subscriber<? super T> subscriber) {
+    new Merger(subscriber).start();
+  }
+
+  private class Merger implements Subscription {
+    private final AtomicInteger draining = new AtomicInteger();
+    private final List<Source> sources;
+    private final Subscriber<? super T> subscriber;
+    private boolean cancelled;
+    private int current;
+    private Throwable error;
+    private long requested;
+    private boolean terminated;
+
+    private Merger(final Subscriber<? super T> subscriber) {
+      this.subscriber = subscriber;
+      this.sources = publishers.stream().map(p -> new Source()).toList();
+    }
+
+    public void cancel() {
+      synchronized (this) {
+        cancelled = true;
+      }
+
+      sources.forEach(Source::cancel);
+    }
+
+    private void drain() {
+      if (draining.getAndIncrement() == 0) {
+        do {
+          emit();
+          terminate();
+        } while (draining.decrementAndGet() != 0);
+      }
+    }
+
+    private void emit() {
+      while (true) {
+        final Source source;
+        final T value;
+
+        synchronized (this) {
+          source = cancelled || error != null || requested == 0 ? null : next();
+
+          if (source == null) {
+            return;
+          }
+
+          value = source.buffer.removeFirst();
+          --requested;
+        }
+
+        subscriber.onNext(value);
+        source.consumed();
+      }
+    }
+
+    private void fail(final Throwable throwable) {
+      synchronized (this) {
+        if (error == null) {
+          error = throwable;
+        }
+      }
+
+      drain();
+    }
+
+    private Source next() {
+      for (int i = 0; i < sources.size(); ++i) {
+        final Source source = sources.get(current);
+
+        if (!source.buffer.isEmpty()) {
+          if (!ordered) {
+            current = (current + 1) % sources.size();
+          }
+
+          return source;
+        }
+
+        if (ordered && !source.completed) {
+          return null;
+        }
+
+        current = (current + 1) % sources.size();
+      }
+
+      return null;
+    }
+
+    public void request(final long n) {
+      if (n <= 0) {
+        fail(new IllegalArgumentException("The request should be positive: " + n));
+      } else {
+        synchronized (this) {
+          requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+        }
+
+        drain();
+      }
+    }
+
+    private void start() {
+      subscriber.onSubscribe(this);
+
+      for (int i = 0; i < (ordered ? 1 : sources.size()); ++i) {
+        subscribe(i);
+      }
+
+      drain();
+    }
+
+    private void subscribe(final int index) {
+      final boolean stop;
+
+      synchronized (this) {
+        stop = cancelled || error != null;
+      }
+
+      if (!stop && index < sources.size()) {
+        publishers.get(index).subscribe(sources.get(index));
+      }
+    }
+
+    private void terminate() {
+      final Throwable e;
+      final boolean complete;
+
+      synchronized (this) {
+        if (terminated || cancelled) {
+          return;
+        }
+
+        e = error;
+        complete = sources.stream().allMatch(s -> s.completed && s.buffer.isEmpty());
+        terminated = e != null || complete;
+      }
+
+      if (e != null) {
+        sources.forEach(Source::cancel);
+        subscriber.onError(e);
+      } else if (complete) {
+        subscriber.onComplete();
+      }
+    }
+
+    private class Source implements Subscriber<T> {
+      private final Deque<T> buffer = new ArrayDeque<>();
+      private boolean completed;
+      private int consumed;
+      private Subscription subscription;
+
+      private void cancel() {
+        final Subscription s;
+
+        synchronized (Merger.this) {
+          s = subscription;
+        }
+
+        if (s != null) {
+          s.cancel();
+        }
+      }
+
+      private void consumed() {
+        final int n;
+
+        synchronized (Merger.this) {
+          n = ++consumed >= bufferSize / 2 && !completed ? consumed : 0;
+
+          if (n > 0) {
+            consumed = 0;
+          }
+        }
+
+        if (n > 0) {
+          subscription.request(n);
+        }
+      }
+
+      public void onComplete() {
+        synchronized (Merger.this) {
+          completed = true;
+        }
+
+        if (ordered) {
+          subscribe(sources.indexOf(this) + 1);
+        }
+
+        drain();
+      }
+
+      public void onError(final Throwable throwable) {
+        fail(throwable);
+      }
+
+      public void onNext(final T value) {
+        synchronized (Merger.this) {
+          buffer.addLast(value);
+        }
+
+        drain();
+      }
+
+      public void onSubscribe(final Subscription subscription) {
+        final boolean stop;
+
+        synchronized (Merger.this) {
+          this.subscription = subscription;
+          stop = cancelled || error != null;
+        }
+
+        if (stop) {
+          subscription.cancel();
+        } else {
+          subscription.request(bufferSize);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package net.pincette.mongo;
+
+import static net.pincette.json.JsonUtil.asNumber;
+import static org.bson.BsonType.DOUBLE;
+import static org.bson.BsonType.INT32;
+import static org.bson.BsonType.INT64;
+
+import java.util.List;
+import javax.json.JsonArray;
+import javax.json.JsonValue;
+import org.bson.BsonArray;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+
+/**
+ * Creates JSON arrays that are backed by primitive arrays when all the elements are numbers of the
+ * same kind. Short arrays are left alone, because the number objects are recreated each time an
+ * element is accessed.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ * @see LongJsonArray
+ * @see DoubleJsonArray
+ */
+class NumberArrays {
+  private static final int MIN_SIZE = 16;
+
+  private NumberArrays() {}
+
+  private static boolean allOf(final BsonArray array, final BsonType type1, final BsonType type2) {
+    for (BsonValue value : array) {
+      if (value.getBsonType() != type1 && value.getBsonType() != type2) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static boolean allFinite(final BsonArray array) {
+    for (BsonValue value : array) {
+      if (!Double.isFinite(value.asDouble().getValue())) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static boolean allLong(final JsonValue[] values) {
+    for (JsonValue value : values) {
+      if (!LongJsonArray.fits(value)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static JsonArray doubles(final BsonArray array) {
+    final double[] values = new double[array.size()];
+
+    for (int i = 0; i < values.length; ++i) {
+      values[i] = array.get(i).asDouble().getValue();
+    }
+
+    return new DoubleJsonArray(values);
+  }
+
+  /**
+   * Returns a primitive-backed array if all the elements are 32 or 64-bit integers or if they are
+   * all finite doubles.
+   *
+   * @param array the BSON array.
+   * @return The JSON array or <code>null</code> if the BSON array doesn't qualify.
+   */
+  static JsonArray fromBson(final BsonArray array) {
+    if (array.size() < MIN_SIZE) {
+      return null;
+    }
+
+    if (allOf(array, INT32, INT64)) {
+      return longs(array);
+    }
+
+    return allOf(array, DOUBLE, DOUBLE) && allFinite(array) ? doubles(array) : null;
+  }
+
+  private static JsonArray longs(final BsonArray array) {
+    final long[] values = new long[array.size()];
+
+    for (int i = 0; i < values.length; ++i) {
+      values[i] = array.get(i).asNumber().longValue();
+    }
+
+    return new LongJsonArray(values);
+  }
+
+  private static JsonArray longs(final JsonValue[] array) {
+    final long[] values = new long[array.length];
+
+    for (int i = 0; i < values.length; ++i) {
+      values[i] = asNumber(array[i]).longValue();
+    }
+
+    return new LongJsonArray(values);
+  }
+
+  /**
+   * Returns a <code>long</code>-backed array if all the values are integral numbers that fit in it.
+   * Otherwise it returns a compact array.
+   *
+   * @param values the values, which shouldn't be changed afterwards.
+   * @return The JSON array.
+   */
+  static JsonArray of(final JsonValue[] values) {
+    if (values.length == 0) {
+      return CompactJsonArray.EMPTY;
+    }
+
+    return values.length >= MIN_SIZE && allLong(values)
+        ? longs(values)
+        : new CompactJsonArray(values);
+  }
+
+  static JsonArray of(final List<? extends JsonValue> values) {
+    return of(values.toArray(new JsonValue[0]));
+  }
+}
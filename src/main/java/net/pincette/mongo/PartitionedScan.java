@@ -0,0 +1,164 @@
+package net.pincette.mongo;
+
+import static com.mongodb.client.model.Aggregates.bucketAuto;
+import static com.mongodb.client.model.Aggregates.sample;
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.not;
+import static com.mongodb.client.model.Sorts.ascending;
+import static java.util.Collections.singletonList;
+import static java.util.Optional.ofNullable;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static net.pincette.mongo.BsonUtil.fromJson;
+import static net.pincette.mongo.Collection.aggregate;
+import static net.pincette.mongo.JsonClient.findPublisher;
+import static net.pincette.util.StreamUtil.rangeExclusive;
+
+import com.mongodb.reactivestreams.client.MongoCollection;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow.Publisher;
+import javax.json.JsonObject;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+/**
+ * Scans a collection with several concurrent cursors, which are merged into one publisher. The
+ * range of a key is split into partitions with split points that come from a random sample of the
+ * collection. Each partition has its own cursor, so a full scan is no longer limited to one
+ * connection and one core. The memory use is bounded by the buffer size times the number of
+ * partitions.
+ *
+ * <p>The split points all have the type of the smallest one. The first partition has the documents
+ * of which the key is smaller than the first split point, including those for which it has another
+ * type or is missing. So every document with a scalar key is in exactly one partition. A document
+ * with an array in the key field matches a range when each bound is satisfied by some element,
+ * which may be the case for several ranges. It would then be emitted more than once, which is why
+ * the key should be a scalar field. Because the first partition is emitted first, an ordered scan
+ * follows the order of the key only when all keys have the same type.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ * @see ScanOptions
+ */
+public class PartitionedScan {
+  private static final String MIN = "min";
+  private static final int SAMPLES_PER_PARTITION = 32;
+
+  private PartitionedScan() {}
+
+  /**
+   * Returns the filters for the ranges that are delimited by <code>splits</code>.
+   *
+   * @param key the field of the ranges.
+   * @param splits the split points in ascending order.
+   * @return The filters, of which there is one more than there are split points. With no split
+   *     points the list contains <code>null</code>.
+   */
+  static List<Bson> ranges(final String key, final List<BsonValue> splits) {
+    return splits.isEmpty()
+        ? singletonList(null)
+        : rangeExclusive(0, splits.size() + 1)
+            .map(
+                i -> {
+                  if (i == 0) {
+                    return not(gte(key, splits.getFirst()));
+                  }
+
+                  return i == splits.size()
+                      ? gte(key, splits.getLast())
+                      : and(gte(key, splits.get(i - 1)), lt(key, splits.get(i)));
+                })
+            .toList();
+  }
+
+  /**
+   * Scans the documents that match <code>filter</code>.
+   *
+   * @param collection the MongoDB collection.
+   * @param filter the filter. It may be <code>null</code>.
+   * @param options the options. It may be <code>null</code>, in which case the defaults are used.
+   * @return The stage with the publisher, which completes when the split points are known.
+   */
+  public static CompletionStage<Publisher<JsonObject>> scan(
+      final MongoCollection<Document> collection,
+      final JsonObject filter,
+      final ScanOptions options) {
+    return scan(collection, filter != null ? fromJson(filter) : null, options);
+  }
+
+  /**
+   * Scans the documents that match <code>filter</code>.
+   *
+   * @param collection the MongoDB collection.
+   * @param filter the filter. It may be <code>null</code>.
+   * @param options the options. It may be <code>null</code>, in which case the defaults are used.
+   * @return The stage with the publisher, which completes when the split points are known.
+   */
+  public static CompletionStage<Publisher<JsonObject>> scan(
+      final MongoCollection<Document> collection, final Bson filter, final ScanOptions options) {
+    final ScanOptions o = ofNullable(options).orElseGet(ScanOptions::new);
+
+    return splits(collection, o.key, o.partitions)
+        .thenApply(
+            splits ->
+                new Merge<>(
+                    ranges(o.key, splits).stream()
+                        .map(
+                            range ->
+                                findPublisher(
+                                    collection,
+                                    with(filter, range),
+                                    o.ordered ? f -> f.sort(ascending(o.key)) : null,
+                                    o.readOptions))
+                        .toList(),
+                    o.bufferSize,
+                    o.ordered));
+  }
+
+  /**
+   * Returns the split points for <code>partitions</code> ranges of <code>key</code>. They are the
+   * lower bounds of the buckets that <code>$bucketAuto</code> makes of a random sample. Split
+   * points that don't have the type of the first one are left out.
+   *
+   * @param collection the MongoDB collection.
+   * @param key the field of the ranges.
+   * @param partitions the number of partitions.
+   * @return The split points in ascending order. There may be fewer than <code>partitions - 1
+   *     </code> of them.
+   */
+  static CompletionStage<List<BsonValue>> splits(
+      final MongoCollection<Document> collection, final String key, final int partitions) {
+    return partitions < 2
+        ? completedFuture(List.of())
+        : aggregate(
+                collection,
+                List.of(
+                    sample(partitions * SAMPLES_PER_PARTITION),
+                    bucketAuto("$" + key, partitions)),
+                BsonDocument.class,
+                null)
+            .thenApply(
+                buckets ->
+                    buckets.stream()
+                        .skip(1)
+                        .map(b -> b.getDocument("_id").get(MIN))
+                        .toList())
+            .thenApply(
+                splits ->
+                    splits.stream()
+                        .filter(s -> s.getBsonType() == splits.getFirst().getBsonType())
+                        .toList());
+  }
+
+  private static Bson with(final Bson filter, final Bson range) {
+    if (filter == null) {
+      return range;
+    }
+
+    return range != null ? and(filter, range) : filter;
+  }
+}
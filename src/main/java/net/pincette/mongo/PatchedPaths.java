@@ -0,0 +1,122 @@
+package net.pincette.mongo;
+
+import static java.lang.Integer.parseInt;
+import static net.pincette.json.JsonUtil.getValue;
+import static net.pincette.mongo.JsonClient.patch;
+import static net.pincette.util.Pair.pair;
+import static net.pincette.util.Util.getLastSegment;
+import static net.pincette.util.Util.getParent;
+import static net.pincette.util.Util.isInteger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
+import javax.json.JsonObject;
+import javax.json.JsonPatch;
+import javax.json.JsonValue;
+import net.pincette.json.JsonUtil;
+import net.pincette.util.Pair;
+import net.pincette.util.Util;
+
+/**
+ * Tests if a JSON pointer is touched by a JSON patch. This is the case when it is a prefix of a
+ * patched path or the other way around. An insertion in or a removal from an array touches all the
+ * elements from the index on, because they shift.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ */
+class PatchedPaths implements Predicate<String> {
+  private static final String ADD = "add";
+  private static final String COPY = "copy";
+  private static final String FROM = "from";
+  private static final String MOVE = "move";
+  private static final String OP = "op";
+  private static final String PATH = "path";
+  private static final String REMOVE = "remove";
+  private static final String REPLACE = "replace";
+
+  private final List<String> paths = new ArrayList<>();
+  private final List<Pair<String, Integer>> shifted = new ArrayList<>();
+
+  PatchedPaths(final JsonObject previous, final JsonPatch patch, final JsonObject next) {
+    patch(patch).forEach(op -> operation(op, previous, next));
+  }
+
+  private static Optional<Pair<String, Integer>> arrayPosition(
+      final String path, final JsonObject json, final boolean append) {
+    final String parent = parent(path);
+
+    return Optional.of(path)
+        .filter(p -> !p.isEmpty())
+        .flatMap(p -> getValue(json, parent))
+        .filter(JsonUtil::isArray)
+        .map(JsonValue::asJsonArray)
+        .flatMap(array -> getLastSegment(path, "/").flatMap(s -> index(s, array.size(), append)))
+        .map(index -> pair(parent, index));
+  }
+
+  private static Optional<Integer> index(
+      final String segment, final int size, final boolean append) {
+    return append && segment.equals("-")
+        ? Optional.of(size - 1)
+        : Optional.of(segment).filter(Util::isInteger).map(Integer::parseInt);
+  }
+
+  private static boolean isIndexFrom(final String segment, final int index) {
+    return isInteger(segment) && parseInt(segment) >= index;
+  }
+
+  private static boolean isPrefix(final String prefix, final String path) {
+    return prefix.isEmpty() || path.equals(prefix) || path.startsWith(prefix + "/");
+  }
+
+  private static String parent(final String path) {
+    return Optional.of(path)
+        .filter(p -> p.lastIndexOf('/') > 0)
+        .map(p -> getParent(p, "/"))
+        .orElse("");
+  }
+
+  private static boolean related(final String path1, final String path2) {
+    return isPrefix(path1, path2) || isPrefix(path2, path1);
+  }
+
+  private static boolean shiftedElement(final Pair<String, Integer> position, final String path) {
+    return isPrefix(path, position.first)
+        || (path.startsWith(position.first + "/")
+            && isIndexFrom(
+                path.substring(position.first.length() + 1).split("/")[0], position.second));
+  }
+
+  private void added(final String path, final JsonObject next) {
+    arrayPosition(path, next, true).ifPresentOrElse(shifted::add, () -> paths.add(path));
+  }
+
+  private void operation(final JsonObject op, final JsonObject previous, final JsonObject next) {
+    final String path = op.getString(PATH, "");
+
+    switch (op.getString(OP, "")) {
+      case ADD, COPY -> added(path, next);
+      case MOVE -> {
+        removed(op.getString(FROM, ""), previous);
+        added(path, next);
+      }
+      case REMOVE -> removed(path, previous);
+      case REPLACE -> paths.add(path);
+      default -> {
+        // Nothing has changed.
+      }
+    }
+  }
+
+  private void removed(final String path, final JsonObject previous) {
+    arrayPosition(path, previous, false).ifPresentOrElse(shifted::add, () -> paths.add(path));
+  }
+
+  public boolean test(final String path) {
+    return paths.stream().anyMatch(p -> related(p, path))
+        || shifted.stream().anyMatch(s -> shiftedElement(s, path));
+  }
+}
@@ -0,0 +1,351 @@
+package net.pincette.mongo;
+
+import static com.mongodb.client.model.changestream.FullDocument.UPDATE_LOOKUP;
+import static java.util.Optional.ofNullable;
+import static java.util.stream.Collectors.toSet;
+import static net.pincette.json.Factory.f;
+import static net.pincette.json.Factory.o;
+import static net.pincette.json.JsonUtil.createArrayBuilder;
+import static net.pincette.json.JsonUtil.isArray;
+import static net.pincette.json.JsonUtil.isObject;
+import static net.pincette.mongo.BsonUtil.fromBson;
+import static net.pincette.mongo.BsonUtil.fromJson;
+import static net.pincette.mongo.ChangeWatcher.fromNow;
+import static net.pincette.mongo.IdCache.documentId;
+import static net.pincette.mongo.IdLoader.key;
+import static net.pincette.util.Util.tryToGetSilent;
+import static org.reactivestreams.FlowAdapters.toFlowPublisher;
+
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.reactivestreams.client.FindPublisher;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+
+/**
+ * A cache of query results, of which the key is the filter, the sort and the limit. The filter of
+ * each entry is compiled with {@link Match#predicate(JsonObject)}, after the fields with several
+ * operators have been split into a conjunction. An empty filter matches every document. With
+ * watching, one change stream on the collection invalidates only the entries that are affected by a
+ * change. Those are the entries with a result that contains the changed document, and the entries
+ * of which the filter matches the new version of the document. For updates the change stream looks
+ * up the current version of the document. When a filter can't be compiled or has other top-level
+ * operators than <code>$and</code>, <code>$expr</code>, <code>$nor</code> and <code>$or</code>, its
+ * entry is invalidated by every change.
+ *
+ * <p>A change makes sure that the loads that are in progress at that moment aren't cached. Nothing
+ * is cached before the change stream has started, which covers the changes from the moment the
+ * cache is created. When the change stream ends, all entries are invalidated and the cache stops
+ * caching, so every query goes to the database after that. The weight of an entry is the BSON size
+ * of its documents.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ * @see CacheOptions
+ */
+public class QueryCache implements AutoCloseable {
+  private static final String AND = "$and";
+  private static final Set<String> COMBINERS = Set.of(AND, "$nor", "$or");
+  private static final String EXPR = "$expr";
+  private static final String ID = "_id";
+  private static final String REGEX = "$regex";
+
+  private final LoadingCache<Query, Result> cache;
+  private final Function<Query, CompletionStage<List<JsonObject>>> loader;
+  private final CacheOptions options;
+  private ChangeWatcher watcher;
+
+  public QueryCache(final MongoCollection<Document> collection) {
+    this(collection, null);
+  }
+
+  /**
+   * Creates a cache.
+   *
+   * @param collection the MongoDB collection.
+   * @param options the options. It may be <code>null</code>, in which case the defaults are used.
+   */
+  public QueryCache(final MongoCollection<Document> collection, final CacheOptions options) {
+    this(query -> load(collection, query), options);
+
+    if (this.options.watch) {
+      toFlowPublisher(fromNow(collection.watch(BsonDocument.class).fullDocument(UPDATE_LOOKUP)))
+          .subscribe(watcher());
+    }
+  }
+
+  QueryCache(
+      final Function<Query, CompletionStage<List<JsonObject>>> loader,
+      final CacheOptions options) {
+    this.loader = loader;
+    this.options = ofNullable(options).orElseGet(CacheOptions::new);
+    this.cache = new LoadingCache<>(this.options, Result::weight);
+  }
+
+  private static Object idKey(final JsonValue id) {
+    return id != null ? key(fromJson(id)) : null;
+  }
+
+  private static CompletionStage<List<JsonObject>> load(
+      final MongoCollection<Document> collection, final Query query) {
+    return JsonClient.find(
+        collection,
+        query.filter,
+        find -> {
+          final FindPublisher<BsonDocument> sorted =
+              query.sort != null ? find.sort(fromJson(query.sort)) : find;
+
+          return query.limit > 0 ? sorted.limit(query.limit) : sorted;
+        });
+  }
+
+  private static boolean isCombiner(final String key, final JsonValue value) {
+    return COMBINERS.contains(key) && isArray(value);
+  }
+
+  private static boolean isUnsupported(final String key) {
+    return key.startsWith("$") && !COMBINERS.contains(key) && !key.equals(EXPR);
+  }
+
+  private static boolean isOperators(final JsonValue value) {
+    return isObject(value)
+        && value.asJsonObject().size() > 1
+        && !value.asJsonObject().containsKey(REGEX)
+        && value.asJsonObject().keySet().stream().allMatch(k -> k.startsWith("$"));
+  }
+
+  private static Predicate<JsonObject> predicate(final JsonObject filter) {
+    return filter != null && !filter.isEmpty()
+        ? tryToGetSilent(() -> Match.predicate(split(filter))).orElse(json -> true)
+        : json -> true;
+  }
+
+  /**
+   * A predicate supports only one operator per field and ignores logical operators next to fields.
+   * Therefore, the filter becomes a conjunction with one condition per field and operator. The
+   * filters in logical operators are split in the same way. Empty nested filters and unsupported
+   * operators cause an exception, because leaving them out could make the predicate too strict.
+   *
+   * @param filter the filter.
+   * @return The split filter.
+   */
+  private static JsonObject split(final JsonObject filter) {
+    if (filter.isEmpty()) {
+      throw new UnsupportedOperationException("Empty nested filter");
+    }
+
+    return o(
+        f(
+            AND,
+            filter.entrySet().stream()
+                .flatMap(e -> split(e.getKey(), e.getValue()))
+                .reduce(createArrayBuilder(), JsonArrayBuilder::add, (b1, b2) -> b1)
+                .build()));
+  }
+
+  private static Stream<JsonObject> split(final String key, final JsonValue value) {
+    if (isUnsupported(key)) {
+      throw new UnsupportedOperationException(key);
+    }
+
+    if (isCombiner(key, value)) {
+      return Stream.of(
+          o(
+              f(
+                  key,
+                  value.asJsonArray().stream()
+                      .map(v -> isObject(v) ? split(v.asJsonObject()) : v)
+                      .reduce(createArrayBuilder(), JsonArrayBuilder::add, (b1, b2) -> b1)
+                      .build())));
+    }
+
+    return !key.startsWith("$") && isOperators(value)
+        ? value.asJsonObject().entrySet().stream()
+            .map(e -> o(f(key, o(f(e.getKey(), e.getValue())))))
+        : Stream.of(o(f(key, value)));
+  }
+
+  /**
+   * Invalidates the entries that contain the document with <code>id</code> and the entries of which
+   * the filter matches <code>document</code>.
+   *
+   * @param id the identifier of the changed document.
+   * @param document the new version of the document. It may be <code>null</code>.
+   */
+  void changed(final JsonValue id, final JsonObject document) {
+    final Object key = idKey(id);
+
+    cache.invalidateIf(
+        (query, result) -> result.ids.contains(key) || (document != null && result.test(document)));
+  }
+
+  private void changed(final ChangeStreamDocument<BsonDocument> change) {
+    final BsonValue id = documentId(change);
+
+    switch (change.getOperationType()) {
+      case INSERT, REPLACE, UPDATE, DELETE ->
+          changed(
+              id != null ? fromBson(id) : null,
+              change.getFullDocument() != null ? fromBson(change.getFullDocument()) : null);
+      case DROP, DROP_DATABASE, RENAME, INVALIDATE -> invalidateAll();
+      default -> {
+        // Other operations don't change documents.
+      }
+    }
+  }
+
+  /** Stops watching the collection and invalidates all entries. */
+  public void close() {
+    if (watcher != null) {
+      watcher.cancel();
+    }
+
+    cache.close();
+  }
+
+  /**
+   * Returns the number of entries that were evicted because of the size or the weight.
+   *
+   * @return The number of evictions.
+   */
+  public long evictions() {
+    return cache.evictions();
+  }
+
+  /**
+   * Returns the objects that match <code>filter</code>.
+   *
+   * @param filter the filter. It may be <code>null</code>.
+   * @return The list of objects.
+   */
+  public CompletionStage<List<JsonObject>> find(final JsonObject filter) {
+    return find(filter, null, 0);
+  }
+
+  /**
+   * Returns the objects that match <code>filter</code>.
+   *
+   * @param filter the filter. It may be <code>null</code>.
+   * @param sort the sort specification. It may be <code>null</code>.
+   * @param limit the maximum number of objects. With 0 there is no limit.
+   * @return The list of objects.
+   */
+  public CompletionStage<List<JsonObject>> find(
+      final JsonObject filter, final JsonObject sort, final int limit) {
+    final Query query = new Query(filter, sort, limit);
+
+    return cache
+        .get(query, () -> loader.apply(query).thenApply(list -> new Result(list, filter)))
+        .thenApply(result -> result.documents);
+  }
+
+  /**
+   * Returns the number of queries that were served from the cache.
+   *
+   * @return The number of hits.
+   */
+  public long hits() {
+    return cache.hits();
+  }
+
+  /** Removes all entries. Loads that are in progress won't be cached. */
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  /**
+   * Returns the number of entries that were removed because of a change or because of an explicit
+   * invalidation.
+   *
+   * @return The number of invalidations.
+   */
+  public long invalidations() {
+    return cache.invalidations();
+  }
+
+  /**
+   * Returns the number of queries that had to be run.
+   *
+   * @return The number of misses.
+   */
+  public long misses() {
+    return cache.misses();
+  }
+
+  /**
+   * Returns the number of entries.
+   *
+   * @return The number of entries.
+   */
+  public int size() {
+    return cache.size();
+  }
+
+  /**
+   * Creates the watcher for the change stream. The cache is suspended until the change stream has
+   * started and again after it has ended.
+   *
+   * @return The watcher.
+   */
+  ChangeWatcher watcher() {
+    cache.suspend();
+    watcher = new ChangeWatcher(this::changed, cache::resume, cache::suspend);
+
+    return watcher;
+  }
+
+  static class Query {
+    final JsonObject filter;
+    final int limit;
+    final JsonObject sort;
+
+    Query(final JsonObject filter, final JsonObject sort, final int limit) {
+      this.filter = filter;
+      this.sort = sort;
+      this.limit = limit;
+    }
+
+    public boolean equals(final Object other) {
+      return this == other
+          || (other instanceof Query q
+              && limit == q.limit
+              && Objects.equals(filter, q.filter)
+              && Objects.equals(sort, q.sort));
+    }
+
+    public int hashCode() {
+      return Objects.hash(filter, sort, limit);
+    }
+  }
+
+  private static class Result {
+    private final List<JsonObject> documents;
+    private final Set<Object> ids;
+    private final Predicate<JsonObject> predicate;
+
+    private Result(final List<JsonObject> documents, final JsonObject filter) {
+      this.documents = documents;
+      this.ids = documents.stream().map(d -> idKey(d.get(ID))).collect(toSet());
+      this.predicate = predicate(filter);
+    }
+
+    private boolean test(final JsonObject document) {
+      return tryToGetSilent(() -> predicate.test(document)).orElse(true);
+    }
+
+    private long weight() {
+      return documents.stream().mapToLong(d -> BsonBytes.size(fromJson(d))).sum();
+    }
+  }
+}
@@ -0,0 +1,35 @@
+package net.pincette.mongo;
+
+import org.bson.BsonDocument;
+import org.bson.BsonReader;
+import org.bson.BsonWriter;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.RawBsonDocumentCodec;
+
+/**
+ * Decodes BSON documents as <code>RawBsonDocument</code> objects, which keep the bytes as they are.
+ * This way the publishers for <code>BsonDocument</code> can be kept.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ */
+class RawDocumentCodec implements Codec<BsonDocument> {
+  private final BsonDocumentCodec encoder = new BsonDocumentCodec();
+  private final RawBsonDocumentCodec decoder = new RawBsonDocumentCodec();
+
+  public BsonDocument decode(final BsonReader reader, final DecoderContext decoderContext) {
+    return decoder.decode(reader, decoderContext);
+  }
+
+  public void encode(
+      final BsonWriter writer, final BsonDocument value, final EncoderContext encoderContext) {
+    encoder.encode(writer, value, encoderContext);
+  }
+
+  public Class<BsonDocument> getEncoderClass() {
+    return BsonDocument.class;
+  }
+}
@@ -0,0 +1,96 @@
+package net.pincette.mongo;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Options for the way documents are turned into JSON objects when they are read.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ */
+public class ReadOptions {
+  public final KeyDictionary dictionary;
+  public final Executor executor;
+  public final long fetchBudget;
+  public final boolean lazy;
+  public final int parallelism;
+
+  public ReadOptions() {
+    this(null, null, 0, false, 0);
+  }
+
+  private ReadOptions(
+      final KeyDictionary dictionary,
+      final Executor executor,
+      final long fetchBudget,
+      final boolean lazy,
+      final int parallelism) {
+    this.dictionary = dictionary;
+    this.executor = executor;
+    this.fetchBudget = fetchBudget;
+    this.lazy = lazy;
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * With adaptive fetching the batches of a cursor are sized after the pace of the consumer, the
+   * document size and the round-trip time. The next batch is fetched while the current one is
+   * consumed, as long as both fit in the memory budget. This only applies to find and aggregation
+   * publishers for which no batch size has been set, because the driver then sizes its batches
+   * after the demand. The first request is for one document, so its size is known before a larger
+   * batch is requested.
+   *
+   * @param memoryBytes the maximum number of BSON bytes that are buffered. With 0 the batches are
+   *     not adapted, which is the default.
+   * @return A new options object.
+   */
+  public ReadOptions withAdaptiveFetch(final long memoryBytes) {
+    if (memoryBytes < 0) {
+      throw new IllegalArgumentException("The memory budget can't be negative.");
+    }
+
+    return new ReadOptions(dictionary, executor, memoryBytes, lazy, parallelism);
+  }
+
+  /**
+   * With a decoder the documents are turned into JSON objects on <code>executor</code>, so several
+   * of them are decoded at the same time. The order of the documents is preserved. Decoding then no
+   * longer happens on the thread that delivers the documents.
+   *
+   * @param executor the executor that decodes the documents. With <code>null</code> the documents
+   *     are decoded on the delivering thread.
+   * @param parallelism the maximum number of documents that are requested but not yet emitted.
+   * @return A new options object.
+   */
+  public ReadOptions withDecoder(final Executor executor, final int parallelism) {
+    if (executor != null && parallelism < 1) {
+      throw new IllegalArgumentException("The parallelism should be at least 1.");
+    }
+
+    return new ReadOptions(dictionary, executor, fetchBudget, lazy, parallelism);
+  }
+
+  /**
+   * With a dictionary the field names and short string values of the JSON objects are shared
+   * instances.
+   *
+   * @param dictionary the dictionary with the shared strings.
+   * @return A new options object.
+   */
+  public ReadOptions withDictionary(final KeyDictionary dictionary) {
+    return new ReadOptions(dictionary, executor, fetchBudget, lazy, parallelism);
+  }
+
+  /**
+   * With lazy reading the JSON objects are views on the raw BSON bytes. A field is only converted
+   * when it is accessed for the first time, after which it is kept. This saves memory and CPU when
+   * only a few fields of large documents are used. The objects are read-only like any other JSON
+   * object.
+   *
+   * @param lazy whether to read lazily.
+   * @return A new options object.
+   */
+  public ReadOptions withLazy(final boolean lazy) {
+    return new ReadOptions(dictionary, executor, fetchBudget, lazy, parallelism);
+  }
+}
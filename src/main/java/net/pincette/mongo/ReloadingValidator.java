@@ -0,0 +1,233 @@
+package net.pincette.mongo;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import static java.util.logging.Level.SEVERE;
+import static java.util.stream.Collectors.toSet;
+import static net.pincette.mongo.Util.LOGGER;
+import static net.pincette.mongo.Validator.load;
+import static net.pincette.util.Util.tryToDoSilent;
+import static net.pincette.util.Util.tryToGet;
+import static net.pincette.util.Util.tryToGetRethrow;
+
+import java.io.File;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+
+/**
+ * Generates validators that follow the changes of their specification files. The files of all
+ * included and referred specifications are watched. When one of them changes, only the
+ * specifications that depend on it are resolved and compiled again. The conditions that didn't
+ * change are taken from the cache of the underlying {@link Validator}, from which the conditions
+ * that are no longer used are removed after a reload. The validator functions that were already
+ * handed out switch atomically to the new version. When a changed specification can't be loaded,
+ * the error is logged and the previous version stays in use.
+ *
+ * <p>Class path resources can't change and are not watched. When events were lost, all
+ * specifications with watched files are reloaded. Use only one instance per {@link Validator} and
+ * don't use that validator directly at the same time.
+ *
+ * <p>Only the default resolver of the {@link Validator} is told to forget the contents of a changed
+ * file. A custom resolver should read the files again every time it is called, or a reload will
+ * compile stale content.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ */
+public class ReloadingValidator implements AutoCloseable {
+  private final Map<String, Compiled> compiled = new ConcurrentHashMap<>();
+  private final Map<Path, WatchKey> directories = new ConcurrentHashMap<>();
+  private final Validator validator;
+  private final WatchService watchService;
+  private Thread thread;
+
+  /**
+   * Creates the reloading validator. A daemon thread starts watching when the first validator is
+   * generated.
+   *
+   * @param validator the validator that is used to load and compile the specifications.
+   */
+  public ReloadingValidator(final Validator validator) {
+    this.validator = validator;
+    this.watchService =
+        tryToGetRethrow(() -> FileSystems.getDefault().newWatchService()).orElse(null);
+  }
+
+  private static Set<Path> changed(final WatchKey key, final List<WatchEvent<?>> events) {
+    final Path directory = (Path) key.watchable();
+
+    return events.stream()
+        .map(WatchEvent::context)
+        .filter(Path.class::isInstance)
+        .map(context -> directory.resolve((Path) context).toAbsolutePath().normalize())
+        .collect(toSet());
+  }
+
+  private static Optional<Path> file(final String source) {
+    return Optional.of(new File(source))
+        .filter(File::isFile)
+        .map(f -> f.toPath().toAbsolutePath().normalize());
+  }
+
+  /** Stops watching. The validator functions keep working with their last version. */
+  public void close() {
+    tryToDoSilent(watchService::close);
+  }
+
+  private synchronized Version compile(final String source) {
+    final Map<Path, String> dependencies = new HashMap<>();
+    final Validator.Resolver resolver = validator.resolver();
+    final JsonObject specification =
+        load(
+            source,
+            null,
+            (s, c) ->
+                resolver
+                    .apply(s, c)
+                    .map(
+                        resolved -> {
+                          file(resolved.source)
+                              .ifPresent(f -> dependencies.put(f, resolved.source));
+                          return resolved;
+                        }));
+
+    dependencies.keySet().forEach(this::register);
+
+    return new Version(specification, validator.compiled(specification), dependencies);
+  }
+
+  private void register(final Path file) {
+    directories.computeIfAbsent(
+        file.getParent(),
+        directory ->
+            tryToGetRethrow(() -> directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY))
+                .orElse(null));
+  }
+
+  private void reload(final Set<Path> changed) {
+    compiled.values().stream()
+        .map(c -> c.version.get())
+        .forEach(v -> v.changedSources(changed).forEach(validator::invalidate));
+    compiled.forEach(
+        (source, c) -> {
+          if (c.version.get().dependsOn(changed)) {
+            tryToGet(
+                    () -> compile(source),
+                    e -> {
+                      LOGGER.log(SEVERE, e, () -> "Reloading " + source + " failed");
+                      return null;
+                    })
+                .ifPresent(c.version::set);
+          }
+        });
+
+    retainConditions();
+  }
+
+  private synchronized void retainConditions() {
+    validator.retainConditions(compiled.values().stream().map(c -> c.version.get().specification));
+  }
+
+  private synchronized void start() {
+    if (thread == null) {
+      thread = new Thread(this::watch, "pincette-mongo-validator-reload");
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /**
+   * Generates a validator with either a filename or a class path resource, in which case <code>
+   * source</code> should start with "resource:". It is compiled only once, even when it is asked
+   * several times.
+   *
+   * @param source the validation specification.
+   * @return An array with the fields <code>location</code>, which is a JSON pointer, and <code>code
+   *     </code>, which is the value of the <code>$code</code> field in the specification.
+   * @see Validator#validator(String)
+   */
+  public Function<JsonObject, JsonArray> validator(final String source) {
+    final Compiled c = compiled.computeIfAbsent(source, s -> new Compiled(compile(s)));
+
+    start();
+
+    return json -> c.version.get().function.apply(json);
+  }
+
+  private void watch() {
+    try {
+      while (true) {
+        final WatchKey key = watchService.take();
+        final List<WatchEvent<?>> events = key.pollEvents();
+        final Set<Path> changed =
+            events.stream().anyMatch(e -> e.kind() == OVERFLOW)
+                ? watchedFiles()
+                : changed(key, events);
+
+        key.reset();
+
+        if (!changed.isEmpty()) {
+          reload(changed);
+        }
+      }
+    } catch (ClosedWatchServiceException e) {
+      // Closed.
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private Set<Path> watchedFiles() {
+    return compiled.values().stream()
+        .flatMap(c -> c.version.get().dependencies.keySet().stream())
+        .collect(toSet());
+  }
+
+  private static class Compiled {
+    private final AtomicReference<Version> version;
+
+    private Compiled(final Version version) {
+      this.version = new AtomicReference<>(version);
+    }
+  }
+
+  private static class Version {
+    private final Map<Path, String> dependencies;
+    private final Function<JsonObject, JsonArray> function;
+    private final JsonObject specification;
+
+    private Version(
+        final JsonObject specification,
+        final Function<JsonObject, JsonArray> function,
+        final Map<Path, String> dependencies) {
+      this.specification = specification;
+      this.function = function;
+      this.dependencies = dependencies;
+    }
+
+    private boolean dependsOn(final Set<Path> changed) {
+      return changed.stream().anyMatch(dependencies::containsKey);
+    }
+
+    private Stream<String> changedSources(final Set<Path> changed) {
+      return changed.stream().map(dependencies::get).filter(Objects::nonNull);
+    }
+  }
+}
@@ -0,0 +1,281 @@
+package net.pincette.mongo;
+
+import static java.util.Spliterator.ORDERED;
+import static java.util.Spliterators.spliteratorUnknownSize;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static net.pincette.util.Util.tryToGet;
+import static net.pincette.util.Util.tryToGetRethrow;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow.Publisher;
+import java.util.concurrent.Flow.Subscriber;
+import java.util.concurrent.Flow.Subscription;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Consumes query results without holding all of them in memory. A result can be read as a blocking
+ * stream with a bounded buffer, which suits virtual threads, or in chunks that are handed to an
+ * asynchronous consumer. Results that have to be collected in a list can get a maximum size, so a
+ * careless query fails fast instead of filling the heap.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ * @see Collection#execStream(com.mongodb.reactivestreams.client.MongoCollection, Function, int)
+ * @see JsonClient#findPublisher(com.mongodb.reactivestreams.client.MongoCollection,
+ *     org.bson.conversions.Bson)
+ */
+public class Results {
+  private static final Object END = new Object();
+
+  private Results() {}
+
+  /**
+   * Hands the elements of <code>publisher</code> to <code>consumer</code> in chunks. The next chunk
+   * is requested only after the stage of the consumer has completed.
+   *
+   * @param publisher the publisher.
+   * @param chunkSize the maximum number of elements in a chunk. The last chunk may be smaller.
+   * @param consumer the consumer of the chunks.
+   * @param <T> the element type.
+   * @return The stage that completes after the last chunk has been consumed. It fails when the
+   *     publisher or the consumer fails. A consumer that throws also cancels the subscription.
+   * @throws IllegalArgumentException when <code>chunkSize</code> is less than 1.
+   */
+  public static <T> CompletionStage<Void> chunks(
+      final Publisher<T> publisher,
+      final int chunkSize,
+      final Function<List<T>, CompletionStage<Void>> consumer) {
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException("The chunk size should be at least 1.");
+    }
+
+    final CompletableFuture<Void> result = new CompletableFuture<>();
+
+    publisher.subscribe(
+        new Subscriber<>() {
+          private List<T> chunk = new ArrayList<>(chunkSize);
+          private CompletionStage<Void> last = completedFuture(null);
+          private Subscription subscription;
+
+          private CompletionStage<Void> consume() {
+            final List<T> c = chunk;
+
+            chunk = new ArrayList<>(chunkSize);
+
+            return tryToGet(() -> consumer.apply(c), CompletableFuture::<Void>failedStage)
+                .orElseGet(() -> completedFuture(null));
+          }
+
+          public void onComplete() {
+            final CompletionStage<Void> stage =
+                chunk.isEmpty() ? last : last.thenCompose(v -> consume());
+
+            stage.whenComplete(
+                (v, e) -> {
+                  if (e != null) {
+                    result.completeExceptionally(e);
+                  } else {
+                    result.complete(null);
+                  }
+                });
+          }
+
+          public void onError(final Throwable throwable) {
+            result.completeExceptionally(throwable);
+          }
+
+          public void onNext(final T item) {
+            if (result.isDone()) {
+              return;
+            }
+
+            chunk.add(item);
+
+            if (chunk.size() == chunkSize) {
+              last =
+                  consume()
+                      .whenComplete(
+                          (v, e) -> {
+                            if (e != null) {
+                              subscription.cancel();
+                              result.completeExceptionally(e);
+                            } else {
+                              subscription.request(chunkSize);
+                            }
+                          });
+            }
+          }
+
+          public void onSubscribe(final Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(chunkSize);
+          }
+        });
+
+    return result;
+  }
+
+  /**
+   * Collects the elements of <code>publisher</code> in a list, but fails as soon as there are more
+   * than <code>maxSize</code> of them. The subscription is then cancelled.
+   *
+   * @param publisher the publisher.
+   * @param maxSize the maximum number of elements.
+   * @param <T> the element type.
+   * @return The stage with the list. It fails with an {@link IllegalStateException} when there are
+   *     too many elements.
+   */
+  public static <T> CompletionStage<List<T>> list(
+      final Publisher<T> publisher, final int maxSize) {
+    final CompletableFuture<List<T>> result = new CompletableFuture<>();
+
+    publisher.subscribe(
+        new Subscriber<>() {
+          private final List<T> list = new ArrayList<>();
+          private Subscription subscription;
+
+          public void onComplete() {
+            result.complete(list);
+          }
+
+          public void onError(final Throwable throwable) {
+            result.completeExceptionally(throwable);
+          }
+
+          public void onNext(final T item) {
+            if (list.size() == maxSize) {
+              subscription.cancel();
+              result.completeExceptionally(
+                  new IllegalStateException(
+                      "The result has more than " + maxSize + " elements."));
+            } else if (!result.isDone()) {
+              list.add(item);
+            }
+          }
+
+          public void onSubscribe(final Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(Long.MAX_VALUE);
+          }
+        });
+
+    return result;
+  }
+
+  /**
+   * Returns a blocking stream with the elements of <code>publisher</code>. At most <code>
+   * bufferSize</code> elements are requested ahead of the consumer of the stream. Closing the
+   * stream cancels the subscription. When the publisher fails, the stream throws a {@link
+   * CompletionException} with the cause.
+   *
+   * @param publisher the publisher.
+   * @param bufferSize the maximum number of buffered elements.
+   * @param <T> the element type.
+   * @return The stream.
+   * @throws IllegalArgumentException when <code>bufferSize</code> is less than 1.
+   */
+  public static <T> Stream<T> stream(final Publisher<T> publisher, final int bufferSize) {
+    if (bufferSize < 1) {
+      throw new IllegalArgumentException("The buffer size should be at least 1.");
+    }
+
+    final BlockingIterator<T> iterator = new BlockingIterator<>(bufferSize);
+
+    publisher.subscribe(iterator);
+
+    return StreamSupport.stream(spliteratorUnknownSize(iterator, ORDERED), false)
+        .onClose(iterator::cancel);
+  }
+
+  private static class BlockingIterator<T> implements Iterator<T>, Subscriber<T> {
+    private final int bufferSize;
+    private final BlockingQueue<Object> queue;
+    private boolean cancelled;
+    private int consumed;
+    private Object next;
+    private Subscription subscription;
+
+    private BlockingIterator(final int bufferSize) {
+      this.bufferSize = bufferSize;
+      this.queue = new ArrayBlockingQueue<>(bufferSize + 1);
+    }
+
+    private synchronized void cancel() {
+      cancelled = true;
+
+      if (subscription != null) {
+        subscription.cancel();
+      }
+    }
+
+    public boolean hasNext() {
+      if (next == null) {
+        next = tryToGetRethrow(queue::take).orElse(END);
+      }
+
+      if (next instanceof Failure failure) {
+        throw new CompletionException(failure.exception);
+      }
+
+      return next != END;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      final T result = (T) next;
+
+      next = null;
+
+      if (++consumed >= (bufferSize + 1) / 2) {
+        subscription.request(consumed);
+        consumed = 0;
+      }
+
+      return result;
+    }
+
+    public void onComplete() {
+      queue.add(END);
+    }
+
+    public void onError(final Throwable throwable) {
+      queue.add(new Failure(throwable));
+    }
+
+    public void onNext(final T item) {
+      queue.add(item);
+    }
+
+    public synchronized void onSubscribe(final Subscription subscription) {
+      this.subscription = subscription;
+
+      if (cancelled) {
+        subscription.cancel();
+      } else {
+        subscription.request(bufferSize);
+      }
+    }
+  }
+
+  private static class Failure {
+    private final Throwable exception;
+
+    private Failure(final Throwable exception) {
+      this.exception = exception;
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package net.pincette.mongo;
+
+/**
+ * Options for partitioned scans.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ * @see PartitionedScan
+ */
+public class ScanOptions {
+  public final int bufferSize;
+  public final String key;
+  public final boolean ordered;
+  public final int partitions;
+  public final ReadOptions readOptions;
+
+  public ScanOptions() {
+    this(256, "_id", false, 4, new ReadOptions());
+  }
+
+  private ScanOptions(
+      final int bufferSize,
+      final String key,
+      final boolean ordered,
+      final int partitions,
+      final ReadOptions readOptions) {
+    if (bufferSize < 2 || partitions < 1) {
+      throw new IllegalArgumentException(
+          "The buffer size should be at least 2 and the number of partitions at least 1.");
+    }
+
+    this.bufferSize = bufferSize;
+    this.key = key;
+    this.ordered = ordered;
+    this.partitions = partitions;
+    this.readOptions = readOptions != null ? readOptions : new ReadOptions();
+  }
+
+  /**
+   * The maximum number of objects that are buffered per partition. The default is 256.
+   *
+   * @param bufferSize the buffer size.
+   * @return A new options object.
+   */
+  public ScanOptions withBufferSize(final int bufferSize) {
+    return new ScanOptions(bufferSize, key, ordered, partitions, readOptions);
+  }
+
+  /**
+   * The field that is used to split the collection in ranges. It should have an index and its
+   * values should have the same type. It must not contain arrays, because a document with an array
+   * can fall in several ranges and would then be emitted more than once. The default is <code>_id
+   * </code>.
+   *
+   * @param key the field.
+   * @return A new options object.
+   */
+  public ScanOptions withKey(final String key) {
+    return new ScanOptions(bufferSize, key, ordered, partitions, readOptions);
+  }
+
+  /**
+   * With ordered scans the objects are emitted in the order of the key. A partition is read only
+   * when the previous one has been read completely, so the scan is no longer concurrent. The order
+   * holds only when all keys have the type of the split points. The first partition is emitted
+   * first, but it also has the objects of which the key has another type or is missing. The default
+   * is unordered.
+   *
+   * @param ordered the ordering flag.
+   * @return A new options object.
+   */
+  public ScanOptions withOrdered(final boolean ordered) {
+    return new ScanOptions(bufferSize, key, ordered, partitions, readOptions);
+  }
+
+  /**
+   * The number of partitions, which is the number of concurrent cursors. The default is 4. There
+   * may be fewer partitions when the collection is small.
+   *
+   * @param partitions the number of partitions.
+   * @return A new options object.
+   */
+  public ScanOptions withPartitions(final int partitions) {
+    return new ScanOptions(bufferSize, key, ordered, partitions, readOptions);
+  }
+
+  /**
+   * The options for reading the documents of the cursors.
+   *
+   * @param readOptions the read options.
+   * @return A new options object.
+   */
+  public ScanOptions withReadOptions(final ReadOptions readOptions) {
+    return new ScanOptions(bufferSize, key, ordered, partitions, readOptions);
+  }
+}
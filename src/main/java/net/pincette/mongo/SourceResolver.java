@@ -1,18 +1,21 @@
 package net.pincette.mongo;
 
+import static java.nio.file.Files.readAllBytes;
 import static java.util.Optional.ofNullable;
 import static net.pincette.json.JsonUtil.createReader;
 import static net.pincette.util.Util.canonicalPath;
 import static net.pincette.util.Util.getParent;
 import static net.pincette.util.Util.tryToGetRethrow;
+import static net.pincette.util.Util.tryToGetSilent;
 import static net.pincette.util.Util.tryToGetWithRethrow;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
-import java.util.HashMap;
+import java.nio.file.Path;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
@@ -21,7 +24,11 @@ import net.pincette.util.Cases;
 
 class SourceResolver {
   private static final String RESOURCE = "resource:";
-  private final Map<String, JsonObject> loaded = new HashMap<>();
+  private final Map<String, JsonObject> loaded = new ConcurrentHashMap<>();
+
+  void invalidate(final String source) {
+    loaded.remove(source);
+  }
 
   private static boolean isDirectory(final String context) {
     return isKind(context, File::isDirectory);
@@ -35,10 +42,30 @@ class SourceResolver {
     return ofNullable(context).filter(c -> test.test(new File(c))).isPresent();
   }
 
-  private static boolean isResource(final String ref) {
+  static boolean isResource(final String ref) {
     return ofNullable(ref).filter(r -> r.startsWith(RESOURCE)).isPresent();
   }
 
+  /**
+   * Reads the raw contents of a resolved source.
+   *
+   * @param source a resolved source, which is either an absolute filename or a class path resource.
+   * @return The contents. It will be empty when the source can't be read.
+   */
+  static Optional<byte[]> read(final String source) {
+    return tryToGetSilent(
+        () ->
+            isResource(source)
+                ? readResource(resourcePath(source))
+                : readAllBytes(Path.of(source)));
+  }
+
+  private static byte[] readResource(final String resource) {
+    return tryToGetWithRethrow(
+            () -> SourceResolver.class.getResourceAsStream(resource), InputStream::readAllBytes)
+        .orElse(null);
+  }
+
   private static String resolveResource(final String resource, final String baseResource) {
     final String path = baseResource.substring(RESOURCE.length());
 
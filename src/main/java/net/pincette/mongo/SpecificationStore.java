@@ -0,0 +1,351 @@
+package net.pincette.mongo;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.Files.move;
+import static java.nio.file.Files.write;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.util.Optional.ofNullable;
+import static net.pincette.json.JsonUtil.asString;
+import static net.pincette.mongo.BsonUtil.fromBson;
+import static net.pincette.mongo.BsonUtil.fromJson;
+import static net.pincette.mongo.BsonUtil.toBytes;
+import static net.pincette.mongo.SourceResolver.isResource;
+import static net.pincette.mongo.SourceResolver.read;
+import static net.pincette.util.StreamUtil.rangeExclusive;
+import static net.pincette.util.Util.tryToDoRethrow;
+import static net.pincette.util.Util.tryToGetRethrow;
+import static net.pincette.util.Util.tryToGetSilent;
+import static net.pincette.util.Util.tryToGetWithRethrow;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import net.pincette.mongo.Validator.Resolver;
+import org.bson.BsonArray;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.RawBsonDocumentCodec;
+
+/**
+ * Keeps resolved validation specifications on disk together with the fingerprints of all the
+ * sources they were made of. The file is a BSON document, which is memory-mapped when it is read.
+ * The specifications are stored as BSON documents, which are only turned into JSON when they are
+ * used. An entry is only used when none of its sources has changed. For files the size and
+ * modification time are checked first. Only when those differ the content hash is compared. When
+ * the content is the same after all, the fingerprint is updated. Class path resources are always
+ * compared by their content hash.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ */
+class SpecificationStore {
+  private static final String DEPENDENCIES = "dependencies";
+  private static final String ENTRIES = "entries";
+  private static final String HASH = "hash";
+  private static final String KEY = "key";
+  private static final String MODIFIED = "modified";
+  private static final String SIZE = "size";
+  private static final String SOURCE = "source";
+  private static final String SPECIFICATION = "specification";
+  private static final String VERSION = "version";
+  private static final int CURRENT_VERSION = 2;
+
+  private final Map<String, Entry> entries = new HashMap<>();
+  private final File file;
+  private boolean dirty;
+
+  SpecificationStore(final File file) {
+    this.file = file;
+    readStore(file)
+        .filter(store -> store.getInt32(VERSION, new BsonInt32(0)).getValue() == CURRENT_VERSION)
+        .map(store -> store.getArray(ENTRIES, new BsonArray()))
+        .ifPresent(
+            array ->
+                array.stream()
+                    .map(BsonValue::asDocument)
+                    .forEach(e -> entries.put(e.getString(KEY).getValue(), entry(e))));
+  }
+
+  /**
+   * Unlike {@link BsonUtil#fromJson(JsonValue)}, strings are kept as they are, so the stored
+   * specification comes back unchanged.
+   *
+   * @param json the JSON value.
+   * @return The BSON value.
+   */
+  private static BsonValue bson(final JsonValue json) {
+    return switch (json.getValueType()) {
+      case ARRAY ->
+          new BsonArray(json.asJsonArray().stream().map(SpecificationStore::bson).toList());
+      case OBJECT ->
+          json.asJsonObject().entrySet().stream()
+              .reduce(
+                  new BsonDocument(),
+                  (d, e) -> d.append(e.getKey(), bson(e.getValue())),
+                  (d1, d2) -> d1);
+      case STRING -> new BsonString(asString(json).getString());
+      default -> fromJson(json);
+    };
+  }
+
+  /**
+   * Returns the fingerprints of the dependencies if none of them has changed. A fingerprint of a
+   * file of which only the size or the modification time has changed is replaced.
+   *
+   * @param dependencies the fingerprints of the dependencies.
+   * @return The current fingerprints.
+   */
+  private static Optional<List<Fingerprint>> current(final List<Fingerprint> dependencies) {
+    final List<Fingerprint> current =
+        dependencies.stream()
+            .map(
+                d ->
+                    d.isUntouchedFile()
+                        ? Optional.of(d)
+                        : fingerprint(d.source)
+                            .filter(f -> f.hash.equals(d.hash))
+                            .map(f -> f.size == d.size && f.modified == d.modified ? d : f))
+            .flatMap(Optional::stream)
+            .toList();
+
+    return Optional.of(current).filter(c -> c.size() == dependencies.size());
+  }
+
+  private static Entry entry(final BsonDocument document) {
+    return new Entry(
+        document.getArray(DEPENDENCIES).stream()
+            .map(BsonValue::asDocument)
+            .map(SpecificationStore::fingerprint)
+            .toList(),
+        document.getDocument(SPECIFICATION));
+  }
+
+  private static Fingerprint fingerprint(final BsonDocument document) {
+    return new Fingerprint(
+        document.getString(SOURCE).getValue(),
+        document.getInt64(SIZE).getValue(),
+        document.getInt64(MODIFIED).getValue(),
+        document.getString(HASH).getValue());
+  }
+
+  private static Optional<Fingerprint> fingerprint(final String source) {
+    final File f = new File(source);
+
+    return read(source)
+        .map(
+            bytes ->
+                new Fingerprint(
+                    source,
+                    isResource(source) ? -1 : f.length(),
+                    isResource(source) ? -1 : f.lastModified(),
+                    hash(bytes)));
+  }
+
+  private static Optional<List<Fingerprint>> fingerprints(final Set<String> sources) {
+    final List<Fingerprint> fingerprints =
+        sources.stream()
+            .map(SpecificationStore::fingerprint)
+            .flatMap(Optional::stream)
+            .toList();
+
+    return Optional.of(fingerprints).filter(f -> f.size() == sources.size());
+  }
+
+  private static String hash(final byte[] bytes) {
+    return tryToGetRethrow(() -> MessageDigest.getInstance("SHA-256"))
+        .map(digest -> HexFormat.of().formatHex(digest.digest(bytes)))
+        .orElse(null);
+  }
+
+  private static Optional<RawBsonDocument> readStore(final File file) {
+    return Optional.of(file)
+        .filter(File::isFile)
+        .flatMap(
+            f ->
+                tryToGetSilent(
+                    () ->
+                        tryToGetWithRethrow(
+                                () -> FileChannel.open(f.toPath(), READ),
+                                channel ->
+                                    new RawBsonDocumentCodec()
+                                        .decode(
+                                            new BsonBinaryReader(
+                                                channel.map(READ_ONLY, 0, channel.size())),
+                                            DecoderContext.builder().build()))
+                            .orElse(null)));
+  }
+
+  /**
+   * Returns the specification for <code>key</code>. If there is no entry or when one of its sources
+   * has changed, the specification is resolved again and the entry is replaced.
+   *
+   * @param key the key of the specification.
+   * @param resolver the resolver that should be used for the resolution.
+   * @param resolve the function that resolves the specification with the given resolver. All the
+   *     sources it resolves through it become the dependencies of the entry.
+   * @return The resolved specification.
+   */
+  synchronized JsonObject get(
+      final String key, final Resolver resolver, final Function<Resolver, JsonObject> resolve) {
+    return ofNullable(entries.get(key))
+        .filter(this::isCurrent)
+        .map(Entry::specification)
+        .orElseGet(() -> put(key, resolver, resolve));
+  }
+
+  private boolean isCurrent(final Entry entry) {
+    return current(entry.dependencies)
+        .map(
+            current -> {
+              if (rangeExclusive(0, current.size())
+                  .anyMatch(i -> current.get(i) != entry.dependencies.get(i))) {
+                entry.dependencies = current;
+                dirty = true;
+              }
+
+              return true;
+            })
+        .orElse(false);
+  }
+
+  private JsonObject put(
+      final String key, final Resolver resolver, final Function<Resolver, JsonObject> resolve) {
+    final Set<String> sources = new LinkedHashSet<>();
+    final JsonObject specification =
+        resolve.apply(
+            (s, c) ->
+                resolver
+                    .apply(s, c)
+                    .map(
+                        resolved -> {
+                          sources.add(resolved.source);
+                          return resolved;
+                        }));
+
+    if (specification != null) {
+      fingerprints(sources)
+          .ifPresent(
+              fingerprints -> {
+                entries.put(key, new Entry(fingerprints, specification));
+                dirty = true;
+              });
+    }
+
+    return specification;
+  }
+
+  /** Writes the store to its file when it has changed. The file is replaced atomically. */
+  synchronized void save() {
+    if (dirty) {
+      final File tmp = new File(file.getAbsolutePath() + ".tmp");
+
+      tryToDoRethrow(
+          () -> {
+            write(tmp.toPath(), toBytes(toBson()));
+            move(tmp.toPath(), file.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+          });
+
+      dirty = false;
+    }
+  }
+
+  private BsonDocument toBson() {
+    return new BsonDocument()
+        .append(VERSION, new BsonInt32(CURRENT_VERSION))
+        .append(
+            ENTRIES,
+            new BsonArray(
+                entries.entrySet().stream()
+                    .map(e -> e.getValue().toBson(e.getKey()))
+                    .map(BsonValue.class::cast)
+                    .toList()));
+  }
+
+  private static class Entry {
+    private final BsonDocument bson;
+    private List<Fingerprint> dependencies;
+    private JsonObject specification;
+
+    private Entry(final List<Fingerprint> dependencies, final BsonDocument bson) {
+      this.dependencies = dependencies;
+      this.bson = bson;
+    }
+
+    private Entry(final List<Fingerprint> dependencies, final JsonObject specification) {
+      this(dependencies, bson(specification).asDocument());
+      this.specification = specification;
+    }
+
+    private JsonObject specification() {
+      if (specification == null) {
+        specification =
+            bson instanceof RawBsonDocument raw ? new LazyJsonObject(raw) : fromBson(bson);
+      }
+
+      return specification;
+    }
+
+    private BsonDocument toBson(final String key) {
+      return new BsonDocument()
+          .append(KEY, new BsonString(key))
+          .append(
+              DEPENDENCIES,
+              new BsonArray(
+                  dependencies.stream()
+                      .map(Fingerprint::toBson)
+                      .map(BsonValue.class::cast)
+                      .toList()))
+          .append(SPECIFICATION, bson);
+    }
+  }
+
+  private static class Fingerprint {
+    private final String hash;
+    private final long modified;
+    private final long size;
+    private final String source;
+
+    private Fingerprint(
+        final String source, final long size, final long modified, final String hash) {
+      this.source = source;
+      this.size = size;
+      this.modified = modified;
+      this.hash = hash;
+    }
+
+    private boolean isUntouchedFile() {
+      final File file = new File(source);
+
+      return !isResource(source)
+          && file.isFile()
+          && file.length() == size
+          && file.lastModified() == modified;
+    }
+
+    private BsonDocument toBson() {
+      return new BsonDocument()
+          .append(SOURCE, new BsonString(source))
+          .append(SIZE, new BsonInt64(size))
+          .append(MODIFIED, new BsonInt64(modified))
+          .append(HASH, new BsonString(hash));
+    }
+  }
+}
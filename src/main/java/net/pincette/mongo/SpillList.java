@@ -0,0 +1,273 @@
+package net.pincette.mongo;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Arrays.binarySearch;
+import static java.util.Arrays.copyOf;
+import static net.pincette.mongo.BsonUtil.fromBytes;
+import static net.pincette.mongo.BsonUtil.fromJson;
+import static net.pincette.mongo.BsonUtil.toBytes;
+import static net.pincette.util.Util.tryToDoRethrow;
+import static net.pincette.util.Util.tryToDoSilent;
+import static net.pincette.util.Util.tryToGet;
+import static net.pincette.util.Util.tryToGetRethrow;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow.Publisher;
+import java.util.concurrent.Flow.Subscriber;
+import java.util.concurrent.Flow.Subscription;
+import javax.json.JsonObject;
+
+/**
+ * An immutable list of JSON objects that keeps its first elements in memory and spills the others
+ * to a temporary file. The spilled elements are stored as BSON, which is already length-prefixed.
+ * The file is memory-mapped in segments of at most 1GB. A spilled element is decoded lazily when
+ * it is accessed and only the fields that are used are converted. This way a result can be larger
+ * than the heap. The list should be closed, which deletes the file. When the file can't be written,
+ * the subscription is cancelled, the file is deleted and the collection fails.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ */
+public class SpillList extends AbstractList<JsonObject> implements AutoCloseable {
+  private static final int REQUEST = 64;
+  private static final long SEGMENT_SIZE = 1L << 30;
+
+  private final FileChannel channel;
+  private final List<JsonObject> memory;
+  private final long[] offsets;
+  private final MappedByteBuffer[] segments;
+  private final long[] segmentStarts;
+  private final int spilled;
+
+  private SpillList(final List<JsonObject> memory, final Spill spill) {
+    this.memory = memory;
+    this.channel = spill != null ? spill.channel : null;
+    this.offsets = spill != null ? copyOf(spill.offsets, spill.size) : new long[0];
+    this.segmentStarts =
+        spill != null ? copyOf(spill.segmentStarts, spill.segments) : new long[0];
+    this.spilled = offsets.length;
+    this.segments = spill != null ? map(spill) : new MappedByteBuffer[0];
+  }
+
+  /**
+   * Collects the JSON objects of <code>publisher</code> in a list. The temporary file is created in
+   * the default temporary directory.
+   *
+   * @param publisher the publisher, which could come from {@link
+   *     JsonClient#aggregationPublisher(com.mongodb.reactivestreams.client.MongoCollection,
+   *     java.util.List)}, for example.
+   * @param memoryBytes the maximum number of BSON bytes that are kept in memory.
+   * @return The list.
+   */
+  public static CompletionStage<SpillList> collect(
+      final Publisher<JsonObject> publisher, final long memoryBytes) {
+    return collect(publisher, memoryBytes, null);
+  }
+
+  /**
+   * Collects the JSON objects of <code>publisher</code> in a list.
+   *
+   * @param publisher the publisher.
+   * @param memoryBytes the maximum number of BSON bytes that are kept in memory.
+   * @param directory the directory for the temporary file. It may be <code>null</code>.
+   * @return The list.
+   */
+  public static CompletionStage<SpillList> collect(
+      final Publisher<JsonObject> publisher, final long memoryBytes, final Path directory) {
+    final CompletableFuture<SpillList> result = new CompletableFuture<>();
+
+    publisher.subscribe(
+        new Subscriber<>() {
+          private final List<JsonObject> memory = new ArrayList<>();
+          private boolean failed;
+          private long memorySize;
+          private int received;
+          private Spill spill;
+          private Subscription subscription;
+
+          private boolean add(final JsonObject json) {
+            if (spill == null) {
+              final byte[] bytes = toBytes(fromJson(json));
+
+              if (memorySize + bytes.length <= memoryBytes) {
+                memory.add(json);
+                memorySize += bytes.length;
+              } else {
+                spill = new Spill(directory);
+                spill.add(bytes);
+              }
+            } else {
+              spill.add(toBytes(fromJson(json)));
+            }
+
+            return true;
+          }
+
+          private boolean cancel(final Exception exception) {
+            subscription.cancel();
+            fail(exception);
+
+            return false;
+          }
+
+          private void fail(final Throwable throwable) {
+            failed = true;
+
+            if (spill != null) {
+              tryToDoSilent(spill.channel::close);
+            }
+
+            result.completeExceptionally(throwable);
+          }
+
+          public void onComplete() {
+            if (!failed) {
+              tryToGet(
+                      () -> new SpillList(memory, spill),
+                      e -> {
+                        fail(e);
+                        return null;
+                      })
+                  .ifPresent(result::complete);
+            }
+          }
+
+          public void onError(final Throwable throwable) {
+            if (!failed) {
+              fail(throwable);
+            }
+          }
+
+          public void onNext(final JsonObject json) {
+            if (!failed && tryToGet(() -> add(json), this::cancel).orElse(false)) {
+              if (++received == REQUEST) {
+                received = 0;
+                subscription.request(REQUEST);
+              }
+            }
+          }
+
+          public void onSubscribe(final Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(REQUEST);
+          }
+        });
+
+    return result;
+  }
+
+  private static MappedByteBuffer[] map(final Spill spill) {
+    final MappedByteBuffer[] result = new MappedByteBuffer[spill.segments];
+
+    for (int i = 0; i < result.length; ++i) {
+      final long start = spill.segmentStarts[i];
+      final long end = i < result.length - 1 ? spill.segmentStarts[i + 1] : spill.position;
+
+      result[i] =
+          tryToGetRethrow(() -> spill.channel.map(READ_ONLY, start, end - start)).orElse(null);
+    }
+
+    return result;
+  }
+
+  /** Deletes the temporary file. */
+  public void close() {
+    if (channel != null) {
+      tryToDoRethrow(channel::close);
+    }
+  }
+
+  public JsonObject get(final int index) {
+    if (index < memory.size()) {
+      return memory.get(index);
+    }
+
+    final int i = index - memory.size();
+
+    if (i >= spilled) {
+      throw new IndexOutOfBoundsException(index);
+    }
+
+    final long offset = offsets[i];
+    final int found = binarySearch(segmentStarts, offset);
+    final int segment = found >= 0 ? found : -found - 2;
+    final ByteBuffer buffer = segments[segment];
+    final int position = (int) (offset - segmentStarts[segment]);
+    final byte[] bytes = new byte[buffer.order(LITTLE_ENDIAN).getInt(position)];
+
+    buffer.get(position, bytes);
+
+    return new LazyJsonObject(fromBytes(bytes));
+  }
+
+  /**
+   * Returns the number of elements that are kept in memory.
+   *
+   * @return The number of elements in memory.
+   */
+  public int inMemory() {
+    return memory.size();
+  }
+
+  public int size() {
+    return memory.size() + spilled;
+  }
+
+  private static class Spill {
+    private final FileChannel channel;
+    private long[] offsets = new long[1024];
+    private long position;
+    private long[] segmentStarts = new long[4];
+    private int segments = 1;
+    private int size;
+
+    private Spill(final Path directory) {
+      channel =
+          tryToGetRethrow(
+                  () ->
+                      FileChannel.open(
+                          directory != null
+                              ? Files.createTempFile(directory, "spill", ".bson")
+                              : Files.createTempFile("spill", ".bson"),
+                          READ,
+                          WRITE,
+                          DELETE_ON_CLOSE))
+              .orElse(null);
+    }
+
+    private void add(final byte[] bytes) {
+      if (position + bytes.length - segmentStarts[segments - 1] > SEGMENT_SIZE) {
+        if (segments == segmentStarts.length) {
+          segmentStarts = copyOf(segmentStarts, segments * 2);
+        }
+
+        segmentStarts[segments++] = position;
+      }
+
+      if (size == offsets.length) {
+        offsets = copyOf(offsets, size * 2);
+      }
+
+      offsets[size++] = position;
+
+      final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+      while (buffer.hasRemaining()) {
+        position += tryToGetRethrow(() -> channel.write(buffer, position)).orElse(0);
+      }
+    }
+  }
+}
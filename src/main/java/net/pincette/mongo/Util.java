@@ -7,20 +7,20 @@ import static java.util.logging.Logger.getLogger;
 import static javax.json.JsonValue.FALSE;
 import static javax.json.JsonValue.NULL;
 import static javax.json.JsonValue.TRUE;
-import static net.pincette.json.JsonUtil.createArrayBuilder;
 import static net.pincette.json.JsonUtil.isArray;
 import static net.pincette.json.JsonUtil.isDate;
 import static net.pincette.json.JsonUtil.isInstant;
 import static net.pincette.json.JsonUtil.isNumber;
 import static net.pincette.json.JsonUtil.isObject;
 import static net.pincette.json.JsonUtil.isString;
-import static net.pincette.json.JsonUtil.transformFieldNames;
 import static net.pincette.util.Pair.pair;
 
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.UnaryOperator;
 import java.util.logging.Logger;
 import java.util.stream.Stream;
-import javax.json.JsonArrayBuilder;
+import javax.json.JsonArray;
 import javax.json.JsonObject;
 import javax.json.JsonValue;
 import net.pincette.util.Pair;
@@ -60,8 +60,59 @@ public class Util {
             .orElseGet(() -> Cmp.compare(v1, v2)));
   }
 
+  private static String escape(final char c) {
+    return switch (c) {
+      case '.' -> DOT;
+      case '/' -> SLASH;
+      case '$' -> DOLLAR;
+      default -> null;
+    };
+  }
+
+  /**
+   * Escapes a field name in one scan. The name itself is returned when there is nothing to escape.
+   *
+   * @param name the field name.
+   * @return The escaped field name.
+   * @see #toMongoDB(JsonObject)
+   */
   public static String escapeFieldName(final String name) {
-    return name.replace(".", DOT).replace("/", SLASH).replace("$", DOLLAR);
+    int i = 0;
+
+    while (i < name.length() && escape(name.charAt(i)) == null) {
+      ++i;
+    }
+
+    if (i == name.length()) {
+      return name;
+    }
+
+    final StringBuilder builder = new StringBuilder(name.length() + 16).append(name, 0, i);
+
+    for (; i < name.length(); ++i) {
+      final char c = name.charAt(i);
+      final String escaped = escape(c);
+
+      if (escaped != null) {
+        builder.append(escaped);
+      } else {
+        builder.append(c);
+      }
+    }
+
+    return builder.toString();
+  }
+
+  private static String escaped(final String name, final int position) {
+    if (name.startsWith(DOT, position)) {
+      return DOT;
+    }
+
+    if (name.startsWith(SLASH, position)) {
+      return SLASH;
+    }
+
+    return name.startsWith(DOLLAR, position) ? DOLLAR : null;
   }
 
   /**
@@ -73,7 +124,7 @@ public class Util {
    * @since 4.1
    */
   public static JsonObject fromMongoDB(final JsonObject json) {
-    return transformFieldNames(json, Util::unescapeFieldName).build();
+    return transformKeys(json, Util::unescapeFieldName);
   }
 
   static Optional<String> key(final JsonObject expression) {
@@ -87,7 +138,7 @@ public class Util {
   }
 
   static JsonValue toArray(final Stream<JsonValue> values) {
-    return values.reduce(createArrayBuilder(), JsonArrayBuilder::add, (b1, b2) -> b1).build();
+    return NumberArrays.of(values.toArray(JsonValue[]::new));
   }
 
   /**
@@ -99,7 +150,64 @@ public class Util {
    * @since 4.1
    */
   public static JsonObject toMongoDB(final JsonObject json) {
-    return transformFieldNames(json, Util::escapeFieldName).build();
+    return transformKeys(json, Util::escapeFieldName);
+  }
+
+  private static JsonValue transformKeys(final JsonArray array, final UnaryOperator<String> op) {
+    JsonValue[] result = null;
+
+    for (int i = 0; i < array.size(); ++i) {
+      final JsonValue value = array.get(i);
+      final JsonValue transformed = transformKeys(value, op);
+
+      if (transformed != value && result == null) {
+        result = array.toArray(new JsonValue[0]);
+      }
+
+      if (result != null) {
+        result[i] = transformed;
+      }
+    }
+
+    return result != null ? NumberArrays.of(result) : array;
+  }
+
+  /**
+   * Transforms the keys in one pass over the tree. Objects and arrays in which nothing changes are
+   * returned as such, so a document without special keys isn't copied at all.
+   */
+  private static JsonObject transformKeys(final JsonObject json, final UnaryOperator<String> op) {
+    final String[] keys = new String[json.size()];
+    final JsonValue[] values = new JsonValue[keys.length];
+    boolean changed = false;
+    int i = 0;
+
+    for (Map.Entry<String, JsonValue> e : json.entrySet()) {
+      keys[i] = op.apply(e.getKey());
+      values[i] = transformKeys(e.getValue(), op);
+      changed |= !keys[i].equals(e.getKey()) || values[i] != e.getValue();
+      ++i;
+    }
+
+    if (!changed) {
+      return json;
+    }
+
+    final CompactJsonObject.Builder builder = new CompactJsonObject.Builder(keys.length);
+
+    for (int j = 0; j < keys.length; ++j) {
+      builder.add(keys[j], values[j]);
+    }
+
+    return builder.build();
+  }
+
+  private static JsonValue transformKeys(final JsonValue value, final UnaryOperator<String> op) {
+    return switch (value.getValueType()) {
+      case ARRAY -> transformKeys(value.asJsonArray(), op);
+      case OBJECT -> transformKeys(value.asJsonObject(), op);
+      default -> value;
+    };
   }
 
   private static int typeValue(final JsonValue value) {
@@ -138,8 +246,44 @@ public class Util {
     return MAX_VALUE;
   }
 
+  private static char unescape(final String escaped) {
+    return switch (escaped) {
+      case DOT -> '.';
+      case SLASH -> '/';
+      default -> '$';
+    };
+  }
+
+  /**
+   * Unescapes a field name in one scan. The name itself is returned when there is nothing to
+   * unescape.
+   *
+   * @param name the field name.
+   * @return The unescaped field name.
+   * @see #fromMongoDB(JsonObject)
+   */
   public static String unescapeFieldName(final String name) {
-    return name.replace(DOT, ".").replace(SLASH, "/").replace(DOLLAR, "$");
+    StringBuilder builder = null;
+    int copied = 0;
+    int i = name.indexOf('_');
+
+    while (i != -1) {
+      final String escaped = escaped(name, i);
+
+      if (escaped != null) {
+        if (builder == null) {
+          builder = new StringBuilder(name.length());
+        }
+
+        builder.append(name, copied, i).append(unescape(escaped));
+        copied = i + escaped.length();
+        i = name.indexOf('_', copied);
+      } else {
+        i = name.indexOf('_', i + 1);
+      }
+    }
+
+    return builder != null ? builder.append(name, copied, name.length()).toString() : name;
   }
 
   static Pair<JsonValue, Boolean> unwrapTrace(final JsonValue expression) {
@@ -0,0 +1,95 @@
+package net.pincette.mongo;
+
+import static java.lang.Runtime.getRuntime;
+
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+
+/**
+ * Options for validation processors.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ * @see Validator#processor(java.util.function.Function, ValidationOptions)
+ */
+public class ValidationOptions {
+  public final String errorsField;
+  public final Executor executor;
+  public final BiConsumer<JsonObject, JsonArray> invalid;
+  public final boolean ordered;
+  public final int parallelism;
+
+  public ValidationOptions() {
+    this("_errors", null, null, true, getRuntime().availableProcessors());
+  }
+
+  private ValidationOptions(
+      final String errorsField,
+      final Executor executor,
+      final BiConsumer<JsonObject, JsonArray> invalid,
+      final boolean ordered,
+      final int parallelism) {
+    this.errorsField = errorsField;
+    this.executor = executor;
+    this.invalid = invalid;
+    this.ordered = ordered;
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * The field in which the errors are added to an invalid document. The default is <code>_errors
+   * </code>. It is not used when there is a consumer for invalid documents.
+   *
+   * @param errorsField the field name.
+   * @return A new options object.
+   */
+  public ValidationOptions withErrorsField(final String errorsField) {
+    return new ValidationOptions(errorsField, executor, invalid, ordered, parallelism);
+  }
+
+  /**
+   * The executor on which the documents are validated. The default is the common fork/join pool.
+   *
+   * @param executor the executor.
+   * @return A new options object.
+   */
+  public ValidationOptions withExecutor(final Executor executor) {
+    return new ValidationOptions(errorsField, executor, invalid, ordered, parallelism);
+  }
+
+  /**
+   * A consumer that receives the invalid documents together with their errors. Those documents are
+   * then not emitted. The consumer may be called from several threads at the same time.
+   *
+   * @param invalid the consumer.
+   * @return A new options object.
+   */
+  public ValidationOptions withInvalid(final BiConsumer<JsonObject, JsonArray> invalid) {
+    return new ValidationOptions(errorsField, executor, invalid, ordered, parallelism);
+  }
+
+  /**
+   * Indicates whether the documents are emitted in the order they came in, which is the default.
+   * Otherwise they are emitted as soon as they are validated.
+   *
+   * @param ordered the ordering flag.
+   * @return A new options object.
+   */
+  public ValidationOptions withOrdered(final boolean ordered) {
+    return new ValidationOptions(errorsField, executor, invalid, ordered, parallelism);
+  }
+
+  /**
+   * The maximum number of documents that are validated at the same time. This is also the number
+   * of documents that are requested ahead from the publisher. The default is the number of
+   * available processors.
+   *
+   * @param parallelism the number of documents.
+   * @return A new options object.
+   */
+  public ValidationOptions withParallelism(final int parallelism) {
+    return new ValidationOptions(errorsField, executor, invalid, ordered, parallelism);
+  }
+}
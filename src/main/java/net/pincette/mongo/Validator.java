@@ -1,9 +1,16 @@
 package net.pincette.mongo;
 
+import static java.lang.Math.ceilDiv;
+import static java.lang.Math.min;
+import static java.lang.Runtime.getRuntime;
 import static java.util.Optional.ofNullable;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+import static java.util.stream.Collectors.toSet;
 import static java.util.stream.Stream.concat;
 import static java.util.stream.Stream.empty;
 import static java.util.stream.Stream.of;
+import static javax.json.Json.createDiff;
+import static net.pincette.json.JsonUtil.asString;
 import static net.pincette.json.JsonUtil.add;
 import static net.pincette.json.JsonUtil.arrayValue;
 import static net.pincette.json.JsonUtil.createArrayBuilder;
@@ -28,7 +35,6 @@ import static net.pincette.util.Collections.set;
 import static net.pincette.util.Or.tryWith;
 import static net.pincette.util.Pair.pair;
 import static net.pincette.util.StreamUtil.rangeExclusive;
-import static net.pincette.util.StreamUtil.zip;
 import static net.pincette.util.Util.getLastSegment;
 import static net.pincette.util.Util.getParent;
 
@@ -39,17 +45,24 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow.Processor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 import javax.json.JsonArray;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
+import javax.json.JsonPatch;
 import javax.json.JsonValue;
 import net.pincette.json.JsonUtil;
 import net.pincette.json.Transform.JsonEntry;
 import net.pincette.json.Transform.Transformer;
+import net.pincette.util.Cases;
 import net.pincette.util.Pair;
 
 /**
@@ -144,6 +157,8 @@ import net.pincette.util.Pair;
  * @see Expression
  */
 public class Validator {
+  private static final Predicate<String> ALL = path -> true;
+  private static final String AND = "$and";
   private static final String CODE = "$code";
   private static final String COMMENT = "$comment";
   private static final String CONDITIONS = "conditions";
@@ -151,9 +166,15 @@ public class Validator {
   private static final String ERROR_CODE = "code";
   private static final String ERROR_LOCATION = "location";
   private static final String EXISTS = "$exists";
+  private static final String EXPR = "$expr";
   private static final String INCLUDE = "include";
+  private static final String JQ = "$jq";
+  private static final String JSLT = "$jslt";
+  private static final String LITERAL = "$literal";
   private static final String LOCATION = "$location";
   private static final String MACROS = "macros";
+  private static final String NOR = "$nor";
+  private static final String OR = "$or";
   private static final String REF = "ref";
   private static final String TITLE = "title";
   private static final Set<String> REMOVE = set(COMMENT, DESCRIPTION, TITLE);
@@ -161,9 +182,14 @@ public class Validator {
       new Transformer(
           entry -> getLastSegment(entry.path, ".").map(REMOVE::contains).orElse(false),
           entry -> Optional.empty());
+  private static final ThreadLocal<Boolean> IN_CHUNK = ThreadLocal.withInitial(() -> false);
   private final Map<JsonObject, Condition> conditionCache = new HashMap<>();
   private final Features features;
+  private Executor parallelExecutor;
+  private int parallelThreshold;
   private Resolver resolver;
+  private SourceResolver sourceResolver;
+  private SpecificationStore store;
 
   public Validator() {
     this(null);
@@ -190,7 +216,12 @@ public class Validator {
    */
   public Validator(final Features features, final Resolver resolver) {
     this.features = features;
-    setResolver(resolver != null ? resolver : new SourceResolver()::resolve);
+
+    if (resolver == null) {
+      sourceResolver = new SourceResolver();
+    }
+
+    setResolver(resolver != null ? resolver : sourceResolver::resolve);
   }
 
   private static Transformer arrayExpander(final JsonObject macros) {
@@ -225,19 +256,21 @@ public class Validator {
     final String field = getField(condition);
     final String conditionPath = ofNullable(field).map(JsonUtil::toJsonPointer).orElse("");
     final boolean isExists = field != null && isExists(condition.get(field));
+    final Set<String> dependencies = dependencies(strip(condition), features);
     final Predicate<JsonObject> test = predicate(strip(condition), features);
 
-    return (json, path) ->
-        Optional.of(testObject(json, path, conditionPath))
-                .map(
-                    j ->
-                        (!conditionPath.isEmpty() && !parentExists(json, path))
-                            || (conditionPath.isEmpty() && getValue(json, path).isEmpty())
-                            || (!conditionPath.isEmpty()
-                                && !isExists
-                                && getValue(j, conditionPath).isEmpty())
-                            || test.test(testObject(json, path, conditionPath)))
-                .orElse(false)
+    return (json, path, changed) ->
+        !isAffected(path, conditionPath, dependencies, changed)
+                || Optional.of(testObject(json, path, conditionPath))
+                    .map(
+                        j ->
+                            (!conditionPath.isEmpty() && !parentExists(json, path))
+                                || (conditionPath.isEmpty() && getValue(json, path).isEmpty())
+                                || (!conditionPath.isEmpty()
+                                    && !isExists
+                                    && getValue(j, conditionPath).isEmpty())
+                                || test.test(testObject(json, path, conditionPath)))
+                    .orElse(false)
             ? empty()
             : of(createError(path, code));
   }
@@ -250,6 +283,16 @@ public class Validator {
         .build();
   }
 
+  private static Set<String> dependencies(final JsonObject query, final Features features) {
+    return features != null && features.expressionResolver != null
+        ? set("")
+        : queryDependencies(query, features).collect(toSet());
+  }
+
+  private static JsonArray errors(final Stream<JsonValue> errors) {
+    return errors.reduce(createArrayBuilder(), JsonArrayBuilder::add, (b1, b2) -> b1).build();
+  }
+
   private static JsonValue expand(final JsonValue value, final JsonObject macros) {
     return getMacroRef(value).flatMap(ref -> getValue(macros, "/" + ref)).orElse(value);
   }
@@ -267,10 +310,46 @@ public class Validator {
         entry -> Optional.of(new JsonEntry(entry.path, expand(entry.value, macros))));
   }
 
+  private static Stream<String> expressionDependencies(
+      final JsonValue expression, final Features features) {
+    return switch (expression.getValueType()) {
+      case ARRAY ->
+          expression.asJsonArray().stream().flatMap(v -> expressionDependencies(v, features));
+      case OBJECT ->
+          expression.asJsonObject().entrySet().stream()
+              .flatMap(e -> expressionDependencies(e.getKey(), e.getValue(), features));
+      case STRING -> fieldDependency(asString(expression).getString());
+      default -> empty();
+    };
+  }
+
+  private static Stream<String> expressionDependencies(
+      final String operator, final JsonValue value, final Features features) {
+    return switch (operator) {
+      case LITERAL -> empty();
+      case JQ, JSLT -> of("");
+      default ->
+          features != null
+                  && features.expressionExtensions != null
+                  && features.expressionExtensions.containsKey(operator)
+              ? of("")
+              : expressionDependencies(value, features);
+    };
+  }
+
   private static Transformer expanders(final JsonObject macros) {
     return !macros.isEmpty() ? arrayExpander(macros).thenApply(expander(macros)) : nopTransformer();
   }
 
+  private static Stream<String> fieldDependency(final String s) {
+    return Cases.<String, Stream<String>>withValue(s)
+        .or(v -> v.startsWith("$$ROOT") || v.startsWith("$$CURRENT"), v -> of(""))
+        .or(v -> v.startsWith("$$"), v -> empty())
+        .or(v -> v.startsWith("$") && v.length() > 1, v -> of(toJsonPointer(v.substring(1))))
+        .get()
+        .orElseGet(Stream::empty);
+  }
+
   private static String getField(final JsonObject condition) {
     return condition.keySet().stream().filter(k -> !k.startsWith("$")).findFirst().orElse(null);
   }
@@ -310,6 +389,18 @@ public class Validator {
         .orElse(false);
   }
 
+  private static <T> T inChunk(final Supplier<T> evaluate) {
+    final boolean previous = IN_CHUNK.get();
+
+    IN_CHUNK.set(true);
+
+    try {
+      return evaluate.get();
+    } finally {
+      IN_CHUNK.set(previous);
+    }
+  }
+
   private static JsonObject include(
       final JsonObject json, final Resolver resolver, final String context) {
     final Pair<Stream<JsonValue>, JsonObject> included = loadIncluded(json, resolver, context);
@@ -322,6 +413,20 @@ public class Validator {
         .build();
   }
 
+  private static boolean isAffected(
+      final String path,
+      final String conditionPath,
+      final Set<String> dependencies,
+      final Predicate<String> changed) {
+    if (changed == ALL) {
+      return true;
+    }
+
+    final String base = parentPath(path, conditionPath).orElse("");
+
+    return dependencies.stream().anyMatch(d -> changed.test(base + d));
+  }
+
   private static boolean isConditions(final JsonValue value) {
     return isObject(value) && value.asJsonObject().containsKey(CONDITIONS);
   }
@@ -360,6 +465,16 @@ public class Validator {
     return ofNullable(specification.getJsonObject(MACROS)).orElseGet(JsonUtil::emptyObject);
   }
 
+  private static Stream<JsonObject> objects(final JsonValue value) {
+    if (isObject(value)) {
+      return concat(
+          of(value.asJsonObject()),
+          value.asJsonObject().values().stream().flatMap(Validator::objects));
+    }
+
+    return isArray(value) ? value.asJsonArray().stream().flatMap(Validator::objects) : empty();
+  }
+
   private static boolean parentExists(final JsonValue json, final String path) {
     final String parent = getParent(path, "/");
 
@@ -374,6 +489,26 @@ public class Validator {
         .map(i -> path.substring(0, i));
   }
 
+  private static Stream<String> queryDependencies(
+      final JsonObject query, final Features features) {
+    return query.entrySet().stream()
+        .flatMap(e -> queryDependencies(e.getKey(), e.getValue(), features));
+  }
+
+  private static Stream<String> queryDependencies(
+      final String key, final JsonValue value, final Features features) {
+    return switch (key) {
+      case AND, NOR, OR ->
+          arrayValue(value).stream()
+              .flatMap(JsonArray::stream)
+              .filter(JsonUtil::isObject)
+              .flatMap(v -> queryDependencies(v.asJsonObject(), features));
+      case COMMENT -> empty();
+      case EXPR -> expressionDependencies(value, features);
+      default -> key.startsWith("$") ? of("") : of(toJsonPointer(key));
+    };
+  }
+
   private static Transformer refResolver(final Resolver resolver, final String context) {
     return new Transformer(
         entry -> isRef(entry.value),
@@ -418,11 +553,26 @@ public class Validator {
         .orElse(json);
   }
 
+  private static JsonObject validated(
+      final JsonObject json, final JsonArray errors, final ValidationOptions options) {
+    if (errors.isEmpty()) {
+      return json;
+    }
+
+    if (options.invalid != null) {
+      options.invalid.accept(json, errors);
+
+      return null;
+    }
+
+    return createObjectBuilder(json).add(options.errorsField, errors).build();
+  }
+
   private Condition condition(final JsonObject condition) {
     final Condition c =
         computeIfAbsent(conditionCache, condition, k -> generateCondition(k, features));
 
-    return (json, path) -> c.apply(json, getPath(condition, path));
+    return (json, path, changed) -> c.apply(json, getPath(condition, path), changed);
   }
 
   private Condition conditions(final String field, final JsonValue value) {
@@ -431,26 +581,72 @@ public class Validator {
         : conditionArray(field, value.asJsonArray());
   }
 
+  private static Stream<JsonValue> conditionArray(
+      final JsonObject json,
+      final String path,
+      final JsonArray values,
+      final int start,
+      final int end,
+      final Condition conditions,
+      final Predicate<String> changed) {
+    return rangeExclusive(start, end)
+        .map(i -> pair(i, path + "/" + i))
+        .filter(pair -> isObject(values.get(pair.first)) && changed.test(pair.second))
+        .flatMap(pair -> conditions.apply(json, pair.second, changed));
+  }
+
   private Condition conditionArray(final String field, final JsonArray array) {
     final Condition conditions = conditionsObject(array.getFirst().asJsonObject());
 
-    return (json, path) ->
+    return (json, path, changed) ->
         getArray(json, toJsonPointer(field))
             .map(
                 values ->
-                    zip(values.stream(), rangeExclusive(0, values.size()))
-                        .flatMap(
-                            pair ->
-                                isObject(pair.first)
-                                    ? conditions.apply(json, path + "/" + pair.second)
-                                    : empty()))
+                    parallelThreshold > 0
+                            && values.size() >= parallelThreshold
+                            && !IN_CHUNK.get()
+                        ? conditionArrayParallel(json, path, values, conditions, changed)
+                        : conditionArray(
+                            json, path, values, 0, values.size(), conditions, changed))
             .orElseGet(Stream::empty);
   }
 
+  private Stream<JsonValue> conditionArrayParallel(
+      final JsonObject json,
+      final String path,
+      final JsonArray values,
+      final Condition conditions,
+      final Predicate<String> changed) {
+    final Executor executor = ofNullable(parallelExecutor).orElseGet(ForkJoinPool::commonPool);
+    final int size = values.size();
+    final int chunk = ceilDiv(size, parallelism(executor));
+    final Function<Integer, List<JsonValue>> evaluate =
+        i ->
+            inChunk(
+                () ->
+                    conditionArray(
+                            json,
+                            path,
+                            values,
+                            i * chunk,
+                            min(size, (i + 1) * chunk),
+                            conditions,
+                            changed)
+                        .toList());
+    final List<CompletableFuture<List<JsonValue>>> chunks =
+        rangeExclusive(1, ceilDiv(size, chunk))
+            .map(i -> supplyAsync(() -> evaluate.apply(i), executor))
+            .toList();
+    final List<JsonValue> first = evaluate.apply(0);
+
+    return concat(first.stream(), chunks.stream().flatMap(c -> c.join().stream()));
+  }
+
   private Condition conditionsObject(final JsonObject conditions) {
     final List<Condition> c = getObjects(conditions, CONDITIONS).map(this::condition).toList();
 
-    return (json, path) -> c.stream().flatMap(condition -> condition.apply(json, path));
+    return (json, path, changed) ->
+        c.stream().flatMap(condition -> condition.apply(json, path, changed));
   }
 
   private Condition generateCondition(final JsonObject condition, final Features features) {
@@ -498,6 +694,15 @@ public class Validator {
    * @since 2.2
    */
   public JsonObject load(final String source, final String context) {
+    return store != null
+        ? store.get(
+            ofNullable(context).orElse("") + "\n" + source,
+            resolver,
+            r -> load(source, context, r))
+        : load(source, context, resolver);
+  }
+
+  static JsonObject load(final String source, final String context, final Resolver resolver) {
     return resolver
         .apply(source, context)
         .map(resolved -> resolve(resolved.specification, resolver, resolved.source))
@@ -541,6 +746,94 @@ public class Validator {
     return resolve(specification, resolver, context);
   }
 
+  /**
+   * Drops the cached contents of <code>source</code> from the default resolver, if that is the one
+   * being used.
+   *
+   * @param source the resolved source.
+   */
+  void invalidate(final String source) {
+    if (sourceResolver != null) {
+      sourceResolver.invalidate(source);
+    }
+  }
+
+  private static int parallelism(final Executor executor) {
+    return executor instanceof ForkJoinPool pool
+        ? pool.getParallelism()
+        : getRuntime().availableProcessors();
+  }
+
+  /**
+   * Creates a processor that validates the documents coming from a publisher. The documents are
+   * validated in parallel on an executor. The number of documents that are requested ahead is
+   * bounded by the parallelism, so the backpressure of the subscriber is respected. Valid documents
+   * are emitted unchanged. Invalid documents either get their errors in an extra field or are sent
+   * to a consumer instead of being emitted.
+   *
+   * @param validator the validator function.
+   * @param options the options. It may be <code>null</code>, in which case the defaults are used.
+   * @return The processor.
+   * @since 4.4
+   */
+  public static Processor<JsonObject, JsonObject> processor(
+      final Function<JsonObject, JsonArray> validator, final ValidationOptions options) {
+    final ValidationOptions o = ofNullable(options).orElseGet(ValidationOptions::new);
+
+    return new AsyncMapper<>(
+        json -> validated(json, validator.apply(json), o),
+        ofNullable(o.executor).orElseGet(ForkJoinPool::commonPool),
+        o.parallelism,
+        o.ordered);
+  }
+
+  /**
+   * Lets the conditions for the elements of an array be evaluated in parallel when the array has
+   * at least <code>threshold</code> elements. The array is split in as many chunks as the
+   * executor can run in parallel. The first chunk is evaluated on the calling thread. Arrays that
+   * are nested in a chunk are evaluated sequentially, so tasks never wait for other tasks on the
+   * same executor. The errors are always returned in the order of the elements, so the result is
+   * the same as with sequential evaluation.
+   *
+   * @param threshold the minimum array size for parallel evaluation. A value smaller than 1 turns
+   *     it off, which is the default.
+   * @param executor the executor that evaluates the chunks. It may be <code>null</code>, in which
+   *     case the common fork/join pool is used. An executor that creates a virtual thread per task
+   *     can also be used.
+   * @since 4.4
+   */
+  public void setParallelArrays(final int threshold, final Executor executor) {
+    this.parallelThreshold = threshold;
+    this.parallelExecutor = executor;
+  }
+
+  /**
+   * Writes the specification store to its file if anything has changed since it was loaded or
+   * saved last. Nothing happens when there is no store.
+   *
+   * @since 4.4
+   */
+  public void saveSpecificationStore() {
+    if (store != null) {
+      store.save();
+    }
+  }
+
+  Resolver resolver() {
+    return resolver;
+  }
+
+  /**
+   * Drops the cached conditions that don't occur in any of the given resolved specifications.
+   *
+   * @param specifications the specifications that are still in use.
+   */
+  void retainConditions(final Stream<JsonObject> specifications) {
+    final Set<JsonObject> used = specifications.flatMap(Validator::objects).collect(toSet());
+
+    conditionCache.keySet().retainAll(used);
+  }
+
   /**
    * Sets the include resolver.
    *
@@ -551,6 +844,19 @@ public class Validator {
     this.resolver = resolver;
   }
 
+  /**
+   * Keeps the resolved specifications that are loaded by source in <code>file</code>. When the file
+   * already exists, its specifications are used as long as none of the sources they were made of
+   * has changed. This avoids resolving large specification sets with many includes and references
+   * at every start. Call {@link #saveSpecificationStore()} to write the file.
+   *
+   * @param file the file. It may be <code>null</code>, which turns off the store.
+   * @since 4.4
+   */
+  public void setSpecificationStore(final File file) {
+    store = file != null ? new SpecificationStore(file) : null;
+  }
+
   /**
    * Generates a validator with either a filename or a class path resource, in which case <code>
    * source</code> should start with "resource:".
@@ -561,7 +867,7 @@ public class Validator {
    * @since 1.3
    */
   public Function<JsonObject, JsonArray> validator(final String source) {
-    return validator(load(source));
+    return compiled(load(source));
   }
 
   /**
@@ -573,16 +879,93 @@ public class Validator {
    * @since 1.4.1
    */
   public Function<JsonObject, JsonArray> validator(final JsonObject specification) {
-    final Condition conditions = conditionsObject(resolve(specification));
+    return compiled(resolve(specification));
+  }
+
+  /**
+   * Compiles a specification that has already been resolved.
+   *
+   * @param specification the resolved validation specification.
+   * @return The validator function.
+   */
+  Function<JsonObject, JsonArray> compiled(final JsonObject specification) {
+    final Condition conditions = conditionsObject(specification);
+
+    return json -> errors(conditions.apply(json, "", ALL));
+  }
 
-    return json ->
-        conditions
-            .apply(json, "")
-            .reduce(createArrayBuilder(), JsonArrayBuilder::add, (b1, b2) -> b1)
-            .build();
+  /**
+   * Generates an incremental validator with either a filename or a class path resource, in which
+   * case <code>source</code> should start with "resource:".
+   *
+   * @param source the validation specification.
+   * @return The incremental validator.
+   * @see #incrementalValidator(JsonObject)
+   * @since 4.4
+   */
+  public Incremental incrementalValidator(final String source) {
+    return incrementalCompiled(load(source));
   }
 
-  private interface Condition extends BiFunction<JsonObject, String, Stream<JsonValue>> {}
+  /**
+   * Generates an incremental validator with the specification. It will be resolved first. It only
+   * evaluates the conditions that depend on a path that was touched by the patch. The dependencies
+   * of a condition are its fields and the fields that are referred to in <code>$expr</code>
+   * expressions. A condition that uses <code>$$ROOT</code>, <code>$jq</code>, <code>$jslt</code>,
+   * an extension or an unknown query operator depends on the whole object it is applied to. When
+   * elements are inserted in or removed from an array, all elements that shift are considered to
+   * be touched.
+   *
+   * @param specification the validation specification.
+   * @return The incremental validator.
+   * @since 4.4
+   */
+  public Incremental incrementalValidator(final JsonObject specification) {
+    return incrementalCompiled(resolve(specification));
+  }
+
+  private Incremental incrementalCompiled(final JsonObject specification) {
+    final Condition conditions = conditionsObject(specification);
+
+    return (previous, patch, next) ->
+        errors(conditions.apply(next, "", new PatchedPaths(previous, patch, next)));
+  }
+
+  private interface Condition {
+    Stream<JsonValue> apply(JsonObject json, String path, Predicate<String> changed);
+  }
+
+  /**
+   * A validator that only checks what has changed. The previous version of the document is
+   * supposed to be valid.
+   *
+   * @since 4.4
+   */
+  @FunctionalInterface
+  public interface Incremental {
+    /**
+     * Validates a new version of a document.
+     *
+     * @param previous the previous version of the document, which was valid.
+     * @param patch the JSON patch that transforms <code>previous</code> into <code>next</code>.
+     * @param next the new version of the document.
+     * @return An array with the fields <code>location</code>, which is a JSON pointer, and <code>
+     *     code</code>, which is the value of the <code>$code</code> field in the specification.
+     */
+    JsonArray apply(JsonObject previous, JsonPatch patch, JsonObject next);
+
+    /**
+     * Validates a new version of a document. The patch is calculated first.
+     *
+     * @param previous the previous version of the document, which was valid.
+     * @param next the new version of the document.
+     * @return An array with the fields <code>location</code>, which is a JSON pointer, and <code>
+     *     code</code>, which is the value of the <code>$code</code> field in the specification.
+     */
+    default JsonArray apply(final JsonObject previous, final JsonObject next) {
+      return apply(previous, createDiff(previous, next), next);
+    }
+  }
 
   /**
    * The first argument of the function is the source that has to be resolved. The second argument
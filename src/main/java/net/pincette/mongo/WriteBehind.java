@@ -0,0 +1,261 @@
+package net.pincette.mongo;
+
+import static java.util.concurrent.CompletableFuture.allOf;
+import static java.util.concurrent.CompletableFuture.completedStage;
+import static java.util.concurrent.CompletableFuture.delayedExecutor;
+import static java.util.concurrent.CompletableFuture.failedFuture;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static net.pincette.util.Util.tryToGet;
+
+import com.mongodb.reactivestreams.client.MongoCollection;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import org.bson.Document;
+
+/**
+ * Delays the updates of documents, so that several updates of the same document within the delay
+ * become one write. Only the latest version of a document is kept. When all the updates of a
+ * document within the delay are given as a source and a target, only the differences between the
+ * first source and the last target are written, through {@link Patch#updateOperators(JsonObject,
+ * javax.json.JsonArray)}. Otherwise the latest version replaces the document.
+ *
+ * <p>A pending version is written at most the delay after its first update. There is at most one
+ * write per document at a time, so the versions of a document are written in order. When updates
+ * arrive during a write, they are written right after it. The stage returned by an update
+ * completes when the version that includes the update has been written. When a write of
+ * differences fails, the next pending version of the document replaces it entirely.
+ *
+ * @author Werner Donné
+ * @since 4.4
+ */
+public class WriteBehind implements AutoCloseable {
+  private static final String ID = "_id";
+
+  private final Executor delayExecutor;
+  private final Map<JsonValue, Entry> entries = new HashMap<>();
+  private final BiFunction<JsonObject, JsonObject, CompletionStage<Boolean>> writer;
+  private boolean closed;
+
+  /**
+   * Creates a write-behind layer for a collection.
+   *
+   * @param collection the MongoDB collection.
+   * @param delay the maximum time an update waits before it is written.
+   */
+  public WriteBehind(final MongoCollection<Document> collection, final Duration delay) {
+    this(
+        (source, target) ->
+            source != null
+                ? JsonClient.update(collection, source, target)
+                : JsonClient.update(collection, target, target.get(ID), null),
+        delay);
+  }
+
+  /**
+   * Creates a write-behind layer with a function that does the writes.
+   *
+   * @param writer the function that receives the source and the target. The source is <code>null
+   *     </code> when the target should replace the document.
+   * @param delay the maximum time an update waits before it is written.
+   */
+  WriteBehind(
+      final BiFunction<JsonObject, JsonObject, CompletionStage<Boolean>> writer,
+      final Duration delay) {
+    this.writer = writer;
+    this.delayExecutor = delayedExecutor(delay.toMillis(), MILLISECONDS);
+  }
+
+  private static CompletableFuture<Boolean> ignoreFailure(final CompletableFuture<Boolean> f) {
+    return f.exceptionally(e -> false);
+  }
+
+  private synchronized CompletionStage<Boolean> add(
+      final JsonValue id, final JsonObject source, final JsonObject target) {
+    if (closed) {
+      return failedFuture(new IllegalStateException("The write-behind layer is closed."));
+    }
+
+    if (id == null) {
+      return failedFuture(new IllegalArgumentException("The document has no " + ID + " field."));
+    }
+
+    final Entry entry = entries.computeIfAbsent(id, k -> new Entry());
+
+    if (entry.pending != null) {
+      entry.pending = entry.pending.merge(source, target);
+    } else {
+      entry.pending = new Version(source, target, new CompletableFuture<>());
+
+      if (entry.inFlight == null) {
+        delayExecutor.execute(() -> write(id, entry));
+      }
+    }
+
+    return entry.pending.result;
+  }
+
+  /** Writes the pending versions and waits until all of them have been written. */
+  public void close() {
+    synchronized (this) {
+      closed = true;
+    }
+
+    flush().toCompletableFuture().join();
+  }
+
+  private void completed(final JsonValue id, final Entry entry, final boolean failed) {
+    final boolean next;
+
+    synchronized (this) {
+      entry.inFlight = null;
+      next = entry.pending != null;
+
+      if (!next) {
+        entries.remove(id);
+      } else if (failed) {
+        entry.pending = entry.pending.asReplacement();
+      }
+    }
+
+    if (next) {
+      write(id, entry);
+    }
+  }
+
+  /**
+   * Writes all pending versions now.
+   *
+   * @return The stage that completes when all pending and ongoing writes have finished. It
+   *     doesn't fail when some writes fail. The callers of those writes get the exceptions.
+   */
+  public CompletionStage<Void> flush() {
+    final List<CompletableFuture<Boolean>> results = new ArrayList<>();
+    final Map<JsonValue, Entry> pending = new HashMap<>();
+
+    synchronized (this) {
+      entries.forEach(
+          (id, entry) -> {
+            if (entry.inFlight != null) {
+              results.add(ignoreFailure(entry.inFlight));
+            }
+
+            if (entry.pending != null) {
+              results.add(ignoreFailure(entry.pending.result));
+              pending.put(id, entry);
+            }
+          });
+    }
+
+    pending.forEach(this::write);
+
+    return allOf(results.toArray(CompletableFuture[]::new));
+  }
+
+  /**
+   * Takes the pending version of the document if there is no other write of it.
+   *
+   * @return The version to write or <code>null</code>.
+   */
+  private synchronized Version start(final Entry entry) {
+    if (entry.inFlight != null || entry.pending == null) {
+      return null;
+    }
+
+    final Version version = entry.pending;
+
+    entry.pending = null;
+    entry.inFlight = version.result;
+
+    return version;
+  }
+
+  /**
+   * Replaces or inserts <code>json</code> after the delay. The field <code>_id</code> is used as
+   * the key.
+   *
+   * @param json the new version of the document.
+   * @return The stage that completes when the version that includes this update has been written.
+   *     It tells whether the write was successful or not.
+   */
+  public CompletionStage<Boolean> update(final JsonObject json) {
+    return add(json.get(ID), null, json);
+  }
+
+  /**
+   * Updates the document with the differences between <code>source</code> and <code>target
+   * </code> after the delay. The field <code>_id</code> of <code>target</code> is used as the key.
+   *
+   * @param source the old version of the document.
+   * @param target the new version of the document.
+   * @return The stage that completes when the version that includes this update has been written.
+   *     It tells whether the write was successful or not.
+   */
+  public CompletionStage<Boolean> update(final JsonObject source, final JsonObject target) {
+    return add(target.get(ID), source, target);
+  }
+
+  /**
+   * Starts the write of the pending version if there is no other write of the document. The write
+   * itself is started outside the lock. A writer that throws fails the version.
+   */
+  private void write(final JsonValue id, final Entry entry) {
+    final Version version = start(entry);
+
+    if (version == null) {
+      return;
+    }
+
+    tryToGet(() -> version.write(writer), CompletableFuture::<Boolean>failedStage)
+        .orElseGet(() -> completedStage(false))
+        .whenComplete(
+            (result, e) -> {
+              if (e != null) {
+                version.result.completeExceptionally(e);
+              } else {
+                version.result.complete(result);
+              }
+
+              completed(id, entry, e != null || !Boolean.TRUE.equals(result));
+            });
+  }
+
+  private static class Entry {
+    private CompletableFuture<Boolean> inFlight;
+    private Version pending;
+  }
+
+  private static class Version {
+    private final CompletableFuture<Boolean> result;
+    private final JsonObject source;
+    private final JsonObject target;
+
+    private Version(
+        final JsonObject source, final JsonObject target, final CompletableFuture<Boolean> result) {
+      this.source = source;
+      this.target = target;
+      this.result = result;
+    }
+
+    private Version asReplacement() {
+      return new Version(null, target, result);
+    }
+
+    private Version merge(final JsonObject newSource, final JsonObject newTarget) {
+      return new Version(source != null && newSource != null ? source : null, newTarget, result);
+    }
+
+    private CompletionStage<Boolean> write(
+        final BiFunction<JsonObject, JsonObject, CompletionStage<Boolean>> writer) {
+      return writer.apply(source, target);
+    }
+  }
+}
@@ -101,6 +101,6 @@ class Zip {
       final int end,
       final int shortest,
       final List<JsonValue> defaults) {
-    return toArray(rangeExclusive(0, end).map(i -> value(values, i, defaults, shortest)));
+    return ArrayViews.generate(end, i -> value(values, i, defaults, shortest));
   }
 }
@@ -0,0 +1,108 @@
+package net.pincette.mongo;
+
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static net.pincette.util.StreamUtil.rangeExclusive;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow.Publisher;
+import java.util.concurrent.Flow.Subscriber;
+import java.util.concurrent.Flow.Subscription;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TestAdaptiveDemand {
+  private static List<Integer> run(final int count, final long budget, final List<Long> requests) {
+    final CompletableFuture<List<Integer>> result = new CompletableFuture<>();
+    final AdaptiveDemand<Integer> demand = new AdaptiveDemand<>(v -> 100, budget);
+
+    try (ExecutorService executor = newSingleThreadExecutor()) {
+      new Source(count, executor, requests).subscribe(demand);
+      demand.subscribe(
+          new Subscriber<>() {
+            private final List<Integer> values = new ArrayList<>();
+
+            public void onComplete() {
+              result.complete(values);
+            }
+
+            public void onError(final Throwable throwable) {
+              result.completeExceptionally(throwable);
+            }
+
+            public void onNext(final Integer item) {
+              values.add(item);
+            }
+
+            public void onSubscribe(final Subscription subscription) {
+              subscription.request(Long.MAX_VALUE);
+            }
+          });
+
+      return result.join();
+    }
+  }
+
+  @Test
+  @DisplayName("budget")
+  void budget() {
+    final List<Long> requests = new ArrayList<>();
+
+    assertEquals(rangeExclusive(0, 1000).toList(), run(1000, 1000, requests));
+    assertEquals(1, (long) requests.getFirst());
+    assertEquals(5, (long) requests.get(1));
+    assertTrue(requests.stream().allMatch(r -> r <= 5));
+  }
+
+  @Test
+  @DisplayName("grow")
+  void grow() {
+    final List<Long> requests = new ArrayList<>();
+
+    assertEquals(rangeExclusive(0, 100000).toList(), run(100000, 100000000, requests));
+    assertEquals(1, (long) requests.getFirst());
+    assertEquals(AdaptiveDemand.INITIAL_BATCH, (long) requests.get(1));
+    assertTrue(requests.getLast() > AdaptiveDemand.INITIAL_BATCH);
+  }
+
+  private static class Source implements Publisher<Integer> {
+    private final int count;
+    private final ExecutorService executor;
+    private final List<Long> requests;
+    private int next;
+
+    private Source(final int count, final ExecutorService executor, final List<Long> requests) {
+      this.count = count;
+      this.executor = executor;
+      this.requests = requests;
+    }
+
+    public void subscribe(final Subscriber<? super Integer> subscriber) {
+      subscriber.onSubscribe(
+          new Subscription() {
+            public void cancel() {
+              // Not used.
+            }
+
+            public void request(final long n) {
+              executor.execute(
+                  () -> {
+                    requests.add(n);
+
+                    for (long i = 0; i < n && next < count; ++i) {
+                      subscriber.onNext(next++);
+                    }
+
+                    if (next == count) {
+                      subscriber.onComplete();
+                    }
+                  });
+            }
+          });
+    }
+  }
+}
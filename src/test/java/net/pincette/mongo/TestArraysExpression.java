@@ -5,13 +5,29 @@ import static net.pincette.json.Factory.f;
 import static net.pincette.json.Factory.o;
 import static net.pincette.json.Factory.v;
 import static net.pincette.mongo.Expression.function;
+import static net.pincette.mongo.Util.toArray;
+import static net.pincette.util.StreamUtil.rangeExclusive;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import net.pincette.json.JsonUtil;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
 class TestArraysExpression {
+  private static boolean hasView(final JsonValue value) {
+    return switch (value) {
+      case ArrayViews.View view -> true;
+      case JsonArray array -> array.stream().anyMatch(TestArraysExpression::hasView);
+      case JsonObject object -> object.values().stream().anyMatch(TestArraysExpression::hasView);
+      default -> false;
+    };
+  }
+
   @Test
   @DisplayName("$arrayElemAt")
   void arrayElemAt() {
@@ -225,6 +241,79 @@ class TestArraysExpression {
                         o(f("test1", v(0)), f("test2", o(f("test3", v(1)), f("test4", v(2)))))))));
   }
 
+  @Test
+  @DisplayName("numeric arrays")
+  void numericArrays() {
+    final JsonObject json =
+        BsonUtil.fromBson(
+            BsonUtil.fromJson(
+                o(f("test", toArray(rangeExclusive(0, 100).map(JsonUtil::createValue))))));
+
+    assertEquals(
+        a(v(50), v(51), v(52)),
+        function(o(f("$slice", a(o(f("$range", a(v(0), v(100)))), v(50), v(3))))).apply(o()));
+    assertEquals(a(v(98), v(99)), function(o(f("$slice", a(v("$test"), v(-2))))).apply(json));
+    assertEquals(v(true), function(o(f("$in", a(v(42), v("$test"))))).apply(json));
+    assertEquals(v(false), function(o(f("$in", a(v(42.5), v("$test"))))).apply(json));
+    assertEquals(v(100), function(o(f("$size", v("$test")))).apply(json));
+  }
+
+  @Test
+  @DisplayName("array views")
+  void views() {
+    final JsonObject json = o(f("test1", a(v(0), v(1), v(2))), f("test2", a(v(3), v(4), v(5))));
+
+    assertEquals(
+        a(v(4), v(3), v(2)),
+        function(
+                o(
+                    f(
+                        "$slice",
+                        a(
+                            o(
+                                f(
+                                    "$reverseArray",
+                                    o(f("$concatArrays", a(v("$test1"), v("$test2")))))),
+                            v(1),
+                            v(3)))))
+            .apply(json));
+    assertEquals(
+        o(f("r", a(v(7), v(5), v(3)))),
+        function(o(f("r", o(f("$reverseArray", o(f("$range", a(v(1), v(9), v(2))))))))).apply(o()));
+    assertEquals(
+        a(a(v(0), v(3)), a(v(1), v(4))),
+        function(
+                o(
+                    f(
+                        "$zip",
+                        o(
+                            f(
+                                "inputs",
+                                a(
+                                    o(f("$slice", a(v("$test1"), v(2)))),
+                                    o(f("$slice", a(v("$test2"), v(2))))))))))
+            .apply(json));
+  }
+
+  @Test
+  @DisplayName("array views in built objects")
+  void viewsInBuiltObjects() {
+    final JsonObject json = o(f("test", a(v(0), v(1), v(2))));
+    final JsonObject slice = o(f("$slice", a(v("$test"), v(2))));
+    final JsonValue merged =
+        function(o(f("$mergeObjects", a(o(f("a", slice)), o(f("b", v(1))))))).apply(json);
+    final JsonValue toArray = function(o(f("$objectToArray", o(f("a", slice))))).apply(json);
+    final JsonValue toObject =
+        function(o(f("$arrayToObject", o(f("$objectToArray", o(f("a", slice))))))).apply(json);
+
+    assertEquals(o(f("a", a(v(0), v(1))), f("b", v(1))), merged);
+    assertFalse(hasView(merged));
+    assertEquals(a(o(f("k", v("a")), f("v", a(v(0), v(1))))), toArray);
+    assertFalse(hasView(toArray));
+    assertEquals(o(f("a", a(v(0), v(1)))), toObject);
+    assertFalse(hasView(toObject));
+  }
+
   @Test
   @DisplayName("$range")
   void range() {
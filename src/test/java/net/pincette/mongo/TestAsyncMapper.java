@@ -0,0 +1,175 @@
+package net.pincette.mongo;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static net.pincette.util.StreamUtil.rangeExclusive;
+import static net.pincette.util.Util.tryToDoRethrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow.Subscriber;
+import java.util.concurrent.Flow.Subscription;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TestAsyncMapper {
+  private static void await(final CountDownLatch latch) {
+    latch.countDown();
+    tryToDoRethrow(() -> latch.await(5, SECONDS));
+  }
+
+  private static CompletableFuture<List<Integer>> collect(
+      final AsyncMapper<Integer, Integer> mapper) {
+    final CompletableFuture<List<Integer>> result = new CompletableFuture<>();
+
+    mapper.subscribe(
+        new Subscriber<>() {
+          private final List<Integer> values = new ArrayList<>();
+          private Subscription subscription;
+
+          public void onComplete() {
+            result.complete(values);
+          }
+
+          public void onError(final Throwable throwable) {
+            result.completeExceptionally(throwable);
+          }
+
+          public void onNext(final Integer item) {
+            values.add(item);
+            subscription.request(1);
+          }
+
+          public void onSubscribe(final Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+          }
+        });
+
+    return result;
+  }
+
+  /**
+   * The first <code>parallelism</code> values wait for each other, after which all but the last one
+   * complete. The last one then waits with the next values until there are <code>parallelism
+   * </code> of them. This only happens when the mapper fills the free places again while a value is
+   * still in flight.
+   */
+  private static int peakConcurrency(final int parallelism, final boolean ordered) {
+    final AtomicInteger active = new AtomicInteger();
+    final CountDownLatch first = new CountDownLatch(parallelism);
+    final AtomicInteger peak = new AtomicInteger();
+    final CountDownLatch second = new CountDownLatch(parallelism);
+
+    try (final ExecutorService executor = newFixedThreadPool(parallelism * 2)) {
+      final AsyncMapper<Integer, Integer> mapper =
+          new AsyncMapper<>(
+              i -> {
+                if (i < parallelism) {
+                  await(first);
+                }
+
+                if (i >= parallelism - 1) {
+                  peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+                  await(second);
+                  active.decrementAndGet();
+                }
+
+                return i;
+              },
+              executor,
+              parallelism,
+              ordered);
+      final CompletableFuture<List<Integer>> result = collect(mapper);
+
+      try (final SubmissionPublisher<Integer> publisher = new SubmissionPublisher<>()) {
+        publisher.subscribe(mapper);
+        rangeExclusive(0, 100).forEach(publisher::submit);
+      }
+
+      assertEquals(100, result.join().size());
+    }
+
+    return peak.get();
+  }
+
+  @Test
+  @DisplayName("concurrency")
+  void concurrency() {
+    assertEquals(4, peakConcurrency(4, true));
+    assertEquals(4, peakConcurrency(4, false));
+  }
+
+  @Test
+  @DisplayName("error")
+  void error() {
+    try (final ExecutorService executor = newFixedThreadPool(2)) {
+      final AsyncMapper<Integer, Integer> mapper =
+          new AsyncMapper<>(
+              i -> {
+                if (i == 5) {
+                  throw new IllegalStateException();
+                }
+
+                return i;
+              },
+              executor,
+              4,
+              true);
+      final CompletableFuture<List<Integer>> result = collect(mapper);
+
+      try (final SubmissionPublisher<Integer> publisher = new SubmissionPublisher<>()) {
+        publisher.subscribe(mapper);
+        rangeExclusive(0, 10).forEach(publisher::submit);
+      }
+
+      assertTrue(result.handle((r, e) -> e instanceof IllegalStateException).join());
+    }
+  }
+
+  @Test
+  @DisplayName("order")
+  void order() {
+    final AtomicInteger active = new AtomicInteger();
+    final AtomicInteger peak = new AtomicInteger();
+    final CountDownLatch started = new CountDownLatch(4);
+
+    try (final ExecutorService executor = newFixedThreadPool(4)) {
+      final AsyncMapper<Integer, Integer> mapper =
+          new AsyncMapper<>(
+              i -> {
+                peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+
+                if (i < 4) {
+                  await(started);
+                } else if (i % 7 == 0) {
+                  Thread.yield();
+                }
+
+                active.decrementAndGet();
+
+                return i % 10 == 0 ? null : i * 2;
+              },
+              executor,
+              8,
+              true);
+      final CompletableFuture<List<Integer>> result = collect(mapper);
+
+      try (final SubmissionPublisher<Integer> publisher = new SubmissionPublisher<>()) {
+        publisher.subscribe(mapper);
+        rangeExclusive(0, 1000).forEach(publisher::submit);
+      }
+
+      assertEquals(
+          rangeExclusive(0, 1000).filter(i -> i % 10 != 0).map(i -> i * 2).toList(), result.join());
+      assertEquals(4, peak.get());
+    }
+  }
+}
@@ -0,0 +1,151 @@
+package net.pincette.mongo;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.failedFuture;
+import static net.pincette.json.Factory.f;
+import static net.pincette.json.Factory.o;
+import static net.pincette.json.Factory.v;
+import static net.pincette.util.StreamUtil.rangeExclusive;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.WriteModel;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TestBatchingWriter {
+  private static CompletionStage<BulkWriteResult> acknowledged(final List<Integer> ids) {
+    return completedFuture(
+        BulkWriteResult.acknowledged(ids.size(), 0, 0, 0, List.of(), List.of()));
+  }
+
+  private static boolean failedWith(
+      final CompletionStage<Boolean> result, final Class<? extends Throwable> type) {
+    return result.toCompletableFuture().handle((r, e) -> type.isInstance(e)).join();
+  }
+
+  private static int id(final WriteModel<BsonDocument> model) {
+    return ((InsertOneModel<BsonDocument>) model).getDocument().getInt32("_id").getValue();
+  }
+
+  private static List<CompletableFuture<Boolean>> insert(
+      final BatchingWriter writer, final int from, final int to) {
+    return rangeExclusive(from, to)
+        .map(i -> writer.insert(o(f("_id", v(i)))).toCompletableFuture())
+        .toList();
+  }
+
+  private static BatchingWriter writer(
+      final List<List<Integer>> batches,
+      final Function<List<Integer>, CompletionStage<BulkWriteResult>> write,
+      final int maxOperations,
+      final int maxBytes,
+      final Duration linger) {
+    return new BatchingWriter(
+        models -> {
+          final List<Integer> ids = models.stream().map(TestBatchingWriter::id).toList();
+
+          batches.add(ids);
+
+          return write.apply(ids);
+        },
+        maxOperations,
+        maxBytes,
+        linger);
+  }
+
+  @Test
+  @DisplayName("failure")
+  void failure() {
+    final List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+    final BatchingWriter writer =
+        writer(
+            batches,
+            ids -> {
+              if (ids.contains(1)) {
+                return failedFuture(
+                    new MongoBulkWriteException(
+                        BulkWriteResult.acknowledged(1, 0, 0, 0, List.of(), List.of()),
+                        List.of(
+                            new BulkWriteError(11000, "duplicate", new BsonDocument(), 1)),
+                        null,
+                        new ServerAddress(),
+                        Set.of()));
+              }
+
+              return ids.contains(5)
+                  ? failedFuture(new IllegalStateException())
+                  : acknowledged(ids);
+            },
+            3,
+            1000000,
+            Duration.ofHours(1));
+    final List<CompletableFuture<Boolean>> results = insert(writer, 0, 6);
+
+    writer.flush().toCompletableFuture().join();
+    assertTrue(results.get(0).join());
+    assertTrue(failedWith(results.get(1), MongoWriteException.class));
+    assertTrue(results.get(2).join());
+    results.subList(3, 6).forEach(r -> assertTrue(failedWith(r, IllegalStateException.class)));
+
+    final List<CompletableFuture<Boolean>> after = insert(writer, 6, 7);
+
+    writer.close();
+    assertTrue(after.getFirst().join());
+    assertEquals(List.of(List.of(0, 1, 2), List.of(2), List.of(3, 4, 5), List.of(6)), batches);
+    assertTrue(failedWith(writer.insert(o(f("_id", v(7)))), IllegalStateException.class));
+  }
+
+  @Test
+  @DisplayName("flush by size")
+  void flushBySize() {
+    final List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+    final BatchingWriter writer =
+        writer(batches, TestBatchingWriter::acknowledged, 3, 1000000, Duration.ofHours(1));
+    final List<CompletableFuture<Boolean>> results = insert(writer, 0, 7);
+
+    results.subList(0, 6).forEach(r -> assertTrue(r.join()));
+    assertFalse(results.get(6).isDone());
+    assertEquals(List.of(List.of(0, 1, 2), List.of(3, 4, 5)), batches);
+    writer.flush().toCompletableFuture().join();
+    assertTrue(results.get(6).join());
+    assertEquals(List.of(List.of(0, 1, 2), List.of(3, 4, 5), List.of(6)), batches);
+
+    final List<List<Integer>> byBytes = new CopyOnWriteArrayList<>();
+    final BatchingWriter bytesWriter =
+        writer(byBytes, TestBatchingWriter::acknowledged, 1000, 30, Duration.ofHours(1));
+
+    insert(bytesWriter, 0, 5);
+    bytesWriter.close();
+    assertEquals(List.of(List.of(0, 1), List.of(2, 3), List.of(4)), byBytes);
+  }
+
+  @Test
+  @DisplayName("flush by time")
+  void flushByTime() {
+    final List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+    final BatchingWriter writer =
+        writer(batches, TestBatchingWriter::acknowledged, 1000, 1000000, Duration.ofMillis(100));
+    final List<CompletableFuture<Boolean>> results = insert(writer, 0, 3);
+
+    results.forEach(r -> assertTrue(r.join()));
+    assertEquals(List.of(List.of(0, 1, 2)), batches);
+    assertTrue(insert(writer, 3, 4).getFirst().join());
+    assertEquals(List.of(List.of(0, 1, 2), List.of(3)), batches);
+  }
+}
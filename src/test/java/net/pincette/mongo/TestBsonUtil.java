@@ -1,24 +1,47 @@
 package net.pincette.mongo;
 
 import static java.time.Instant.now;
+import static java.time.Instant.parse;
+import static net.pincette.json.Factory.a;
 import static net.pincette.json.Factory.f;
 import static net.pincette.json.Factory.o;
 import static net.pincette.json.Factory.v;
 import static net.pincette.json.JsonUtil.createObjectBuilder;
 import static net.pincette.json.JsonUtil.createValue;
+import static net.pincette.mongo.BsonUtil.bsonSize;
 import static net.pincette.mongo.BsonUtil.fromBson;
+import static net.pincette.mongo.BsonUtil.fromByteBuffer;
+import static net.pincette.mongo.BsonUtil.fromBytes;
 import static net.pincette.mongo.BsonUtil.fromJson;
+import static net.pincette.mongo.BsonUtil.toByteBuffer;
+import static net.pincette.mongo.BsonUtil.toBytes;
+import static net.pincette.mongo.BsonUtil.toOutputStream;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.time.Instant;
 import javax.json.JsonObject;
 import javax.json.JsonValue;
 import org.bson.BsonDateTime;
 import org.bson.BsonDocument;
+import org.bson.BsonString;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
 class TestBsonUtil {
+  private static JsonObject dictionaryJson() {
+    return o(
+        f(new String("key"), v(new String("ab"))), f(new String("other"), v(new String("long"))));
+  }
+
+  private static String firstKey(final JsonObject json) {
+    return json.keySet().iterator().next();
+  }
+
   private static JsonValue isoDate(final Instant instant) {
     return createValue("ISODate(\"" + instant + "\")");
   }
@@ -48,4 +71,56 @@ class TestBsonUtil {
 
     assertEquals(o, fromBson(fromJson(o)));
   }
+
+  @Test
+  @DisplayName("fromJsonNew")
+  void fromJsonNew() {
+    final Instant i = now();
+
+    assertEquals(
+        new BsonDateTime(i.toEpochMilli()), BsonUtil.fromJsonNew(createValue(i.toString())));
+    assertEquals(
+        new BsonDateTime(parse("2024-02-29T10:15:30.5Z").toEpochMilli()),
+        BsonUtil.fromJsonNew(createValue("2024-02-29T11:15:30.500+01:00")));
+    assertEquals(
+        new BsonString("2023-02-29T10:15:30Z"),
+        BsonUtil.fromJsonNew(createValue("2023-02-29T10:15:30Z")));
+    assertEquals(new BsonString("some text"), BsonUtil.fromJsonNew(createValue("some text")));
+    assertEquals(
+        new BsonString("ISODate(\"test\")"), fromJson(createValue("ISODate(\"test\")")));
+  }
+
+  @Test
+  @DisplayName("bytes")
+  void bytes() {
+    final BsonDocument doc =
+        fromJson(o(f("a", v("é€😀")), f("b", a(v(1), v(2.5), o(f("c", v(true)))))));
+    final byte[] bytes = toBytes(doc);
+    final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 1);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    assertEquals(bytes.length, bsonSize(doc));
+    assertEquals(doc, fromBytes(bytes));
+    assertEquals(bytes.length, toByteBuffer(doc, direct.position(1)));
+    assertEquals(doc, fromByteBuffer(direct.position(1)));
+    assertEquals(bytes.length + 1, direct.position());
+    toOutputStream(doc, out);
+    assertArrayEquals(bytes, out.toByteArray());
+  }
+
+  @Test
+  @DisplayName("dictionary")
+  void dictionary() {
+    final KeyDictionary dictionary = new KeyDictionary(3, 2);
+    final JsonObject first = fromBson(fromJson(dictionaryJson()), dictionary);
+    final JsonObject second = fromBson(fromJson(dictionaryJson()), dictionary);
+
+    assertEquals(dictionaryJson(), second);
+    assertSame(firstKey(first), firstKey(second));
+    assertSame(first.getString("key"), second.getString("key"));
+    assertNotSame(first.getString("other"), second.getString("other"));
+    assertEquals(3, dictionary.size());
+    assertEquals(3, dictionary.hits());
+    assertEquals(0.5, dictionary.hitRate());
+  }
 }
@@ -0,0 +1,205 @@
+package net.pincette.mongo;
+
+import static java.util.concurrent.CompletableFuture.completedStage;
+import static net.pincette.json.Factory.f;
+import static net.pincette.json.Factory.o;
+import static net.pincette.json.Factory.v;
+import static net.pincette.util.StreamUtil.rangeExclusive;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.WriteModel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow.Subscription;
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TestBulkLoader {
+  private static void send(final BulkLoader loader, final int from, final int to) {
+    rangeExclusive(from, to).forEach(i -> loader.onNext(o(f("_id", v(i)))));
+  }
+
+  @Test
+  @DisplayName("backpressure")
+  void backpressure() {
+    final Writes writes = new Writes();
+    final Upstream upstream = new Upstream();
+    final BulkLoader loader =
+        new BulkLoader(writes::write, new BulkLoadOptions().withBatchSize(2).withMaxInFlight(2));
+
+    loader.onSubscribe(upstream);
+    assertEquals(4, upstream.requested);
+    send(loader, 0, 4);
+    assertEquals(2, writes.writes.size());
+    assertEquals(4, upstream.requested);
+    writes.complete(0);
+    assertEquals(6, upstream.requested);
+    send(loader, 4, 5);
+    loader.onComplete();
+    assertEquals(3, writes.writes.size());
+    writes.complete(1);
+    writes.complete(2);
+    loader.completion().toCompletableFuture().join();
+    assertEquals(3, loader.batches());
+    assertEquals(5, loader.received());
+    assertEquals(5, loader.inserted());
+
+    final Upstream ordered = new Upstream();
+
+    new BulkLoader(
+            new Writes()::write,
+            new BulkLoadOptions().withBatchSize(2).withMaxInFlight(2).withOrdered(true))
+        .onSubscribe(ordered);
+    assertEquals(2, ordered.requested);
+  }
+
+  @Test
+  @DisplayName("batching")
+  void batching() {
+    final Writes writes = new Writes();
+    final BulkLoader loader =
+        new BulkLoader(writes::write, new BulkLoadOptions().withBatchSize(3).withUpsertKey("key"));
+
+    loader.onSubscribe(new Upstream());
+    send(loader, 0, 6);
+    loader.onNext(o(f("_id", v(6)), f("key", v(6))));
+    loader.onComplete();
+    rangeExclusive(0, 3).forEach(writes::complete);
+    loader.completion().toCompletableFuture().join();
+    assertEquals(List.of(3, 3, 1), writes.writes.stream().map(w -> w.models.size()).toList());
+    assertTrue(writes.writes.get(0).models.get(0) instanceof InsertOneModel);
+    assertTrue(writes.writes.get(2).models.get(0) instanceof ReplaceOneModel);
+    assertFalse(writes.writes.get(0).options.isOrdered());
+  }
+
+  @Test
+  @DisplayName("error")
+  void error() {
+    final Writes writes = new Writes();
+    final Upstream upstream = new Upstream();
+    final BulkLoader loader =
+        new BulkLoader(writes::write, new BulkLoadOptions().withBatchSize(2).withMaxInFlight(2));
+
+    loader.onSubscribe(upstream);
+    send(loader, 0, 4);
+    writes.writes.get(0).result.completeExceptionally(new IllegalStateException());
+    assertTrue(upstream.cancelled);
+    assertTrue(
+        loader
+            .completion()
+            .toCompletableFuture()
+            .handle((r, e) -> e instanceof IllegalStateException)
+            .join());
+    send(loader, 4, 6);
+    writes.complete(1);
+    assertEquals(4, loader.received());
+    assertEquals(2, writes.writes.size());
+
+    final BulkLoader failing = new BulkLoader(writes::write, null);
+
+    failing.onSubscribe(new Upstream());
+    failing.onError(new IllegalArgumentException());
+    assertTrue(
+        failing
+            .completion()
+            .toCompletableFuture()
+            .handle((r, e) -> e instanceof IllegalArgumentException)
+            .join());
+
+    final Writes inFlight = new Writes();
+    final BulkLoader interrupted =
+        new BulkLoader(inFlight::write, new BulkLoadOptions().withBatchSize(2));
+
+    interrupted.onSubscribe(new Upstream());
+    send(interrupted, 0, 3);
+    interrupted.onError(new IllegalArgumentException());
+    inFlight.complete(0);
+    assertEquals(1, inFlight.writes.size());
+  }
+
+  @Test
+  @DisplayName("synchronous")
+  void synchronous() {
+    final int count = 100000;
+    final BulkLoader loader =
+        new BulkLoader(
+            (models, options) ->
+                completedStage(
+                    BulkWriteResult.acknowledged(models.size(), 0, 0, 0, List.of(), List.of())),
+            new BulkLoadOptions().withBatchSize(1).withMaxInFlight(1));
+    final int[] sent = new int[1];
+
+    loader.onSubscribe(
+        new Subscription() {
+          public void cancel() {
+            // Not used.
+          }
+
+          public void request(final long n) {
+            for (long i = 0; i < n && sent[0] < count; ++i) {
+              loader.onNext(o(f("_id", v(sent[0]++))));
+
+              if (sent[0] == count) {
+                loader.onComplete();
+              }
+            }
+          }
+        });
+
+    loader.completion().toCompletableFuture().join();
+    assertEquals(count, loader.inserted());
+  }
+
+  private static class Upstream implements Subscription {
+    private boolean cancelled;
+    private long requested;
+
+    public void cancel() {
+      cancelled = true;
+    }
+
+    public void request(final long n) {
+      requested += n;
+    }
+  }
+
+  private static class Write {
+    private final List<WriteModel<BsonDocument>> models;
+    private final BulkWriteOptions options;
+    private final CompletableFuture<BulkWriteResult> result = new CompletableFuture<>();
+
+    private Write(final List<WriteModel<BsonDocument>> models, final BulkWriteOptions options) {
+      this.models = models;
+      this.options = options;
+    }
+  }
+
+  private static class Writes {
+    private final List<Write> writes = new ArrayList<>();
+
+    private void complete(final int index) {
+      final Write write = writes.get(index);
+
+      write.result.complete(
+          BulkWriteResult.acknowledged(write.models.size(), 0, 0, 0, List.of(), List.of()));
+    }
+
+    private CompletionStage<BulkWriteResult> write(
+        final List<WriteModel<BsonDocument>> models, final BulkWriteOptions options) {
+      final Write write = new Write(models, options);
+
+      writes.add(write);
+
+      return write.result;
+    }
+  }
+}
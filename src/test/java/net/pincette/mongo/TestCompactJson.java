@@ -0,0 +1,64 @@
+package net.pincette.mongo;
+
+import static net.pincette.json.Factory.a;
+import static net.pincette.json.Factory.f;
+import static net.pincette.json.Factory.o;
+import static net.pincette.json.Factory.v;
+import static net.pincette.json.JsonUtil.createObjectBuilder;
+import static net.pincette.util.Collections.list;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.ArrayList;
+import java.util.stream.IntStream;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TestCompactJson {
+  @Test
+  @DisplayName("compact duplicates")
+  void duplicates() {
+    final JsonObject json =
+        new CompactJsonObject.Builder()
+            .add("a", v(1))
+            .add("b", v(2))
+            .add("a", v(3))
+            .build();
+
+    assertEquals(o(f("a", v(3)), f("b", v(2))), json);
+    assertEquals(list("a", "b"), new ArrayList<>(json.keySet()));
+  }
+
+  @Test
+  @DisplayName("compact equals")
+  void equalsProvider() {
+    final JsonObject json = o(f("a", v(1)), f("b", a(v("x"), o(f("c", v(true))))));
+    final JsonObject compact = BsonUtil.fromBson(BsonUtil.fromJson(json));
+
+    assertEquals(json, compact);
+    assertEquals(compact, json);
+    assertEquals(json.hashCode(), compact.hashCode());
+  }
+
+  @Test
+  @DisplayName("compact index")
+  void index() {
+    final CompactJsonObject.Builder builder = new CompactJsonObject.Builder();
+    final JsonObjectBuilder expected = createObjectBuilder();
+
+    IntStream.range(0, 100)
+        .forEach(
+            i -> {
+              builder.add("field" + i, v(i));
+              expected.add("field" + i, i);
+            });
+
+    final JsonObject json = builder.build();
+
+    assertEquals(expected.build(), json);
+    IntStream.range(0, 100).forEach(i -> assertEquals(i, json.getInt("field" + i)));
+    assertFalse(json.containsKey("field100"));
+  }
+}
@@ -0,0 +1,160 @@
+package net.pincette.mongo;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static net.pincette.json.Factory.f;
+import static net.pincette.json.Factory.o;
+import static net.pincette.json.Factory.v;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow.Subscription;
+import javax.json.JsonObject;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonValue;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TestIdCache {
+  private static CompletionStage<Optional<JsonObject>> load(final BsonValue id) {
+    return completedFuture(
+        id.asNumber().intValue() < 100
+            ? Optional.of(o(f("_id", v(id.asNumber().intValue()))))
+            : Optional.empty());
+  }
+
+  @Test
+  @DisplayName("eviction")
+  void eviction() {
+    final IdCache cache = new IdCache(TestIdCache::load, new CacheOptions().withMaxSize(2));
+
+    cache.get(new BsonInt32(1));
+    cache.get(new BsonInt32(2));
+    cache.get(new BsonInt32(1));
+    cache.get(new BsonInt32(3));
+    cache.get(new BsonInt32(1));
+    assertEquals(2, cache.size());
+    assertEquals(1, cache.evictions());
+    assertEquals(2, cache.hits());
+  }
+
+  @Test
+  @DisplayName("hits")
+  void hits() {
+    final IdCache cache = new IdCache(TestIdCache::load, null);
+
+    assertEquals(
+        Optional.of(o(f("_id", v(1)))),
+        cache.get(new BsonInt32(1)).toCompletableFuture().join());
+    assertEquals(
+        Optional.of(o(f("_id", v(1)))),
+        cache.get(new BsonInt64(1)).toCompletableFuture().join());
+    assertEquals(Optional.empty(), cache.get(new BsonInt32(100)).toCompletableFuture().join());
+    assertEquals(Optional.empty(), cache.get(new BsonInt32(100)).toCompletableFuture().join());
+    assertEquals(2, cache.hits());
+    assertEquals(2, cache.misses());
+  }
+
+  @Test
+  @DisplayName("invalidate during load")
+  void invalidateDuringLoad() {
+    final List<CompletableFuture<Optional<JsonObject>>> loads = new ArrayList<>();
+    final IdCache cache =
+        new IdCache(
+            id -> {
+              final CompletableFuture<Optional<JsonObject>> load = new CompletableFuture<>();
+
+              loads.add(load);
+
+              return load;
+            },
+            null);
+    final CompletionStage<Optional<JsonObject>> first = cache.get(new BsonInt32(1));
+    final CompletionStage<Optional<JsonObject>> second = cache.get(new BsonInt32(1));
+
+    assertEquals(1, loads.size());
+    cache.invalidate(new BsonInt32(1));
+    loads.getFirst().complete(Optional.of(o(f("_id", v(1)))));
+    assertFalse(first.toCompletableFuture().join().isEmpty());
+    assertFalse(second.toCompletableFuture().join().isEmpty());
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  @DisplayName("throwing load")
+  void throwingLoad() {
+    final List<BsonValue> loads = new ArrayList<>();
+    final IdCache cache =
+        new IdCache(
+            id -> {
+              loads.add(id);
+
+              if (loads.size() == 1) {
+                throw new IllegalStateException();
+              }
+
+              return load(id);
+            },
+            null);
+
+    assertTrue(
+        cache
+            .get(new BsonInt32(1))
+            .handle((r, e) -> e instanceof IllegalStateException)
+            .toCompletableFuture()
+            .join());
+    assertEquals(
+        Optional.of(o(f("_id", v(1)))),
+        cache.get(new BsonInt32(1)).toCompletableFuture().join());
+    assertEquals(2, loads.size());
+  }
+
+  @Test
+  @DisplayName("watching")
+  void watching() {
+    final IdCache cache = new IdCache(TestIdCache::load, null);
+    final ChangeWatcher watcher = cache.watcher();
+
+    cache.get(new BsonInt32(1));
+    assertEquals(0, cache.size());
+    watcher.onSubscribe(
+        new Subscription() {
+          public void cancel() {
+            // Not used.
+          }
+
+          public void request(final long n) {
+            // Not used.
+          }
+        });
+    cache.get(new BsonInt32(1));
+    cache.get(new BsonInt32(1));
+    assertEquals(1, cache.size());
+    assertEquals(1, cache.hits());
+    watcher.onError(new IllegalStateException());
+    assertEquals(0, cache.size());
+    cache.get(new BsonInt32(1));
+    assertEquals(0, cache.size());
+    assertEquals(3, cache.misses());
+  }
+
+  @Test
+  @DisplayName("replace")
+  void replace() {
+    final IdCache cache = new IdCache(TestIdCache::load, null);
+
+    cache.get(new BsonInt32(1));
+    cache.replace(new BsonInt32(1), o(f("_id", v(1)), f("a", v(true))));
+    cache.replace(new BsonInt32(2), o(f("_id", v(2)), f("a", v(true))));
+    assertEquals(
+        Optional.of(o(f("_id", v(1)), f("a", v(true)))),
+        cache.get(new BsonInt32(1)).toCompletableFuture().join());
+    assertEquals(1, cache.size());
+  }
+}
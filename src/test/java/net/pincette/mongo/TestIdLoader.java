@@ -0,0 +1,148 @@
+package net.pincette.mongo;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static net.pincette.json.Factory.f;
+import static net.pincette.json.Factory.o;
+import static net.pincette.json.Factory.v;
+import static net.pincette.mongo.IdLoader.key;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.json.JsonObject;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TestIdLoader {
+  private static CompletionStage<List<BsonDocument>> documents(final List<BsonValue> ids) {
+    return completedFuture(
+        ids.stream()
+            .filter(id -> id.isNumber() && id.asNumber().intValue() < 100)
+            .map(id -> new BsonDocument("_id", new BsonInt64(id.asNumber().longValue())))
+            .toList());
+  }
+
+  private static boolean failed(
+      final CompletionStage<Optional<JsonObject>> stage, final Class<?> exception) {
+    return stage
+        .handle((r, e) -> e instanceof CompletionException && exception.isInstance(e.getCause()))
+        .toCompletableFuture()
+        .join();
+  }
+
+  private static IdLoader loader(
+      final List<List<BsonValue>> batches, final int maxBatch, final Duration window) {
+    return new IdLoader(
+        ids -> {
+          batches.add(ids);
+
+          return documents(ids);
+        },
+        maxBatch,
+        window);
+  }
+
+  @Test
+  @DisplayName("batching")
+  void batching() {
+    final List<List<BsonValue>> batches = new CopyOnWriteArrayList<>();
+    final IdLoader loader = loader(batches, 2, Duration.ofHours(1));
+    final CompletionStage<Optional<JsonObject>> first = loader.load(new BsonInt32(1));
+    final CompletionStage<Optional<JsonObject>> second = loader.load(new BsonInt32(100));
+    final CompletionStage<Optional<JsonObject>> third = loader.load(new BsonInt32(3));
+
+    assertEquals(1, batches.size());
+    assertEquals(Set.of(new BsonInt32(1), new BsonInt32(100)), Set.copyOf(batches.getFirst()));
+    assertEquals(Optional.of(o(f("_id", v(1L)))), first.toCompletableFuture().join());
+    assertEquals(Optional.empty(), second.toCompletableFuture().join());
+    assertFalse(third.toCompletableFuture().isDone());
+    loader.flush();
+    assertEquals(2, batches.size());
+    assertEquals(Optional.of(o(f("_id", v(3L)))), third.toCompletableFuture().join());
+    loader.flush();
+    assertEquals(2, batches.size());
+  }
+
+  @Test
+  @DisplayName("failure")
+  void failure() {
+    final IdLoader throwing =
+        new IdLoader(
+            ids -> {
+              throw new IllegalStateException();
+            },
+            10,
+            Duration.ofHours(1));
+    final CompletionStage<Optional<JsonObject>> first = throwing.load(new BsonInt32(1));
+    final CompletionStage<Optional<JsonObject>> second = throwing.load(new BsonInt32(2));
+
+    throwing.flush();
+    assertTrue(failed(first, IllegalStateException.class));
+    assertTrue(failed(second, IllegalStateException.class));
+
+    final IdLoader malformed =
+        new IdLoader(ids -> completedFuture(List.of(new BsonDocument())), 10, Duration.ofHours(1));
+    final CompletionStage<Optional<JsonObject>> third = malformed.load(new BsonInt32(3));
+
+    malformed.flush();
+    assertTrue(failed(third, NullPointerException.class));
+  }
+
+  @Test
+  @DisplayName("key")
+  void keys() {
+    assertEquals(key(new BsonInt32(1)), key(new BsonInt64(1)));
+    assertEquals(key(new BsonInt32(1)), key(new BsonDouble(1.0)));
+    assertEquals(key(new BsonInt64(10)), key(new BsonDouble(10)));
+    assertNotEquals(key(new BsonInt32(1)), key(new BsonDouble(1.5)));
+    assertNotEquals(key(new BsonInt32(1)), key(new BsonString("1")));
+    assertEquals(new BsonDouble(Double.NaN), key(new BsonDouble(Double.NaN)));
+  }
+
+  @Test
+  @DisplayName("shared identifier")
+  void shared() {
+    final List<List<BsonValue>> batches = new CopyOnWriteArrayList<>();
+    final IdLoader loader = loader(batches, 10, Duration.ofHours(1));
+    final CompletableFuture<Optional<JsonObject>> first =
+        loader.load(new BsonInt32(1)).toCompletableFuture();
+    final CompletionStage<Optional<JsonObject>> second = loader.load(new BsonInt64(1));
+
+    first.complete(Optional.empty());
+    loader.flush();
+    assertEquals(List.of(List.of(new BsonInt32(1))), batches);
+    assertEquals(Optional.of(o(f("_id", v(1L)))), second.toCompletableFuture().join());
+  }
+
+  @Test
+  @DisplayName("window")
+  void window() {
+    final List<List<BsonValue>> batches = new CopyOnWriteArrayList<>();
+    final IdLoader loader = loader(batches, 10, Duration.ofMillis(50));
+    final CompletionStage<Optional<JsonObject>> first = loader.load(new BsonInt32(1));
+    final CompletionStage<Optional<JsonObject>> second = loader.load(new BsonInt32(2));
+
+    assertTrue(batches.isEmpty());
+    assertEquals(Optional.of(o(f("_id", v(1L)))), first.toCompletableFuture().join());
+    assertEquals(Optional.of(o(f("_id", v(2L)))), second.toCompletableFuture().join());
+    assertEquals(1, batches.size());
+    assertEquals(Set.of(new BsonInt32(1), new BsonInt32(2)), Set.copyOf(batches.getFirst()));
+    assertTrue(loader.load(new BsonInt32(3)).toCompletableFuture().join().isPresent());
+    assertEquals(2, batches.size());
+  }
+}
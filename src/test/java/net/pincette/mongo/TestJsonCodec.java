@@ -0,0 +1,82 @@
+package net.pincette.mongo;
+
+import static java.time.Instant.now;
+import static net.pincette.json.Factory.a;
+import static net.pincette.json.Factory.f;
+import static net.pincette.json.Factory.o;
+import static net.pincette.json.Factory.v;
+import static net.pincette.mongo.BsonUtil.fromBson;
+import static net.pincette.mongo.BsonUtil.fromJson;
+import static net.pincette.mongo.BsonUtil.isoDateJson;
+import static net.pincette.mongo.Util.fromMongoDB;
+import static net.pincette.mongo.Util.toMongoDB;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import javax.json.JsonObject;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TestJsonCodec {
+  private static final JsonCodec CODEC = new JsonCodec();
+  private static final JsonObject JSON =
+      o(
+          f("_id", v("6980604a294685698347144b")),
+          f("date", isoDateJson(now())),
+          f("int", v(3)),
+          f("double", v(3.5)),
+          f("bool", v(true)),
+          f("string", v("test")),
+          f("array", a(v(1), v("a"), o(f("_id", v("test"))))),
+          f("object", o(f("nested", a(v(false))))));
+
+  private static JsonObject decode(final BsonDocument document) {
+    return CODEC.decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+  }
+
+  private static BsonDocument encode(final JsonObject json) {
+    final BsonDocument document = new BsonDocument();
+
+    CODEC.encode(new BsonDocumentWriter(document), json, EncoderContext.builder().build());
+
+    return document;
+  }
+
+  @Test
+  @DisplayName("decode")
+  void decode() {
+    final BsonDocument document = fromJson(JSON);
+
+    assertEquals(fromBson(document), decode(document));
+  }
+
+  @Test
+  @DisplayName("encode")
+  void encode() {
+    assertEquals(fromJson(JSON), encode(JSON));
+  }
+
+  @Test
+  @DisplayName("escaped field names")
+  void escapedFieldNames() {
+    final JsonCodec codec = CODEC.withEscapedFieldNames(true);
+    final JsonObject json = o(f("a.b", a(o(f("$c/d", v(1))))), f("e", v("f.g")));
+    final BsonDocument document = new BsonDocument();
+
+    codec.encode(new BsonDocumentWriter(document), json, EncoderContext.builder().build());
+
+    assertEquals(fromJson(toMongoDB(json)), document);
+    assertEquals(
+        json, codec.decode(new BsonDocumentReader(document), DecoderContext.builder().build()));
+    assertEquals(json, fromMongoDB(toMongoDB(json)));
+    assertEquals("_slash_dot_", Util.escapeFieldName("/dot_"));
+    assertEquals("/dot_", Util.unescapeFieldName("_slash_dot_"));
+    assertSame(JSON, toMongoDB(JSON));
+    assertSame(JSON, fromMongoDB(JSON));
+  }
+}
@@ -0,0 +1,77 @@
+package net.pincette.mongo;
+
+import static java.time.Instant.now;
+import static net.pincette.json.Factory.a;
+import static net.pincette.json.Factory.f;
+import static net.pincette.json.Factory.o;
+import static net.pincette.json.Factory.v;
+import static net.pincette.mongo.BsonUtil.fromBson;
+import static net.pincette.mongo.BsonUtil.fromJson;
+import static net.pincette.mongo.BsonUtil.isoDateJson;
+import static net.pincette.util.StreamUtil.rangeExclusive;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Map;
+import javax.json.JsonObject;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonMinKey;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TestLazyJson {
+  private static final JsonObject JSON =
+      o(
+          f("_id", v("6980604a294685698347144b")),
+          f("date", isoDateJson(now())),
+          f("int", v(3)),
+          f("double", v(3.5)),
+          f("bool", v(true)),
+          f("string", v("test")),
+          f("array", a(v(1), v("a"), o(f("_id", v("test"))))),
+          f("object", o(f("nested", a(v(false))))));
+
+  private static JsonObject lazy(final BsonDocument document) {
+    return new LazyJsonObject(new RawBsonDocument(document, new BsonDocumentCodec()));
+  }
+
+  @Test
+  @DisplayName("lazy equals")
+  void lazyEquals() {
+    final BsonDocument document = fromJson(JSON);
+    final JsonObject lazy = lazy(document);
+
+    assertEquals(fromBson(document), lazy);
+    assertEquals(3, lazy.getInt("int"));
+    assertEquals("a", lazy.getJsonArray("array").getString(1));
+    assertEquals(fromBson(document).toString(), lazy.toString());
+  }
+
+  @Test
+  @DisplayName("lazy iteration")
+  void lazyIteration() {
+    final BsonDocument document = new BsonDocument();
+
+    rangeExclusive(0, 1000)
+        .forEach(i -> document.append("f" + i, i % 2 == 0 ? new BsonInt32(i) : fromJson(JSON)));
+
+    final JsonObject lazy = lazy(document);
+
+    assertEquals(
+        document.keySet().stream().toList(),
+        lazy.entrySet().stream().map(Map.Entry::getKey).toList());
+    assertEquals(fromBson(document), lazy);
+  }
+
+  @Test
+  @DisplayName("lazy unsupported types")
+  void lazyUnsupported() {
+    final JsonObject lazy = lazy(fromJson(o(f("a", v(1)))).append("b", new BsonMinKey()));
+
+    assertEquals(o(f("a", v(1))), lazy);
+    assertNull(lazy.get("b"));
+  }
+}
@@ -0,0 +1,86 @@
+package net.pincette.mongo;
+
+import static net.pincette.util.StreamUtil.rangeExclusive;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow.Publisher;
+import java.util.concurrent.Flow.Subscriber;
+import java.util.concurrent.Flow.Subscription;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TestMerge {
+  private static List<Integer> merge(final boolean ordered) {
+    return merge(ordered, new AtomicInteger(), new AtomicInteger());
+  }
+
+  private static List<Integer> merge(
+      final boolean ordered, final AtomicInteger active, final AtomicInteger maxActive) {
+    final CompletableFuture<List<Integer>> result = new CompletableFuture<>();
+
+    new Merge<>(
+            rangeExclusive(0, 4).map(i -> publisher(i, active, maxActive)).toList(), 8, ordered)
+        .subscribe(
+            new Subscriber<>() {
+              private final List<Integer> values = new ArrayList<>();
+              private Subscription subscription;
+
+              public void onComplete() {
+                result.complete(values);
+              }
+
+              public void onError(final Throwable throwable) {
+                result.completeExceptionally(throwable);
+              }
+
+              public void onNext(final Integer item) {
+                values.add(item);
+                subscription.request(1);
+              }
+
+              public void onSubscribe(final Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+              }
+            });
+
+    return result.join();
+  }
+
+  private static Publisher<Integer> publisher(
+      final int index, final AtomicInteger active, final AtomicInteger maxActive) {
+    return subscriber -> {
+      final SubmissionPublisher<Integer> publisher = new SubmissionPublisher<>();
+
+      publisher.subscribe(subscriber);
+      maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+      Thread.ofVirtual()
+          .start(
+              () -> {
+                rangeExclusive(index * 1000, (index + 1) * 1000).forEach(publisher::submit);
+                active.decrementAndGet();
+                publisher.close();
+              });
+    };
+  }
+
+  @Test
+  @DisplayName("ordered")
+  void ordered() {
+    final AtomicInteger maxActive = new AtomicInteger();
+
+    assertEquals(rangeExclusive(0, 4000).toList(), merge(true, new AtomicInteger(), maxActive));
+    assertEquals(1, maxActive.get());
+  }
+
+  @Test
+  @DisplayName("unordered")
+  void unordered() {
+    assertEquals(rangeExclusive(0, 4000).toList(), merge(false).stream().sorted().toList());
+  }
+}
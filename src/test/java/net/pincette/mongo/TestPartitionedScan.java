@@ -0,0 +1,47 @@
+package net.pincette.mongo;
+
+import static net.pincette.json.Factory.f;
+import static net.pincette.json.Factory.o;
+import static net.pincette.json.Factory.v;
+import static net.pincette.util.StreamUtil.rangeExclusive;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import javax.json.JsonObject;
+import org.bson.BsonInt32;
+import org.bson.BsonValue;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TestPartitionedScan {
+  private static List<Predicate<JsonObject>> partitions(final List<BsonValue> splits) {
+    return PartitionedScan.ranges("key", splits).stream().map(Match::predicate).toList();
+  }
+
+  @Test
+  @DisplayName("ranges")
+  void ranges() {
+    final List<Predicate<JsonObject>> partitions =
+        partitions(List.of(new BsonInt32(10), new BsonInt32(20)));
+    final List<JsonObject> documents =
+        Stream.concat(
+                rangeExclusive(0, 30).map(i -> o(f("key", v(i)))),
+                Stream.of(
+                    o(f("key", v("10"))),
+                    o(f("key", v(true))),
+                    o(f("key", v(null))),
+                    o(f("other", v(20)))))
+            .toList();
+
+    assertEquals(3, partitions.size());
+    documents.forEach(
+        d -> assertEquals(1, partitions.stream().filter(p -> p.test(d)).count()));
+    assertEquals(
+        List.of(14L, 10L, 10L),
+        partitions.stream().map(p -> documents.stream().filter(p).count()).toList());
+    assertNull(PartitionedScan.ranges("key", List.of()).getFirst());
+  }
+}
@@ -0,0 +1,134 @@
+package net.pincette.mongo;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static net.pincette.json.Factory.a;
+import static net.pincette.json.Factory.f;
+import static net.pincette.json.Factory.o;
+import static net.pincette.json.Factory.v;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow.Subscription;
+import javax.json.JsonObject;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TestQueryCache {
+  private static final List<JsonObject> DOCUMENTS =
+      List.of(
+          o(f("_id", v(1)), f("color", v("red"))),
+          o(f("_id", v(2)), f("color", v("blue"))),
+          o(f("_id", v(3)), f("color", v("red"))));
+
+  private static QueryCache cache(final List<JsonObject> result) {
+    return new QueryCache(query -> completedFuture(result), null);
+  }
+
+  private static CompletionStage<List<JsonObject>> load(final QueryCache.Query query) {
+    final List<JsonObject> found =
+        DOCUMENTS.stream().filter(Match.predicate(query.filter)).toList();
+
+    return completedFuture(
+        (query.sort != null ? found.reversed() : found)
+            .stream()
+            .limit(query.limit > 0 ? query.limit : Long.MAX_VALUE)
+            .toList());
+  }
+
+  @Test
+  @DisplayName("empty filter")
+  void emptyFilter() {
+    final QueryCache cache = cache(DOCUMENTS);
+
+    cache.find(o());
+    cache.changed(v(4), o(f("_id", v(4)), f("color", v("green"))));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  @DisplayName("invalidation")
+  void invalidation() {
+    final QueryCache cache = new QueryCache(TestQueryCache::load, null);
+    final JsonObject red = o(f("color", v("red")));
+    final JsonObject blue = o(f("color", v("blue")));
+    final JsonObject green = o(f("color", v("green")));
+
+    assertEquals(2, cache.find(red).toCompletableFuture().join().size());
+    cache.find(blue);
+    cache.find(green);
+    assertEquals(3, cache.size());
+
+    cache.changed(v(4), o(f("_id", v(4)), f("color", v("yellow"))));
+    assertEquals(3, cache.size());
+
+    cache.changed(v(2), o(f("_id", v(2)), f("color", v("green"))));
+    assertEquals(1, cache.size());
+    assertEquals(2, cache.find(red).toCompletableFuture().join().size());
+    assertEquals(1, cache.hits());
+
+    cache.changed(v(1), null);
+    assertEquals(0, cache.size());
+    assertEquals(3, cache.invalidations());
+  }
+
+  @Test
+  @DisplayName("range filter")
+  void rangeFilter() {
+    final QueryCache cache = cache(List.of());
+    final JsonObject range = o(f("n", o(f("$gte", v(10)), f("$lt", v(20)))));
+
+    cache.find(range);
+    cache.find(o(f("color", v("red")), f("$or", a(range))));
+    cache.changed(v(4), o(f("_id", v(4)), f("n", v(5))));
+    cache.changed(v(5), o(f("_id", v(5)), f("n", v(20))));
+    assertEquals(2, cache.size());
+    cache.changed(v(6), o(f("_id", v(6)), f("color", v("blue")), f("n", v(15))));
+    assertEquals(1, cache.size());
+    cache.changed(v(7), o(f("_id", v(7)), f("color", v("red")), f("n", v(10))));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  @DisplayName("sort and limit")
+  void sortAndLimit() {
+    final QueryCache cache = new QueryCache(TestQueryCache::load, null);
+    final JsonObject red = o(f("color", v("red")));
+
+    cache.find(red, o(f("_id", v(-1))), 1);
+    cache.find(red);
+    assertEquals(2, cache.size());
+    cache.changed(v(1), o(f("_id", v(1)), f("color", v("blue"))));
+    assertEquals(1, cache.size());
+    cache.changed(v(4), o(f("_id", v(4)), f("color", v("red"))));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  @DisplayName("watching")
+  void watching() {
+    final QueryCache cache = new QueryCache(TestQueryCache::load, null);
+    final ChangeWatcher watcher = cache.watcher();
+    final JsonObject red = o(f("color", v("red")));
+
+    cache.find(red);
+    assertEquals(0, cache.size());
+    watcher.onSubscribe(
+        new Subscription() {
+          public void cancel() {
+            // Not used.
+          }
+
+          public void request(final long n) {
+            // Not used.
+          }
+        });
+    cache.find(red);
+    assertEquals(1, cache.size());
+    watcher.onComplete();
+    assertEquals(0, cache.size());
+    assertEquals(2, cache.find(red).toCompletableFuture().join().size());
+    assertEquals(0, cache.size());
+    assertEquals(3, cache.misses());
+  }
+}
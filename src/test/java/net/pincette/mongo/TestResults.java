@@ -0,0 +1,109 @@
+package net.pincette.mongo;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static net.pincette.util.StreamUtil.rangeExclusive;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow.Publisher;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TestResults {
+  private static <R> R publish(final int count, final Function<Publisher<Integer>, R> consumer) {
+    final SubmissionPublisher<Integer> publisher = new SubmissionPublisher<>();
+    final R result = consumer.apply(publisher);
+
+    Thread.ofVirtual()
+        .start(
+            () -> {
+              rangeExclusive(0, count).forEach(publisher::submit);
+              publisher.close();
+            });
+
+    return result;
+  }
+
+  @Test
+  @DisplayName("chunks")
+  void chunks() {
+    final List<Integer> sizes = new ArrayList<>();
+    final List<Integer> values = new ArrayList<>();
+
+    publish(
+            25,
+            p ->
+                Results.chunks(
+                    p,
+                    10,
+                    chunk -> {
+                      sizes.add(chunk.size());
+                      values.addAll(chunk);
+
+                      return completedFuture(null);
+                    }))
+        .toCompletableFuture()
+        .join();
+
+    assertEquals(List.of(10, 10, 5), sizes);
+    assertEquals(rangeExclusive(0, 25).toList(), values);
+
+    final List<Integer> consumed = new ArrayList<>();
+
+    assertTrue(
+        publish(
+                25,
+                p ->
+                    Results.<Integer>chunks(
+                        p,
+                        10,
+                        chunk -> {
+                          consumed.addAll(chunk);
+                          throw new IllegalStateException();
+                        }))
+            .handle((r, e) -> e instanceof IllegalStateException)
+            .toCompletableFuture()
+            .join());
+    assertEquals(10, consumed.size());
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> Results.chunks(new SubmissionPublisher<>(), 0, chunk -> completedFuture(null)));
+  }
+
+  @Test
+  @DisplayName("list")
+  void list() {
+    assertEquals(
+        rangeExclusive(0, 10).toList(),
+        publish(10, p -> Results.list(p, 10)).toCompletableFuture().join());
+
+    final CompletionStage<List<Integer>> tooLarge = publish(11, p -> Results.list(p, 10));
+
+    assertTrue(
+        tooLarge.handle((r, e) -> e instanceof IllegalStateException).toCompletableFuture().join());
+  }
+
+  @Test
+  @DisplayName("stream")
+  void stream() {
+    try (final Stream<Integer> stream = publish(1000, p -> Results.stream(p, 16))) {
+      assertEquals(rangeExclusive(0, 1000).toList(), stream.toList());
+    }
+
+    final SubmissionPublisher<Integer> failing = new SubmissionPublisher<>();
+    final Stream<Integer> stream = Results.stream(failing, 4);
+
+    failing.closeExceptionally(new IllegalStateException());
+    assertThrows(CompletionException.class, stream::toList);
+    assertThrows(
+        IllegalArgumentException.class, () -> Results.stream(new SubmissionPublisher<>(), 0));
+  }
+}
@@ -0,0 +1,69 @@
+package net.pincette.mongo;
+
+import static net.pincette.json.Factory.f;
+import static net.pincette.json.Factory.o;
+import static net.pincette.json.Factory.v;
+import static net.pincette.util.StreamUtil.rangeExclusive;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.SubmissionPublisher;
+import javax.json.JsonObject;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TestSpillList {
+  private static List<JsonObject> objects(final int count) {
+    return rangeExclusive(0, count).map(i -> o(f("i", v(i)), f("s", v("value " + i)))).toList();
+  }
+
+  private static SpillList collect(final List<JsonObject> objects, final long memoryBytes) {
+    final SubmissionPublisher<JsonObject> publisher = new SubmissionPublisher<>();
+    final CompletionStage<SpillList> result = SpillList.collect(publisher, memoryBytes);
+
+    objects.forEach(publisher::submit);
+    publisher.close();
+
+    return result.toCompletableFuture().join();
+  }
+
+  @Test
+  @DisplayName("memory")
+  void memory() {
+    final List<JsonObject> objects = objects(100);
+
+    try (SpillList list = collect(objects, 1000000)) {
+      assertEquals(100, list.inMemory());
+      assertEquals(objects, list);
+    }
+  }
+
+  @Test
+  @DisplayName("spill failure")
+  void spillFailure() {
+    final SubmissionPublisher<JsonObject> publisher = new SubmissionPublisher<>();
+    final CompletionStage<SpillList> result =
+        SpillList.collect(
+            publisher, 1000, Path.of(System.getProperty("java.io.tmpdir"), "missing", "spill"));
+
+    objects(1000).forEach(publisher::submit);
+    publisher.close();
+    assertTrue(result.toCompletableFuture().handle((r, e) -> e != null).join());
+  }
+
+  @Test
+  @DisplayName("spill")
+  void spill() {
+    final List<JsonObject> objects = objects(1000);
+
+    try (SpillList list = collect(objects, 1000)) {
+      assertTrue(list.inMemory() < 1000);
+      assertEquals(1000, list.size());
+      assertEquals(objects, list);
+      assertEquals(999, list.get(999).getInt("i"));
+    }
+  }
+}
@@ -1,13 +1,38 @@
 package net.pincette.mongo;
 
+import static java.lang.Thread.currentThread;
+import static java.lang.Thread.sleep;
+import static java.nio.file.Files.createTempDirectory;
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.writeString;
+import static java.util.concurrent.ConcurrentHashMap.newKeySet;
 import static net.pincette.json.Factory.a;
 import static net.pincette.json.Factory.f;
 import static net.pincette.json.Factory.o;
 import static net.pincette.json.Factory.v;
+import static net.pincette.json.JsonUtil.createObjectBuilder;
 import static net.pincette.json.JsonUtil.emptyArray;
+import static net.pincette.json.JsonUtil.string;
+import static net.pincette.rs.Util.asListAsync;
+import static net.pincette.util.Collections.list;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow.Processor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import javax.json.JsonArray;
 import javax.json.JsonObject;
 import org.junit.jupiter.api.DisplayName;
@@ -170,4 +195,210 @@ class TestValidator {
                             f("sub1", o(f("field1", v(0)), f("field2", v("a@re.be")))),
                             f("sub2", o(f("field1", v(1)), f("field2", v("b@re.be"))))))))));
   }
+
+  @Test
+  @DisplayName("parallel arrays")
+  void parallelArrays() {
+    final Set<Thread> threads = newKeySet();
+    final Validator parallel = new Validator();
+
+    try (final ForkJoinPool pool =
+        new ForkJoinPool(3) {
+          public void execute(final Runnable task) {
+            super.execute(
+                () -> {
+                  threads.add(currentThread());
+                  task.run();
+                });
+          }
+        }) {
+      parallel.setParallelArrays(1, pool);
+
+      final Function<JsonObject, JsonArray> check =
+          parallel.validator("resource:/validators/tests/test2/validator.json");
+
+      assertEquals(
+          a(
+              o(f("location", v("/field2/0/sub1/field2")), f("code", v("EMAIL"))),
+              o(f("location", v("/field2/2/sub2/field2")), f("code", v("EMAIL")))),
+          check.apply(
+              o(
+                  f("field1", v(34597978797L)),
+                  f(
+                      "field2",
+                      a(
+                          element("test", "b@re.be"),
+                          element("a@re.be", "b@re.be"),
+                          element("a@re.be", "test"))))));
+      assertFalse(threads.isEmpty());
+      assertFalse(threads.contains(currentThread()));
+    }
+  }
+
+  @Test
+  @DisplayName("specification store")
+  void specificationStore() throws IOException {
+    final String source = "resource:/validators/tests/test2/validator.json";
+    final File file = createTempFile("specifications", ".bson").toFile();
+    final Validator first = new Validator();
+
+    file.deleteOnExit();
+    first.setSpecificationStore(file);
+
+    final JsonObject specification = first.load(source);
+
+    first.saveSpecificationStore();
+
+    final Validator second = new Validator();
+
+    second.setSpecificationStore(file);
+    assertTrue(file.length() > 0);
+    assertEquals(specification, second.load(source));
+  }
+
+  @Test
+  @DisplayName("specification store resolution")
+  void specificationStoreResolution() throws IOException {
+    final Path directory = createTempDirectory("validators");
+    final String main = directory.resolve("main.json").toString();
+    final File file = directory.resolve("specifications.bson").toFile();
+    final SourceResolver sourceResolver = new SourceResolver();
+    final LongAdder resolutions = new LongAdder();
+    final Supplier<Validator> validator =
+        () -> {
+          final Validator v =
+              new Validator(
+                  null,
+                  (s, c) -> {
+                    resolutions.increment();
+                    return sourceResolver.resolve(s, c);
+                  });
+
+          v.setSpecificationStore(file);
+
+          return v;
+        };
+
+    writeString(Path.of(main), string(o(f("conditions", a(o(f("a", v(1))))))));
+
+    final Validator first = validator.get();
+    final JsonObject specification = first.load(main);
+
+    first.saveSpecificationStore();
+    assertEquals(1, resolutions.sum());
+    assertEquals(specification, validator.get().load(main));
+    assertEquals(1, resolutions.sum());
+    assertTrue(new File(main).setLastModified(new File(main).lastModified() + 10000));
+    assertEquals(specification, validator.get().load(main));
+    assertEquals(1, resolutions.sum());
+    writeString(Path.of(main), string(o(f("conditions", a(o(f("a", v(22))))))));
+    sourceResolver.invalidate(main);
+    assertNotEquals(specification, validator.get().load(main));
+    assertEquals(2, resolutions.sum());
+  }
+
+  @Test
+  @DisplayName("reload")
+  void reload() throws IOException, InterruptedException {
+    final Path directory = createTempDirectory("validators");
+    final Path included = directory.resolve("included.json");
+    final Path main = directory.resolve("main.json");
+
+    writeString(included, string(o(f("conditions", a(o(f("a", v(1)), f("$code", v("A"))))))));
+    writeString(main, string(o(f("include", a(v(included.toString()))))));
+
+    try (final ReloadingValidator reloading = new ReloadingValidator(new Validator())) {
+      final Function<JsonObject, JsonArray> check = reloading.validator(main.toString());
+      final JsonObject json = o(f("a", v(2)));
+
+      assertEquals(a(o(f("location", v("/a")), f("code", v("A")))), check.apply(json));
+      writeString(included, string(o(f("conditions", a(o(f("a", v(2)), f("$code", v("A"))))))));
+
+      for (int i = 0; i < 100 && !check.apply(json).isEmpty(); ++i) {
+        sleep(100);
+      }
+
+      assertEquals(emptyArray(), check.apply(json));
+    }
+  }
+
+  private static JsonObject element(final String email1, final String email2) {
+    return o(
+        f("field1", v("test")),
+        f("field2", v(false)),
+        f("sub1", o(f("field1", v(0)), f("field2", v(email1)))),
+        f("sub2", o(f("field1", v(1)), f("field2", v(email2)))));
+  }
+
+  @Test
+  @DisplayName("incremental")
+  void incremental() {
+    final Validator.Incremental check =
+        validator.incrementalValidator("resource:/validators/tests/test2/validator.json");
+    final JsonObject previous =
+        o(
+            f("field1", v(34597978797L)),
+            f(
+                "field2",
+                a(
+                    element("test", "b@re.be"),
+                    element("a@re.be", "b@re.be"),
+                    element("a@re.be", "b@re.be"))));
+
+    assertEquals(
+        a(o(f("location", v("/field2/2/sub2/field2")), f("code", v("EMAIL")))),
+        check.apply(
+            previous,
+            o(
+                f("field1", v(34597978797L)),
+                f(
+                    "field2",
+                    a(
+                        element("test", "b@re.be"),
+                        element("a@re.be", "b@re.be"),
+                        element("a@re.be", "test"))))));
+    assertEquals(emptyArray(), check.apply(previous, previous));
+  }
+
+  @Test
+  @DisplayName("processor")
+  void processor() {
+    final Function<JsonObject, JsonArray> check =
+        validator.validator("resource:/validators/tests/test2/validator.json");
+    final JsonObject invalid =
+        o(f("field1", v(34597978797L)), f("field2", a(element("a@re.be", "test"))));
+    final JsonObject valid =
+        o(f("field1", v(34597978797L)), f("field2", a(element("a@re.be", "b@re.be"))));
+    final List<JsonObject> rejected = new CopyOnWriteArrayList<>();
+    final SubmissionPublisher<JsonObject> publisher = new SubmissionPublisher<>();
+    final Processor<JsonObject, JsonObject> tagged =
+        Validator.processor(check, new ValidationOptions().withParallelism(2));
+    final Processor<JsonObject, JsonObject> routed =
+        Validator.processor(
+            check, new ValidationOptions().withInvalid((json, errors) -> rejected.add(json)));
+
+    publisher.subscribe(tagged);
+    publisher.subscribe(routed);
+
+    final CompletionStage<List<JsonObject>> taggedResult = asListAsync(tagged);
+    final CompletionStage<List<JsonObject>> routedResult = asListAsync(routed);
+
+    publisher.submit(valid);
+    publisher.submit(invalid);
+    publisher.submit(valid);
+    publisher.close();
+
+    assertEquals(
+        list(
+            valid,
+            createObjectBuilder(invalid)
+                .add(
+                    "_errors",
+                    a(o(f("location", v("/field2/0/sub2/field2")), f("code", v("EMAIL")))))
+                .build(),
+            valid),
+        taggedResult.toCompletableFuture().join());
+    assertEquals(list(valid, valid), routedResult.toCompletableFuture().join());
+    assertEquals(list(invalid), rejected);
+  }
 }
@@ -0,0 +1,151 @@
+package net.pincette.mongo;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static net.pincette.json.Factory.f;
+import static net.pincette.json.Factory.o;
+import static net.pincette.json.Factory.v;
+import static net.pincette.util.Util.tryToGetRethrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.LinkedBlockingQueue;
+import javax.json.JsonObject;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TestWriteBehind {
+  private static boolean failed(final CompletionStage<Boolean> result) {
+    return result.toCompletableFuture().handle((r, e) -> e instanceof IllegalStateException).join();
+  }
+
+  private static JsonObject version(final int id, final int version) {
+    return o(f("_id", v(id)), f("version", v(version)));
+  }
+
+  @Test
+  @DisplayName("coalescing")
+  void coalescing() {
+    final Writes writes = new Writes();
+    final WriteBehind writeBehind = new WriteBehind(writes::write, Duration.ofMillis(50));
+    final CompletionStage<Boolean> first = writeBehind.update(version(1, 0), version(1, 1));
+    final CompletionStage<Boolean> second = writeBehind.update(version(1, 1), version(1, 2));
+    final CompletionStage<Boolean> other = writeBehind.update(version(2, 1));
+    final Write write1 = writes.next();
+    final Write write2 = writes.next();
+    final Write write = write1.target.getInt("_id") == 1 ? write1 : write2;
+
+    assertSame(first, second);
+    assertEquals(version(1, 0), write.source);
+    assertEquals(version(1, 2), write.target);
+    assertNull((write == write1 ? write2 : write1).source);
+    write1.result.complete(true);
+    write2.result.complete(true);
+    assertTrue(first.toCompletableFuture().join());
+    assertTrue(other.toCompletableFuture().join());
+    writeBehind.close();
+    assertTrue(writes.queue.isEmpty());
+  }
+
+  @Test
+  @DisplayName("failure")
+  void failure() {
+    final Writes writes = new Writes();
+    final WriteBehind writeBehind = new WriteBehind(writes::write, Duration.ofMillis(1));
+    final CompletionStage<Boolean> first = writeBehind.update(version(1, 0), version(1, 1));
+    final Write write1 = writes.next();
+    final CompletionStage<Boolean> second = writeBehind.update(version(1, 1), version(1, 2));
+
+    write1.result.completeExceptionally(new IllegalStateException());
+    assertTrue(failed(first));
+
+    final Write write2 = writes.next();
+
+    assertNull(write2.source);
+    assertEquals(version(1, 2), write2.target);
+    write2.result.complete(true);
+    assertTrue(second.toCompletableFuture().join());
+    writeBehind.close();
+    assertTrue(failed(writeBehind.update(version(1, 3))));
+  }
+
+  @Test
+  @DisplayName("throwing writer")
+  void throwingWriter() {
+    final WriteBehind writeBehind =
+        new WriteBehind(
+            (source, target) -> {
+              throw new IllegalStateException();
+            },
+            Duration.ofMillis(1));
+    final CompletionStage<Boolean> result = writeBehind.update(version(1, 1));
+
+    assertTrue(failed(result));
+    assertTrue(failed(writeBehind.update(version(1, 2))));
+    writeBehind.close();
+  }
+
+  @Test
+  @DisplayName("order per _id")
+  void order() {
+    final Writes writes = new Writes();
+    final WriteBehind writeBehind = new WriteBehind(writes::write, Duration.ofMillis(1));
+    final CompletionStage<Boolean> first = writeBehind.update(version(1, 1));
+    final Write write1 = writes.next();
+    final CompletionStage<Boolean> second = writeBehind.update(version(1, 2));
+    final CompletionStage<Boolean> third = writeBehind.update(version(1, 3));
+    final CompletionStage<Void> flushed = writeBehind.flush();
+
+    assertSame(second, third);
+    assertNull(writes.poll());
+    assertFalse(flushed.toCompletableFuture().isDone());
+    write1.result.complete(true);
+
+    final Write write2 = writes.next();
+
+    assertEquals(version(1, 3), write2.target);
+    assertTrue(first.toCompletableFuture().join());
+    write2.result.complete(true);
+    assertTrue(third.toCompletableFuture().join());
+    flushed.toCompletableFuture().join();
+    writeBehind.close();
+  }
+
+  private static class Write {
+    private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+    private final JsonObject source;
+    private final JsonObject target;
+
+    private Write(final JsonObject source, final JsonObject target) {
+      this.source = source;
+      this.target = target;
+    }
+  }
+
+  private static class Writes {
+    private final BlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+
+    private Write next() {
+      return tryToGetRethrow(() -> queue.poll(5, SECONDS)).orElseThrow();
+    }
+
+    private Write poll() {
+      return tryToGetRethrow(() -> queue.poll(100, MILLISECONDS)).orElse(null);
+    }
+
+    private CompletionStage<Boolean> write(final JsonObject source, final JsonObject target) {
+      final Write write = new Write(source, target);
+
+      queue.add(write);
+
+      return write.result;
+    }
+  }
+}